@@ -0,0 +1,94 @@
+package org.example;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Multi-producer/multi-consumer runs against one queue of the default (single partition)
+ * service, with different producer to consumer ratios. PartitionedQueueBenchmark covers how
+ * partitioning changes the balanced case.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class ContendedQueueBenchmark {
+
+    private InMemoryPriorityQueueService service;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        service = new InMemoryPriorityQueueService();
+        for (int i = 0; i < 10_000; i++) {
+            service.push("q", "seed-" + i, i % 4);
+        }
+    }
+
+    private void produce() {
+        service.push("q", "payload", 1);
+    }
+
+    private Message consume() {
+        Message msg = service.pull("q");
+        if (msg != null) {
+            service.delete("q", msg.getReceiptId());
+        }
+        return msg;
+    }
+
+    @Benchmark
+    @Group("balanced")
+    @GroupThreads(4)
+    public void balancedPush() {
+        produce();
+    }
+
+    @Benchmark
+    @Group("balanced")
+    @GroupThreads(4)
+    public Message balancedPullDelete() {
+        return consume();
+    }
+
+    @Benchmark
+    @Group("fanIn")
+    @GroupThreads(6)
+    public void fanInPush() {
+        produce();
+    }
+
+    @Benchmark
+    @Group("fanIn")
+    @GroupThreads(2)
+    public Message fanInPullDelete() {
+        return consume();
+    }
+
+    @Benchmark
+    @Group("fanOut")
+    @GroupThreads(2)
+    public void fanOutPush() {
+        produce();
+    }
+
+    @Benchmark
+    @Group("fanOut")
+    @GroupThreads(6)
+    public Message fanOutPullDelete() {
+        return consume();
+    }
+}
@@ -0,0 +1,54 @@
+package org.example;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of a lease and its delete while many other messages are in flight. The in-flight leases
+ * are long enough to outlive the run, so none of them expires during measurement; a delete
+ * whose cost grows with inFlight shows up as a rising score.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DeleteBenchmark {
+
+    @Param({"0", "10000", "1000000"})
+    int inFlight;
+
+    private InMemoryPriorityQueueService service;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        service = new InMemoryPriorityQueueService();
+        for (int i = 0; i < inFlight; i++) {
+            service.push("q", "in-flight-" + i);
+        }
+        while (!service.pull("q", 1_000, Duration.ofHours(1)).isEmpty()) {
+            // lease everything
+        }
+    }
+
+    @Benchmark
+    public Message pullAndDelete() {
+        service.push("q", "payload");
+        Message msg = service.pull("q");
+        service.delete("q", msg.getReceiptId());
+        return msg;
+    }
+}
@@ -0,0 +1,65 @@
+package org.example;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Contention benchmark for one hot queue: producers push while consumers pull and delete.
+ * Compare the total ops/s across partition counts, and rerun with more threads
+ * ({@code -tg 8,8}) to see how each mode scales.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class PartitionedQueueBenchmark {
+
+    @Param({"1", "4", "16"})
+    int partitions;
+
+    @Param({"false", "true"})
+    boolean strictPriority;
+
+    private InMemoryPriorityQueueService service;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        service = new InMemoryPriorityQueueService(partitions, strictPriority);
+        for (int i = 0; i < 10_000; i++) {
+            service.push("hot", "seed-" + i, i % 8);
+        }
+    }
+
+    @Benchmark
+    @Group("hotQueue")
+    @GroupThreads(4)
+    public void push() {
+        service.push("hot", "payload", 3);
+    }
+
+    @Benchmark
+    @Group("hotQueue")
+    @GroupThreads(4)
+    public Message pullAndDelete() {
+        Message msg = service.pull("hot");
+        if (msg != null) {
+            service.delete("hot", msg.getReceiptId());
+        }
+        return msg;
+    }
+}
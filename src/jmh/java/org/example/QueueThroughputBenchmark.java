@@ -0,0 +1,89 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single-threaded cost of the basic operations of the in-memory queue at different queue depths
+ * and priority distributions. Each operation is measured in steady state: the queue is filled to
+ * depth first, and every benchmark puts back what it takes, so the depth stays constant.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class QueueThroughputBenchmark {
+
+    private static final List<String> BATCH = Collections.nCopies(10, "payload");
+
+    @Param({"0", "1000", "100000"})
+    int depth;
+
+    /** single: all priority 0; uniform: 0..9 evenly; skewed: mostly 0 with a few urgent ones. */
+    @Param({"single", "uniform", "skewed"})
+    String priorities;
+
+    private InMemoryPriorityQueueService service;
+    private SplittableRandom random;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        service = new InMemoryPriorityQueueService();
+        random = new SplittableRandom(42);
+        for (int i = 0; i < depth; i++) {
+            service.push("q", "seed-" + i, nextPriority());
+        }
+    }
+
+    private int nextPriority() {
+        switch (priorities) {
+            case "uniform":
+                return random.nextInt(10);
+            case "skewed":
+                return random.nextInt(100) == 0 ? 9 : 0;
+            default:
+                return 0;
+        }
+    }
+
+    /** One message through its whole life: push, pull and delete. */
+    @Benchmark
+    public Message pushPullDelete() {
+        service.push("q", "payload", nextPriority());
+        Message msg = service.pull("q");
+        service.delete("q", msg.getReceiptId());
+        return msg;
+    }
+
+    /** Batched variant: ten messages per call to each operation. */
+    @Benchmark
+    @OperationsPerInvocation(10)
+    public int pushPullDeleteBatch() {
+        service.pushBatch("q", BATCH, nextPriority());
+        List<Message> pulled = service.pull("q", BATCH.size());
+        List<String> receipts = new ArrayList<>(pulled.size());
+        for (Message msg : pulled) {
+            receipts.add(msg.getReceiptId());
+        }
+        service.deleteBatch("q", receipts);
+        return pulled.size();
+    }
+}
@@ -0,0 +1,81 @@
+package org.example;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of one add and one poll on a ready heap holding depth messages of few distinct priorities,
+ * so most comparisons fall through to the tie-break. Compares the chained key-extractor
+ * comparator the service used to have with ReadyQueue.DELIVERY_ORDER and the primitive
+ * off-heap heap.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ReadyQueueBenchmark {
+
+    private static final Comparator<Message> CHAINED =
+            Comparator.comparingInt(Message::getPriority).reversed()
+                    .thenComparingLong(Message::getSequence);
+
+    @Param({"1000", "1000000"})
+    int depth;
+
+    private PriorityQueue<Message> chained;
+    private ReadyQueue onHeap;
+    private ReadyQueue offHeap;
+    private long sequence;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        chained = new PriorityQueue<>(11, CHAINED);
+        onHeap = new ReadyQueue.OnHeap();
+        offHeap = new OffHeapReadyQueue();
+        for (int i = 0; i < depth; i++) {
+            Message msg = next();
+            chained.add(msg);
+            onHeap.add(msg);
+            offHeap.add(msg);
+        }
+    }
+
+    private Message next() {
+        Message msg = new Message("payload", (int) (sequence % 3));
+        msg.setSequence(sequence++);
+        return msg;
+    }
+
+    @Benchmark
+    public Message chainedComparator() {
+        chained.add(next());
+        return chained.poll();
+    }
+
+    @Benchmark
+    public Message deliveryOrder() {
+        onHeap.add(next());
+        return onHeap.poll();
+    }
+
+    @Benchmark
+    public Message offHeap() {
+        offHeap.add(next());
+        return offHeap.poll();
+    }
+}
@@ -0,0 +1,98 @@
+package org.example;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * RedisQueueService and AsyncRedisQueueService against UpstashStandIn, an in-process Upstash
+ * stand-in with a configurable latency per HTTP request. With latency 0 the score is client and
+ * HTTP overhead; with realistic latencies it shows how far batching and pipelining hide the
+ * round trips.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RedisQueueBenchmark {
+
+    private static final int PIPELINED_OPS = 100;
+
+    @Param({"0", "1000"})
+    long latencyMicros;
+
+    private UpstashStandIn upstash;
+    private RedisQueueService service;
+    private AsyncRedisQueueService asyncService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        upstash = new UpstashStandIn(Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(latencyMicros)));
+        HttpClient client = HttpClient.newHttpClient();
+        service = new RedisQueueService(client, upstash.url(), "token");
+        asyncService = new AsyncRedisQueueService(client, upstash.url(), "token", 100, 8, 10_000);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        upstash.close();
+    }
+
+    /** Three round trips per message. */
+    @Benchmark
+    @Threads(4)
+    public Message pushPullDelete() {
+        service.push("q", "payload");
+        Message msg = service.pull("q");
+        if (msg != null) {
+            service.delete("q", msg.getReceiptId());
+        }
+        return msg;
+    }
+
+    /** Three round trips per ten messages. */
+    @Benchmark
+    @Threads(4)
+    @OperationsPerInvocation(10)
+    public int pushPullDeleteBatch() {
+        service.pushBatch("q", List.of("1", "2", "3", "4", "5", "6", "7", "8", "9", "10"));
+        List<Message> pulled = service.pull("q", 10);
+        List<String> receipts = new ArrayList<>(pulled.size());
+        for (Message msg : pulled) {
+            receipts.add(msg.getReceiptId());
+        }
+        service.deleteBatch("q", receipts);
+        return pulled.size();
+    }
+
+    /** Many outstanding pushes from one thread, coalesced into /pipeline requests. */
+    @Benchmark
+    @OperationsPerInvocation(PIPELINED_OPS)
+    public void asyncPipelinedPush() {
+        CompletableFuture<?>[] pushes = new CompletableFuture<?>[PIPELINED_OPS];
+        for (int i = 0; i < PIPELINED_OPS; i++) {
+            pushes[i] = asyncService.push("async", "payload");
+        }
+        CompletableFuture.allOf(pushes).join();
+    }
+}
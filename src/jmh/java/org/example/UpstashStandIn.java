@@ -0,0 +1,135 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process stand-in for the Upstash REST API, so the Redis clients can be benchmarked without
+ * a network or a Redis server. It answers the EVALSHA commands of the queue scripts, both as
+ * single commands and as /pipeline batches, from an InMemoryPriorityQueueService, after sleeping
+ * for a configurable latency per HTTP request to model the round trip.
+ *
+ * <p>Only the scripts are understood; other commands get an error reply, and BLPOP returns null
+ * at once. The numbers therefore measure client overhead plus the simulated round trips, not
+ * Redis itself.
+ */
+final class UpstashStandIn implements AutoCloseable {
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final InMemoryPriorityQueueService queues = new InMemoryPriorityQueueService();
+    private final long latencyNanos;
+
+    UpstashStandIn(Duration latency) throws IOException {
+        this.latencyNanos = latency.toNanos();
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            JsonNode request = RedisQueueService.MAPPER.readTree(in);
+            if (latencyNanos > 0) {
+                LockSupport.parkNanos(latencyNanos);
+            }
+
+            JsonNode reply;
+            if (exchange.getRequestURI().getPath().endsWith("/pipeline")) {
+                ArrayNode replies = RedisQueueService.MAPPER.createArrayNode();
+                for (JsonNode command : request) {
+                    replies.add(execute(command));
+                }
+                reply = replies;
+            } else {
+                reply = execute(request);
+            }
+
+            byte[] body = RedisQueueService.MAPPER.writeValueAsBytes(reply);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    /** Run one command and wrap its outcome in an Upstash reply envelope. */
+    private ObjectNode execute(JsonNode command) {
+        ObjectNode reply = RedisQueueService.MAPPER.createObjectNode();
+        String verb = command.get(0).asText();
+        if (verb.equals("BLPOP")) {
+            return reply.putNull("result");
+        }
+        if (!verb.equals("EVALSHA")) {
+            return reply.put("error", "ERR unsupported command " + verb);
+        }
+
+        String sha = command.get(1).asText();
+        int keyCount = command.get(2).asInt();
+        String key = command.get(3).asText();
+        String queueUrl = key.substring(1, key.indexOf('}'));
+        List<String> args = new ArrayList<>();
+        for (int i = 3 + keyCount; i < command.size(); i++) {
+            args.add(command.get(i).asText());
+        }
+
+        if (sha.equals(RedisScripts.PUSH.sha)) {
+            int priority = Integer.parseInt(args.get(0));
+            for (String payload : args.subList(2, args.size())) {
+                queues.push(queueUrl, RedisQueueService.decode(payload).getBody(), priority);
+            }
+            return reply.put("result", args.size() - 2);
+        } else if (sha.equals(RedisScripts.PULL.sha)) {
+            long now = Long.parseLong(args.get(0));
+            long deadline = Long.parseLong(args.get(1));
+            ArrayNode leased = reply.putArray("result");
+            for (Message msg : queues.pull(queueUrl, Integer.parseInt(args.get(2)), Duration.ofMillis(deadline - now))) {
+                leased.add(msg.getReceiptId());
+                leased.add(RedisQueueService.encode(msg));
+                leased.add(1);
+            }
+            return reply;
+        } else if (sha.equals(RedisScripts.DELETE.sha)) {
+            queues.deleteBatch(queueUrl, args);
+            ArrayNode deleted = reply.putArray("result");
+            for (String receipt : args) {
+                deleted.add(receipt);
+                deleted.add(1);
+            }
+            return reply;
+        } else if (sha.equals(RedisScripts.REQUEUE.sha)) {
+            return reply.put("result", 0);
+        }
+        return reply.put("error", "NOSCRIPT No matching script.");
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
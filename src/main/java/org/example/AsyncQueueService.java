@@ -0,0 +1,31 @@
+package org.example;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public interface AsyncQueueService {
+    /** push a message onto a queue. */
+    public CompletableFuture<Void> push(String queueUrl, String messageBody);
+
+    /** retrieves a single message from a queue; completes with null if none is visible. */
+    public CompletableFuture<Message> pull(String queueUrl);
+
+    /** deletes a message from the queue that was received by pull(). */
+    public CompletableFuture<Void> delete(String queueUrl, String receiptId);
+
+    /** push several messages onto a queue in a single operation. */
+    public CompletableFuture<Void> pushBatch(String queueUrl, List<String> messageBodies);
+
+    /** retrieves up to maxMessages messages from a queue; empty if none are visible. */
+    public CompletableFuture<List<Message>> pull(String queueUrl, int maxMessages);
+
+    /** deletes several messages received by pull() in a single operation. */
+    public CompletableFuture<Void> deleteBatch(String queueUrl, List<String> receiptIds);
+
+    /**
+     * makes a received message visible again after visibilityTimeout, counted from now; a zero
+     * timeout releases it at once. Completes with false if the receipt no longer holds the lease.
+     */
+    public CompletableFuture<Boolean> changeVisibility(String queueUrl, String receiptId, Duration visibilityTimeout);
+}
@@ -0,0 +1,296 @@
+package org.example;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Non-blocking Redis-backed queue client using the Upstash REST API.
+ *
+ * <p>Operations are queued and shipped as Upstash {@code /pipeline} requests through
+ * {@link HttpClient#sendAsync}. While the maximum number of HTTP requests is outstanding, new
+ * operations accumulate and are coalesced into the next pipeline, so a few threads can keep
+ * hundreds of operations in flight. The number of queued-but-unfinished operations is bounded as
+ * well: once it is reached, callers block until earlier operations complete instead of growing the
+ * backlog without limit.
+ *
+ * <p>Uses the same key layout and scripts as {@link RedisQueueService}, so both clients can share
+ * queues.
+ */
+public class AsyncRedisQueueService implements AsyncQueueService {
+
+    private static final int DEFAULT_MAX_PIPELINE_SIZE = 100;
+    private static final int DEFAULT_MAX_REQUESTS_IN_FLIGHT = 8;
+    private static final int DEFAULT_MAX_PENDING_OPERATIONS = 10_000;
+
+    private final HttpClient client;
+    private final URI pipelineEndpoint;
+    private final String token;
+    private final int maxPipelineSize;
+    private final int maxRequestsInFlight;
+    private final ReceiptIdGenerator receiptIds = new ReceiptIdGenerator();
+    /** Lease length per queue in millis, for queues that do not use VISIBILITY_TIMEOUT_MS. */
+    private final Map<String, Long> visibilityTimeouts = new ConcurrentHashMap<>();
+
+    /** Bounds operations that were submitted but have not completed yet. */
+    private final Semaphore pendingPermits;
+    private final ConcurrentLinkedQueue<Operation> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger requestsInFlight = new AtomicInteger();
+
+    /** One queued Redis command and the future its caller is waiting on. */
+    private static final class Operation {
+        final List<String> command;
+        final RedisScripts.Script script; // non-null for EVALSHA commands, used for the NOSCRIPT fallback
+        final List<String> keys;
+        final List<String> args;
+        final CompletableFuture<JsonNode> result;
+
+        Operation(List<String> command, RedisScripts.Script script, List<String> keys, List<String> args,
+                  CompletableFuture<JsonNode> result) {
+            this.command = command;
+            this.script = script;
+            this.keys = keys;
+            this.args = args;
+            this.result = result;
+        }
+    }
+
+    /** Default constructor (production) */
+    public AsyncRedisQueueService() {
+        this(HttpClient.newHttpClient());
+    }
+
+    /** Constructor for injecting custom HttpClient (useful for tests) */
+    public AsyncRedisQueueService(HttpClient client) {
+        this(client, RedisQueueService.UPSTASH_URL, RedisQueueService.TOKEN,
+                DEFAULT_MAX_PIPELINE_SIZE, DEFAULT_MAX_REQUESTS_IN_FLIGHT, DEFAULT_MAX_PENDING_OPERATIONS);
+    }
+
+    /**
+     * @param maxPipelineSize       most commands coalesced into one /pipeline request
+     * @param maxRequestsInFlight   most HTTP requests outstanding at once
+     * @param maxPendingOperations  most submitted operations not yet completed; callers block beyond it
+     */
+    public AsyncRedisQueueService(HttpClient client, String url, String token,
+                                  int maxPipelineSize, int maxRequestsInFlight, int maxPendingOperations) {
+        this.client = client;
+        this.pipelineEndpoint = url == null ? null : URI.create(url + "/pipeline");
+        this.token = token;
+        this.maxPipelineSize = maxPipelineSize;
+        this.maxRequestsInFlight = maxRequestsInFlight;
+        this.pendingPermits = new Semaphore(maxPendingOperations);
+    }
+
+    /** See {@link RedisQueueService#setRedrivePolicy}; completes once the policy is stored. */
+    public CompletableFuture<Void> setRedrivePolicy(String queueUrl, String deadLetterQueueUrl, int maxReceiveCount) {
+        List<String> command = RedisQueueService.redrivePolicyCommand(queueUrl,
+                new RedrivePolicy(deadLetterQueueUrl, maxReceiveCount));
+        return submit(command, null, null, null).thenApply(result -> null);
+    }
+
+    /** See {@link RedisQueueService#setVisibilityTimeout}. */
+    public void setVisibilityTimeout(String queueUrl, Duration visibilityTimeout) {
+        visibilityTimeouts.put(queueUrl, visibilityTimeout.toMillis());
+    }
+
+    @Override
+    public CompletableFuture<Void> push(String queueUrl, String messageBody) {
+        return pushBatch(queueUrl, List.of(messageBody));
+    }
+
+    @Override
+    public CompletableFuture<Void> pushBatch(String queueUrl, List<String> messageBodies) {
+        if (messageBodies.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return eval(RedisScripts.PUSH, RedisScripts.pushKeys(queueUrl), RedisQueueService.pushArgs(messageBodies, 0))
+                .thenApply(result -> null);
+    }
+
+    @Override
+    public CompletableFuture<Message> pull(String queueUrl) {
+        return pull(queueUrl, 1).thenApply(messages -> messages.isEmpty() ? null : messages.get(0));
+    }
+
+    @Override
+    public CompletableFuture<List<Message>> pull(String queueUrl, int maxMessages) {
+        if (maxMessages <= 0) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+        long now = System.currentTimeMillis();
+        long visibleFrom = now + visibilityTimeouts.getOrDefault(queueUrl, RedisQueueService.VISIBILITY_TIMEOUT_MS);
+        return eval(RedisScripts.PULL, RedisScripts.requeueKeys(queueUrl),
+                RedisQueueService.pullArgs(now, visibleFrom, maxMessages, receiptIds.next()))
+                .thenApply(leased -> RedisQueueService.decodeLeased(leased, visibleFrom));
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(String queueUrl, String receiptId) {
+        return deleteBatch(queueUrl, List.of(receiptId));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteBatch(String queueUrl, List<String> receiptIds) {
+        if (receiptIds.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return eval(RedisScripts.DELETE, RedisScripts.leaseKeys(queueUrl), receiptIds).thenApply(result -> null);
+    }
+
+    /** See {@link RedisQueueService#changeVisibility}. */
+    @Override
+    public CompletableFuture<Boolean> changeVisibility(String queueUrl, String receiptId, Duration visibilityTimeout) {
+        long now = System.currentTimeMillis();
+        return eval(RedisScripts.CHANGE_VISIBILITY, RedisScripts.leaseKeys(queueUrl),
+                List.of(receiptId, Long.toString(now), Long.toString(now + visibilityTimeout.toMillis())))
+                .thenApply(changed -> changed != null && changed.asInt() == 1);
+    }
+
+    private CompletableFuture<JsonNode> eval(RedisScripts.Script script, List<String> keys, List<String> args) {
+        return submit(script.evalSha(keys, args), script, keys, args);
+    }
+
+    /** Queue a command for the next pipeline; script, keys and args are set for EVALSHA only. */
+    private CompletableFuture<JsonNode> submit(List<String> command, RedisScripts.Script script,
+                                               List<String> keys, List<String> args) {
+        CompletableFuture<JsonNode> result = new CompletableFuture<>();
+        try {
+            // Backpressure: wait for earlier operations to finish rather than queueing without bound
+            pendingPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.completeExceptionally(e);
+            return result;
+        }
+        pending.add(new Operation(command, script, keys, args, result));
+        dispatch();
+        return result;
+    }
+
+    /**
+     * Ship queued operations while there is room for another HTTP request. Called on submit and
+     * whenever a request completes, so operations queued behind a full window are picked up.
+     */
+    private void dispatch() {
+        while (!pending.isEmpty()) {
+            int inFlight = requestsInFlight.get();
+            if (inFlight >= maxRequestsInFlight) {
+                return;
+            }
+            if (!requestsInFlight.compareAndSet(inFlight, inFlight + 1)) {
+                continue;
+            }
+
+            List<Operation> batch = new ArrayList<>(Math.min(maxPipelineSize, 16));
+            Operation operation;
+            while (batch.size() < maxPipelineSize && (operation = pending.poll()) != null) {
+                batch.add(operation);
+            }
+            if (batch.isEmpty()) {
+                requestsInFlight.decrementAndGet();
+                continue;
+            }
+            send(batch);
+        }
+    }
+
+    private void send(List<Operation> batch) {
+        HttpRequest request;
+        try {
+            List<List<String>> commands = new ArrayList<>(batch.size());
+            for (Operation operation : batch) {
+                commands.add(operation.command);
+            }
+            request = HttpRequest.newBuilder()
+                    .uri(pipelineEndpoint)
+                    .header("Authorization", "Bearer " + token)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(RedisQueueService.MAPPER.writeValueAsString(commands)))
+                    .build();
+        } catch (Exception e) {
+            requestsInFlight.decrementAndGet();
+            fail(batch, e);
+            return;
+        }
+
+        client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((response, error) -> {
+            requestsInFlight.decrementAndGet();
+            try {
+                if (error != null) {
+                    fail(batch, error);
+                } else {
+                    complete(batch, response);
+                }
+            } finally {
+                dispatch();
+            }
+        });
+    }
+
+    private void complete(List<Operation> batch, HttpResponse<String> response) {
+        JsonNode replies;
+        try {
+            if (response.statusCode() != 200) {
+                throw new RuntimeException("Redis pipeline failed: " + response.body());
+            }
+            replies = RedisQueueService.MAPPER.readTree(response.body());
+        } catch (Exception e) {
+            fail(batch, e);
+            return;
+        }
+
+        List<Runnable> completions = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            Operation operation = batch.get(i);
+            JsonNode reply = replies.get(i);
+            if (reply == null) {
+                completions.add(() -> operation.result.completeExceptionally(
+                        new RuntimeException("Missing pipeline reply")));
+            } else if (operation.script != null && RedisScripts.isNoScript(reply)) {
+                // Script not cached on the server yet: resend this one with its source; it keeps its permit
+                pending.add(new Operation(operation.script.eval(operation.keys, operation.args),
+                        null, operation.keys, operation.args, operation.result));
+            } else {
+                try {
+                    JsonNode value = RedisQueueService.result(operation.command, reply);
+                    completions.add(() -> operation.result.complete(value));
+                } catch (RuntimeException e) {
+                    completions.add(() -> operation.result.completeExceptionally(e));
+                }
+            }
+        }
+        finish(completions);
+    }
+
+    private void fail(List<Operation> batch, Throwable error) {
+        List<Runnable> completions = new ArrayList<>(batch.size());
+        for (Operation operation : batch) {
+            completions.add(() -> operation.result.completeExceptionally(error));
+        }
+        finish(completions);
+    }
+
+    /**
+     * Release the permits of finished operations before completing their futures. Callers' chained
+     * stages run inside complete(), on this thread; one that submits a follow-up operation must
+     * find the permits of this batch free, or it would block the thread that has to complete the
+     * rest of the batch and dispatch the next one.
+     */
+    private void finish(List<Runnable> completions) {
+        pendingPermits.release(completions.size());
+        for (Runnable completion : completions) {
+            completion.run();
+        }
+    }
+}
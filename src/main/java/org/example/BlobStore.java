@@ -0,0 +1,66 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+
+/**
+ * Local store for message bodies too large to keep in memory: one file per body under a
+ * directory, named by a random key. A blob is written completely under a temporary name and then
+ * renamed, so a reader never sees a partial body. The queue keeps only the key and deletes the
+ * blob when the message is deleted or dropped.
+ */
+final class BlobStore {
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+
+    BlobStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    /** Store data and return its key. */
+    String put(byte[] data) {
+        String key = UUID.randomUUID().toString();
+        Path temp = directory.resolve(key + TEMP_SUFFIX);
+        try {
+            Files.write(temp, data);
+            Files.move(temp, directory.resolve(key), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not store message body", e);
+        }
+        return key;
+    }
+
+    byte[] get(String key) {
+        try {
+            return Files.readAllBytes(directory.resolve(key));
+        } catch (NoSuchFileException e) {
+            throw new IllegalStateException("Message body is gone from the blob store: " + key, e);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read message body " + key, e);
+        }
+    }
+
+    void delete(String key) {
+        try {
+            Files.deleteIfExists(directory.resolve(key));
+        } catch (IOException e) {
+            e.printStackTrace(); // an orphaned blob only costs disk space
+        }
+    }
+
+    /** Delete every blob, e.g. before persistent queues are rebuilt from their log. */
+    void clear() throws IOException {
+        try (DirectoryStream<Path> blobs = Files.newDirectoryStream(directory)) {
+            for (Path blob : blobs) {
+                Files.deleteIfExists(blob);
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.example;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Deduplication ids seen by one queue within its deduplication window, with the time each one
+ * expires. Entries are kept in insertion order, which is expiry order as long as the window does
+ * not change, so eviction only ever looks at the oldest entries and costs O(1) amortized per add.
+ */
+final class DeduplicationCache {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Long> expiries = new LinkedHashMap<>();
+
+    /** Record id until now + windowMillis; false if it is already recorded and unexpired. */
+    boolean add(String id, long now, long windowMillis) {
+        lock.lock();
+        try {
+            evictExpired(now);
+            Long expiry = expiries.get(id);
+            if (expiry != null && expiry > now) {
+                return false;
+            }
+            expiries.remove(id); // re-insert at the young end
+            expiries.put(id, now + windowMillis);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Forget id, so a push that failed after add can be retried. */
+    void remove(String id) {
+        lock.lock();
+        try {
+            expiries.remove(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return expiries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Map.Entry<String, Long>> oldest = expiries.entrySet().iterator();
+        while (oldest.hasNext() && oldest.next().getValue() <= now) {
+            oldest.remove();
+        }
+    }
+
+    /** Content-based deduplication id: the SHA-256 of the body, shared by both backends. */
+    static String contentId(String body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package org.example;
+
+import java.util.LinkedHashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Deficit round robin over the queues that have messages, for pullAny. Only active queues are in
+ * the ring, so workers never probe an idle queue. A queue joins the ring when a message becomes
+ * visible in it, and leaves when a pull finds it empty. If it still holds leased or delayed
+ * messages, it sleeps until its next timer may fire and then rejoins to be probed once.
+ *
+ * <p>Each turn of a queue adds its weight to its deficit, and the queue may then serve that many
+ * messages before moving to the back of the ring. Over time every busy queue gets a share of pulls
+ * proportional to its weight, however many messages it holds. Concurrent workers may overdraw a
+ * deficit slightly; the queue then waits correspondingly longer for its next turn.
+ */
+final class FairScheduler<Q> {
+    private final ReentrantLock lock = new ReentrantLock();
+    /** Active queues in turn order; the head has the current turn. */
+    private final LinkedHashSet<Entry<Q>> ring = new LinkedHashSet<>();
+    /** Inactive queues with pending timers, by the time they should be probed again. */
+    private final PriorityQueue<Wakeup<Q>> sleeping =
+            new PriorityQueue<>((a, b) -> Long.compare(a.at, b.at));
+
+    /** Scheduling state of one queue. The deficit is guarded by the scheduler's lock. */
+    static final class Entry<Q> {
+        final String queueUrl;
+        final Q queue;
+        volatile int weight = 1;
+        /** Whether the queue is in the ring; read without the lock on the push path. */
+        volatile boolean active;
+        long deficit;
+        /** When the queue is due to be probed while asleep, or Long.MAX_VALUE. */
+        long wakeAt = Long.MAX_VALUE;
+
+        Entry(String queueUrl, Q queue) {
+            this.queueUrl = queueUrl;
+            this.queue = queue;
+        }
+    }
+
+    /** A queue's turn: it may serve up to allowance messages. */
+    static final class Turn<Q> {
+        final Entry<Q> entry;
+        final int allowance;
+
+        Turn(Entry<Q> entry, int allowance) {
+            this.entry = entry;
+            this.allowance = allowance;
+        }
+    }
+
+    private static final class Wakeup<Q> {
+        final Entry<Q> entry;
+        final long at;
+
+        Wakeup(Entry<Q> entry, long at) {
+            this.entry = entry;
+            this.at = at;
+        }
+    }
+
+    /** Put a queue in the ring after a message became visible in it; free if it already is. */
+    void activate(Entry<Q> entry) {
+        if (entry.active) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (!entry.active) {
+                entry.active = true;
+                ring.add(entry);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The next queue among queueUrls to serve, and how many messages it may serve (at most max),
+     * or null if none of them is active.
+     */
+    Turn<Q> next(Set<String> queueUrls, long now, int max) {
+        lock.lock();
+        try {
+            while (!sleeping.isEmpty() && sleeping.peek().at <= now) {
+                Wakeup<Q> wakeup = sleeping.poll();
+                Entry<Q> entry = wakeup.entry;
+                if (wakeup.at != entry.wakeAt) {
+                    continue; // superseded by an earlier wake-up
+                }
+                entry.wakeAt = Long.MAX_VALUE;
+                if (!entry.active) {
+                    entry.active = true;
+                    ring.add(entry);
+                }
+            }
+            for (Entry<Q> entry : ring) {
+                if (queueUrls.contains(entry.queueUrl)) {
+                    if (entry.deficit < 1) {
+                        entry.deficit += entry.weight; // a new turn
+                    }
+                    return new Turn<>(entry, (int) Math.min(entry.deficit, max));
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Charge a turn for the messages it served; a spent turn moves the queue to the back. */
+    void served(Entry<Q> entry, int count) {
+        lock.lock();
+        try {
+            entry.deficit -= count;
+            if (entry.deficit < 1 && ring.remove(entry)) {
+                ring.add(entry);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take a queue that turned out empty out of the ring, to be probed again at wakeAt
+     * (Long.MAX_VALUE for never). The caller must recheck for visible messages afterwards and
+     * activate again, in case a push raced with this.
+     */
+    void deactivate(Entry<Q> entry, long wakeAt) {
+        lock.lock();
+        try {
+            if (ring.remove(entry)) {
+                entry.active = false;
+                entry.deficit = 0;
+            }
+            if (wakeAt < entry.wakeAt) {
+                entry.wakeAt = wakeAt;
+                sleeping.add(new Wakeup<>(entry, wakeAt));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Active queues; an upper bound on how many turns a full pass over the ring takes. */
+    int activeCount() {
+        lock.lock();
+        try {
+            return ring.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -2,42 +2,429 @@ package org.example;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
-public class InMemoryPriorityQueueService implements QueueService {
-    private final Map<String, PriorityBlockingQueue<Message>> queues;
-    private final long visibilityTimeout;
+public class InMemoryPriorityQueueService implements QueueService, AutoCloseable {
+    private final Map<String, QueueState> queues;
+    /** Default lease length for queues without their own visibility timeout. */
+    private final long visibilityTimeoutMillis;
+    /** Default deduplication window for queues without their own. */
+    private final long deduplicationWindowMillis;
+    private final ReceiptIdGenerator receiptIds = new ReceiptIdGenerator();
 
-    // Comparator for priority queue: higher priority first, then FIFO by createdAt
-    private final Comparator<Message> messageComparator =
-            Comparator.comparingInt(Message::getPriority).reversed()
-                    .thenComparingLong(Message::getCreatedAt);
+    /** Partitions per queue; 1 unless partitioned mode is configured. */
+    private final int partitions;
+    /** In partitioned mode, whether pull must return the best message across all partitions. */
+    private final boolean strictPriority;
+    /** Whether ready messages are kept off-heap, see OffHeapReadyQueue. */
+    private final boolean offHeap;
+
+    /** Limits of queues without their own, from config.properties; UNBOUNDED if none are set. */
+    private final QueueLimits defaultLimits;
+    /** Most body bytes held across all queues, or 0 for no budget; only tracked if set. */
+    private final long memoryBudget;
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    /** Bodies of at least this many UTF-8 bytes are compressed, for queues without their own threshold. */
+    private final long compressionThreshold;
+    /** Bodies of at least this many UTF-8 bytes go to the blob store, for queues without their own threshold. */
+    private final long blobThreshold;
+    /** Where offloaded bodies are kept, or null for a temporary directory. */
+    private final Path blobDirectory;
+    /** Store for offloaded bodies, created when first needed. */
+    private volatile BlobStore blobs;
+    /** Whether any queue may offload bodies, so its operations may do blob store I/O. */
+    private volatile boolean offloading;
+
+    /** Producers blocked under OverflowPolicy.BLOCK wait here for deletes to free up room. */
+    private final ReentrantLock capacityLock = new ReentrantLock();
+    private final Condition roomFreed = capacityLock.newCondition();
+    private final AtomicInteger blockedProducers = new AtomicInteger();
+
+    /** Rotation over the queues holding visible messages, for pullAny. */
+    private final FairScheduler<QueueState> scheduler = new FairScheduler<>();
+
+    /** Write-ahead log in persistent mode, null when the service is purely in memory. */
+    private final MessageLog log;
+
+    /**
+     * Per-queue state: the partitions holding the messages, plus the wait/notify machinery for
+     * long-polling consumers, which is shared by all partitions of the queue.
+     */
+    private static final class QueueState {
+        final QueuePartition[] partitions;
+
+        final ReentrantLock waitLock = new ReentrantLock();
+        /** Signalled whenever a message becomes visible while consumers are waiting. */
+        final Condition available = waitLock.newCondition();
+        /** Bumped before signalling, so a consumer can tell whether it missed a wake-up. */
+        final AtomicLong version = new AtomicLong();
+        final AtomicInteger waiters = new AtomicInteger();
+        final QueueMetrics metrics = new QueueMetrics();
+        /** Next push sequence; orders messages of equal priority across all partitions. */
+        final AtomicLong sequence = new AtomicLong();
+
+        /** Dead-letter settings, or null if poison messages should cycle forever. */
+        volatile RedrivePolicy redrivePolicy;
+        /** Lease length of this queue in millis, or -1 for the service default. */
+        volatile long visibilityTimeoutMillis = -1;
+        /** Deduplication window of this queue in millis, or -1 for the service default. */
+        volatile long deduplicationWindowMillis = -1;
+        final DeduplicationCache deduplication = new DeduplicationCache();
+        /** Capacity settings of this queue, or null for the service default. */
+        volatile QueueLimits limits;
+        /** Messages and body bytes held until deleted, dead-lettered or dropped. */
+        final AtomicLong messageCount = new AtomicLong();
+        final AtomicLong byteCount = new AtomicLong();
+        /** This queue's place in the pullAny rotation. */
+        final FairScheduler.Entry<QueueState> schedule;
+        /** Compression and blob thresholds of this queue in UTF-8 bytes, or -1 for the service defaults. */
+        volatile long compressionThreshold = -1;
+        volatile long blobThreshold = -1;
+
+        QueueState(String queueUrl, int partitionCount, Supplier<ReadyQueue> readyQueues) {
+            this.schedule = new FairScheduler.Entry<>(queueUrl, this);
+            this.partitions = new QueuePartition[partitionCount];
+            for (int i = 0; i < partitionCount; i++) {
+                partitions[i] = new QueuePartition(i, readyQueues.get());
+            }
+        }
+
+        int maxReceiveCount() {
+            RedrivePolicy policy = redrivePolicy;
+            return policy == null ? 0 : policy.maxReceiveCount;
+        }
+
+        /** Wake long-polling consumers after count messages became visible; free when nobody waits. */
+        void signalAvailable(int count) {
+            if (count == 0 || waiters.get() == 0) {
+                return;
+            }
+            version.incrementAndGet();
+            waitLock.lock();
+            try {
+                if (count == 1) {
+                    available.signal();
+                } else {
+                    available.signalAll();
+                }
+            } finally {
+                waitLock.unlock();
+            }
+        }
+    }
 
     public InMemoryPriorityQueueService() {
+        this(null, loadConfig());
+    }
+
+    /**
+     * Partitioned mode: every queue is split into the given number of independently locked
+     * partitions, so producers and consumers of a hot queue no longer serialize on one lock.
+     * With strictPriority, pull locks all partitions and returns the best message overall;
+     * otherwise it takes the best message of the first partition that has one, starting at a
+     * random partition and skipping contended ones, so priority order holds per partition only.
+     */
+    public InMemoryPriorityQueueService(int partitions, boolean strictPriority) {
+        this(null, partitioned(loadConfig(), partitions, strictPriority));
+    }
+
+    /**
+     * Like the partitioned constructor; with offHeap, the bodies of visible messages are stored in
+     * direct memory and the ready heap holds only primitive keys, so a backlog of millions of
+     * messages adds almost nothing for the garbage collector to trace. Leased and delayed messages
+     * stay on-heap. Size the JVM's -XX:MaxDirectMemorySize for the expected backlog.
+     */
+    public InMemoryPriorityQueueService(int partitions, boolean strictPriority, boolean offHeap) {
+        this(null, offHeap(partitioned(loadConfig(), partitions, strictPriority), offHeap));
+    }
+
+    /**
+     * Persistent mode: every push, lease and delete is appended to a memory-mapped log under
+     * dataDir, and queues are rebuilt from it on startup. Messages that were in flight when the
+     * service stopped become visible again, keeping their attempt counts. The log holds full
+     * bodies, so offloaded bodies are kept under dataDir/blobs and rebuilt on startup too.
+     */
+    public InMemoryPriorityQueueService(Path dataDir) throws IOException {
+        this(dataDir, MessageLog.DEFAULT_SEGMENT_SIZE);
+    }
+
+    InMemoryPriorityQueueService(Path dataDir, int segmentSize) throws IOException {
+        this(new MessageLog(dataDir, segmentSize), blobDirectory(loadConfig(), dataDir.resolve("blobs")));
+        if (Files.isDirectory(blobDirectory)) {
+            blobStore().clear();
+        }
+        int[] next = {0};
+        log.recover((queueUrl, msg) -> {
+            QueueState state = queueState(queueUrl);
+            QueuePartition partition = state.partitions[next[0]++ % state.partitions.length];
+            msg.setSequence(state.sequence.getAndIncrement()); // the log is in push order
+            pack(state, List.of(msg));
+            msg.releaseBody();
+            account(state, 1, QueueLimits.bodyBytes(msg));
+            if (msg.getVisibleFrom() > 0) {
+                partition.schedule(msg); // delayed push; fires at once if the delay already elapsed
+            } else {
+                partition.ready.add(msg);
+            }
+            scheduler.activate(state.schedule);
+        });
+    }
+
+    /** Service configured from confInfo instead of config.properties. */
+    InMemoryPriorityQueueService(Properties confInfo) {
+        this(null, confInfo);
+    }
+
+    private InMemoryPriorityQueueService(MessageLog log, Properties confInfo) {
+        this.log = log;
         this.queues = new ConcurrentHashMap<>();
+        this.visibilityTimeoutMillis = TimeUnit.SECONDS.toMillis(
+                Integer.parseInt(confInfo.getProperty("visibilityTimeout", "30")));
+        this.deduplicationWindowMillis = TimeUnit.SECONDS.toMillis(
+                Integer.parseInt(confInfo.getProperty("deduplicationWindow", "300")));
+        this.partitions = Math.max(1, Integer.parseInt(confInfo.getProperty("partitions", "1")));
+        this.strictPriority = Boolean.parseBoolean(confInfo.getProperty("strictPriority", "false"));
+        this.offHeap = Boolean.parseBoolean(confInfo.getProperty("offHeap", "false"));
+        this.defaultLimits = limits(confInfo);
+        this.memoryBudget = Long.parseLong(confInfo.getProperty("memoryBudget", "0"));
+        this.compressionThreshold = threshold(confInfo, "compressionThreshold");
+        this.blobThreshold = threshold(confInfo, "blobThreshold");
+        this.offloading = blobThreshold != Long.MAX_VALUE;
+        String directory = confInfo.getProperty("blobDirectory");
+        this.blobDirectory = directory == null ? null : Path.of(directory);
+    }
+
+    /** A size threshold in bytes from the config; unset means never. */
+    private static long threshold(Properties confInfo, String key) {
+        String value = confInfo.getProperty(key);
+        return value == null ? Long.MAX_VALUE : Long.parseLong(value);
+    }
+
+    private static QueueLimits limits(Properties confInfo) {
+        long maxMessages = Long.parseLong(confInfo.getProperty("maxMessages", "0"));
+        long maxBytes = Long.parseLong(confInfo.getProperty("maxBytes", "0"));
+        if (maxMessages == 0 && maxBytes == 0) {
+            return QueueLimits.UNBOUNDED;
+        }
+        return new QueueLimits(maxMessages, maxBytes,
+                OverflowPolicy.valueOf(confInfo.getProperty("overflowPolicy", "REJECT")),
+                TimeUnit.SECONDS.toMillis(Integer.parseInt(confInfo.getProperty("blockTimeout", "5"))));
+    }
+
+    private static Properties loadConfig() {
         String propFileName = "config.properties";
         Properties confInfo = new Properties();
 
-        try (InputStream inStream = getClass().getClassLoader().getResourceAsStream(propFileName)) {
+        try (InputStream inStream = InMemoryPriorityQueueService.class.getClassLoader().getResourceAsStream(propFileName)) {
             if (inStream != null) {
                 confInfo.load(inStream);
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
+        return confInfo;
+    }
+
+    private static Properties partitioned(Properties confInfo, int partitions, boolean strictPriority) {
+        confInfo.setProperty("partitions", Integer.toString(partitions));
+        confInfo.setProperty("strictPriority", Boolean.toString(strictPriority));
+        return confInfo;
+    }
+
+    private static Properties blobDirectory(Properties confInfo, Path defaultDirectory) {
+        if (confInfo.getProperty("blobDirectory") == null) {
+            confInfo.setProperty("blobDirectory", defaultDirectory.toString());
+        }
+        return confInfo;
+    }
+
+    private static Properties offHeap(Properties confInfo, boolean offHeap) {
+        confInfo.setProperty("offHeap", Boolean.toString(offHeap));
+        return confInfo;
+    }
+
+    private ReadyQueue newReadyQueue() {
+        return offHeap ? new OffHeapReadyQueue(this::blobStore) : new ReadyQueue.OnHeap();
+    }
+
+    private BlobStore blobStore() {
+        BlobStore store = blobs;
+        if (store == null) {
+            synchronized (this) {
+                store = blobs;
+                if (store == null) {
+                    try {
+                        store = new BlobStore(blobDirectory != null
+                                ? blobDirectory
+                                : Files.createTempDirectory("queue-blobs"));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Could not create the blob store", e);
+                    }
+                    blobs = store;
+                }
+            }
+        }
+        return store;
+    }
+
+    private QueueState queueState(String queueUrl) {
+        return queues.computeIfAbsent(queueUrl, q -> new QueueState(q, partitions, this::newReadyQueue));
+    }
+
+    /**
+     * Live counters and latency histograms of a queue.
+     */
+    public QueueMetrics metrics(String queueUrl) {
+        return queueState(queueUrl).metrics;
+    }
+
+    /**
+     * Current depth, in-flight and delayed counts and head age of a queue. Reads sizes the
+     * partitions already keep, so the cost does not depend on how many messages are queued.
+     * Leases that expired since the queue was last pulled from still count as in flight.
+     */
+    public QueueMetrics.Gauges gauges(String queueUrl) {
+        QueueState state = queues.get(queueUrl);
+        if (state == null) {
+            return new QueueMetrics.Gauges(0, 0, 0, 0);
+        }
+        long depth = 0;
+        long inFlight = 0;
+        long delayed = 0;
+        long oldest = Long.MAX_VALUE;
+        for (QueuePartition partition : state.partitions) {
+            partition.lock.lock();
+            try {
+                depth += partition.ready.size();
+                inFlight += partition.receipts.size();
+                delayed += partition.timers.size() - partition.receipts.size();
+                if (!partition.ready.isEmpty()) {
+                    oldest = Math.min(oldest, partition.ready.headCreatedAt());
+                }
+            } finally {
+                partition.lock.unlock();
+            }
+        }
+        long age = oldest == Long.MAX_VALUE ? 0 : Math.max(now() - oldest, 0);
+        return new QueueMetrics.Gauges(depth, inFlight, delayed, age);
+    }
+
+    /**
+     * Set how long messages pulled from queueUrl stay invisible, overriding config.properties.
+     */
+    public void setVisibilityTimeout(String queueUrl, Duration visibilityTimeout) {
+        queueState(queueUrl).visibilityTimeoutMillis = visibilityTimeout.toMillis();
+    }
+
+    /**
+     * Set how long pushDeduplicated remembers an id for queueUrl, overriding config.properties.
+     */
+    public void setDeduplicationWindow(String queueUrl, Duration window) {
+        queueState(queueUrl).deduplicationWindowMillis = window.toMillis();
+    }
+
+    private long deduplicationWindowMillis(QueueState state) {
+        long millis = state.deduplicationWindowMillis;
+        return millis < 0 ? deduplicationWindowMillis : millis;
+    }
+
+    private long visibilityTimeoutMillis(QueueState state) {
+        long millis = state.visibilityTimeoutMillis;
+        return millis < 0 ? visibilityTimeoutMillis : millis;
+    }
+
+    /**
+     * Send messages of queueUrl to deadLetterQueueUrl once they have been received maxReceiveCount
+     * times without being deleted. The move happens when the last lease expires.
+     */
+    public void setRedrivePolicy(String queueUrl, String deadLetterQueueUrl, int maxReceiveCount) {
+        queueState(queueUrl).redrivePolicy = new RedrivePolicy(deadLetterQueueUrl, maxReceiveCount);
+    }
+
+    /**
+     * Bound queueUrl to maxMessages messages and maxBytes body bytes (0 for no limit), overriding
+     * config.properties. Messages count until they are deleted, including in-flight and delayed
+     * ones. A push that does not fit is handled according to policy; BLOCK waits at most
+     * blockTimeout. Dead-lettered and redriven messages are always admitted, so they are never
+     * lost to a full queue.
+     */
+    public void setQueueLimits(String queueUrl, long maxMessages, long maxBytes,
+                               OverflowPolicy policy, Duration blockTimeout) {
+        queueState(queueUrl).limits = new QueueLimits(maxMessages, maxBytes, policy, blockTimeout.toMillis());
+    }
+
+    /**
+     * Compress bodies of at least thresholdBytes UTF-8 bytes pushed to queueUrl from now on,
+     * overriding config.properties; Long.MAX_VALUE turns compression off. Bodies are compressed
+     * once at push and decompressed when a consumer first calls getBody(), so queued messages
+     * take up, and count against the queue's limits with, their compressed size.
+     */
+    public void setCompression(String queueUrl, long thresholdBytes) {
+        if (thresholdBytes < 0) {
+            throw new IllegalArgumentException("threshold must not be negative: " + thresholdBytes);
+        }
+        queueState(queueUrl).compressionThreshold = thresholdBytes;
+    }
+
+    /**
+     * Keep bodies of at least thresholdBytes UTF-8 bytes pushed to queueUrl from now on in the
+     * blob store, with only a reference in memory; Long.MAX_VALUE turns it off. The blob is read
+     * back in when the message is pulled and deleted with the message.
+     */
+    public void setBlobThreshold(String queueUrl, long thresholdBytes) {
+        if (thresholdBytes < 0) {
+            throw new IllegalArgumentException("threshold must not be negative: " + thresholdBytes);
+        }
+        queueState(queueUrl).blobThreshold = thresholdBytes;
+        if (thresholdBytes != Long.MAX_VALUE) {
+            offloading = true;
+        }
+    }
+
+    /**
+     * Move every visible message of a dead-letter queue back to its source queue in one bulk
+     * transfer, with fresh receive counts. Returns the number of messages moved.
+     */
+    public int redrive(String deadLetterQueueUrl, String sourceQueueUrl) {
+        QueueState state = queues.get(deadLetterQueueUrl);
+        if (state == null) {
+            return 0;
+        }
 
-        this.visibilityTimeout = Integer.parseInt(confInfo.getProperty("visibilityTimeout", "30"));
+        List<Message> drained = new ArrayList<>();
+        for (QueuePartition partition : state.partitions) {
+            partition.lock.lock();
+            try {
+                Message msg;
+                while ((msg = partition.ready.poll()) != null) {
+                    drained.add(msg);
+                }
+            } finally {
+                partition.lock.unlock();
+            }
+        }
+        release(state, drained.size(), QueueLimits.bodyBytes(drained));
+        transfer(sourceQueueUrl, drained);
+        return drained.size();
     }
 
     /**
      * Push message with explicit priority into queue
      */
     public void push(String queueUrl, String msgBody, int priority) {
-        queues.computeIfAbsent(queueUrl,
-                q -> new PriorityBlockingQueue<>(11, messageComparator));
-        queues.get(queueUrl).add(new Message(msgBody, priority));
+        enqueue(queueUrl, Collections.singletonList(new Message(msgBody, priority)), true);
     }
 
     @Override
@@ -46,45 +433,793 @@ public class InMemoryPriorityQueueService implements QueueService {
         push(queueUrl, msgBody, 0);
     }
 
+    /**
+     * Push several messages with the same priority while holding the queue lock once
+     */
+    public void pushBatch(String queueUrl, List<String> msgBodies, int priority) {
+        List<Message> batch = new ArrayList<>(msgBodies.size());
+        for (String msgBody : msgBodies) {
+            batch.add(new Message(msgBody, priority));
+        }
+        enqueue(queueUrl, batch, true);
+    }
+
+    @Override
+    public void pushBatch(String queueUrl, List<String> msgBodies) {
+        pushBatch(queueUrl, msgBodies, 0);
+    }
+
+    /**
+     * Push a message that stays invisible to consumers until delay has elapsed.
+     */
+    public void pushDelayed(String queueUrl, String msgBody, int priority, Duration delay) {
+        Message msg = new Message(msgBody, priority);
+        if (delay.toMillis() > 0) {
+            msg.setVisibleFrom(now() + delay.toMillis());
+        }
+        enqueue(queueUrl, Collections.singletonList(msg), true);
+    }
+
+    public void pushDelayed(String queueUrl, String msgBody, Duration delay) {
+        pushDelayed(queueUrl, msgBody, 0, delay);
+    }
+
+    /**
+     * Push a message unless one with the same deduplicationId, or the same body if it is null, was
+     * pushed to queueUrl within the deduplication window. The window is only remembered in memory,
+     * so in persistent mode it starts empty after a restart. A push refused by the queue's limits
+     * does not count, so its retry is not taken for a duplicate.
+     */
+    public boolean pushDeduplicated(String queueUrl, String msgBody, int priority, String deduplicationId) {
+        QueueState state = queueState(queueUrl);
+        String id = deduplicationId != null ? deduplicationId : DeduplicationCache.contentId(msgBody);
+        if (!state.deduplication.add(id, now(), deduplicationWindowMillis(state))) {
+            state.metrics.deduplicated.increment();
+            return false;
+        }
+        try {
+            enqueue(queueUrl, Collections.singletonList(new Message(msgBody, priority)), true);
+        } catch (RuntimeException e) {
+            state.deduplication.remove(id);
+            throw e;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean pushDeduplicated(String queueUrl, String msgBody, String deduplicationId) {
+        return pushDeduplicated(queueUrl, msgBody, 0, deduplicationId);
+    }
+
+    /**
+     * Add messages to the ready heap of one partition under one lock hold; delayed messages go to
+     * its timing wheel instead. In persistent mode the push records are logged first, and the call
+     * returns once the group commit covering them has been forced. A bounded batch must fit the
+     * queue's limits; an unbounded one is admitted regardless.
+     */
+    private void enqueue(String queueUrl, List<Message> batch, boolean bounded) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        QueueState state = queueState(queueUrl);
+        pack(state, batch);
+        long bytes = QueueLimits.bodyBytes(batch);
+        if (bounded) {
+            try {
+                admit(queueUrl, state, batch, bytes);
+            } catch (RuntimeException e) {
+                discardBlobs(batch);
+                throw e;
+            }
+        } else {
+            account(state, batch.size(), bytes);
+        }
+        long sequence = state.sequence.getAndAdd(batch.size());
+        for (Message msg : batch) {
+            msg.setSequence(sequence++);
+        }
+        long logPosition;
+        try {
+            logPosition = log == null ? 0 : log.appendPush(queueUrl, batch);
+        } catch (RuntimeException e) {
+            release(state, batch.size(), bytes);
+            discardBlobs(batch);
+            throw e;
+        }
+        for (Message msg : batch) {
+            msg.releaseBody(); // from here on only the packed form is held
+        }
+
+        // Spread producers over partitions without a shared counter
+        QueuePartition partition = state.partitions.length == 1
+                ? state.partitions[0]
+                : state.partitions[ThreadLocalRandom.current().nextInt(state.partitions.length)];
+        partition.lock.lock();
+        try {
+            for (Message msg : batch) {
+                if (msg.getVisibleFrom() > 0) {
+                    partition.schedule(msg);
+                } else {
+                    partition.ready.add(msg);
+                }
+            }
+        } finally {
+            partition.lock.unlock();
+        }
+        // Also wakes consumers for delayed messages, so they can shorten their wait to the delay
+        state.signalAvailable(batch.size());
+        scheduler.activate(state.schedule); // a delayed-only batch is probed once, then sleeps
+
+        if (log != null) {
+            log.awaitDurable(logPosition);
+        }
+        state.metrics.pushed.add(batch.size());
+        state.metrics.pushLatency.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Compress or offload the bodies of a batch about to be pushed, as the queue's thresholds ask.
+     * Messages already packed, e.g. dead-lettered ones, keep their packed form.
+     */
+    private void pack(QueueState state, List<Message> batch) {
+        long compressAbove = state.compressionThreshold >= 0 ? state.compressionThreshold : compressionThreshold;
+        long offloadAbove = state.blobThreshold >= 0 ? state.blobThreshold : blobThreshold;
+        if (compressAbove == Long.MAX_VALUE && offloadAbove == Long.MAX_VALUE) {
+            return;
+        }
+        BlobStore store = offloadAbove == Long.MAX_VALUE ? null : blobStore();
+        for (Message msg : batch) {
+            if (msg.getPackedBody() == null) {
+                msg.setPackedBody(PackedBody.pack(msg.getBody(), compressAbove, offloadAbove, store));
+            }
+        }
+    }
+
+    /** Delete the blobs of messages that left the service for good. */
+    private void discardBlobs(List<Message> msgs) {
+        BlobStore store = blobs;
+        if (store == null) {
+            return;
+        }
+        for (Message msg : msgs) {
+            PackedBody packed = msg.getPackedBody();
+            String key = packed == null ? null : packed.blobKey();
+            if (key != null) {
+                store.delete(key);
+            }
+        }
+    }
+
+    /**
+     * Take room for a batch about to be pushed, applying the queue's overflow policy when it
+     * does not fit. Throws QueueFullException if the batch is refused.
+     */
+    private void admit(String queueUrl, QueueState state, List<Message> batch, long bytes) {
+        QueueLimits limits = state.limits != null ? state.limits : defaultLimits;
+        int count = batch.size();
+        if (tryReserve(state, limits, count, bytes)) {
+            return;
+        }
+        boolean admitted = false;
+        // A batch that would not even fit an empty queue is refused without waiting or dropping
+        if (limits.admits(count, bytes) && (memoryBudget == 0 || bytes <= memoryBudget)) {
+            switch (limits.policy) {
+                case BLOCK:
+                    admitted = awaitRoom(state, limits, count, bytes);
+                    break;
+                case DROP_LOWEST:
+                    admitted = dropLowest(state, limits, batch, bytes);
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (!admitted) {
+            state.metrics.rejected.add(count);
+            throw new QueueFullException("No room in queue " + queueUrl + " for " + count
+                    + " message(s) of " + bytes + " bytes");
+        }
+    }
+
+    /** Take room for count messages of bytes body bytes if they fit; otherwise take nothing. */
+    private boolean tryReserve(QueueState state, QueueLimits limits, int count, long bytes) {
+        long messages = state.messageCount.addAndGet(count);
+        long queueBytes = state.byteCount.addAndGet(bytes);
+        boolean fits = limits.admits(messages, queueBytes);
+        // The budget is only taken once the queue itself has room, so a refusal never leaks into it
+        if (fits && memoryBudget > 0 && totalBytes.addAndGet(bytes) > memoryBudget) {
+            totalBytes.addAndGet(-bytes);
+            fits = false;
+        }
+        if (!fits) {
+            // Undo without waking blocked producers: no room was actually freed
+            state.messageCount.addAndGet(-count);
+            state.byteCount.addAndGet(-bytes);
+        }
+        return fits;
+    }
+
+    /**
+     * Change the room taken by a queue without checking limits or waking blocked producers: takes
+     * room for messages that must not be lost, or hands room from dropped messages to a batch.
+     */
+    private void account(QueueState state, int count, long bytes) {
+        state.messageCount.addAndGet(count);
+        state.byteCount.addAndGet(bytes);
+        if (memoryBudget > 0) {
+            totalBytes.addAndGet(bytes);
+        }
+    }
+
+    /** Give back the room of messages that left the queue, waking blocked producers. */
+    private void release(QueueState state, int count, long bytes) {
+        if (count == 0) {
+            return;
+        }
+        account(state, -count, -bytes);
+        if (blockedProducers.get() > 0) {
+            capacityLock.lock();
+            try {
+                roomFreed.signalAll();
+            } finally {
+                capacityLock.unlock();
+            }
+        }
+    }
+
+    /** OverflowPolicy.BLOCK: wait up to the block timeout for room, woken by every release. */
+    private boolean awaitRoom(QueueState state, QueueLimits limits, int count, long bytes) {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(limits.blockTimeoutMillis);
+        capacityLock.lock();
+        blockedProducers.incrementAndGet();
+        try {
+            // Registered before retrying, so a release racing with the retry signals us
+            while (!tryReserve(state, limits, count, bytes)) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = roomFreed.awaitNanos(remaining);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            blockedProducers.decrementAndGet();
+            capacityLock.unlock();
+        }
+    }
+
+    /**
+     * OverflowPolicy.DROP_LOWEST: discard visible messages with a lower priority than any in batch,
+     * lowest priority first, until the batch fits. All partitions are locked, as in a strict pull,
+     * so the choice is exact across partitions. If the batch still does not fit, the discarded
+     * messages are put back and nothing is lost.
+     */
+    private boolean dropLowest(QueueState state, QueueLimits limits, List<Message> batch, long bytes) {
+        int priority = Integer.MAX_VALUE;
+        for (Message msg : batch) {
+            priority = Math.min(priority, msg.getPriority());
+        }
+        QueuePartition[] parts = state.partitions;
+        List<Message> dropped = new ArrayList<>();
+        List<QueuePartition> droppedFrom = new ArrayList<>();
+        boolean admitted;
+        for (QueuePartition partition : parts) {
+            partition.lock.lock();
+        }
+        try {
+            while (!(admitted = tryReserve(state, limits, batch.size(), bytes))) {
+                QueuePartition victim = null;
+                int victimPriority = priority;
+                for (QueuePartition partition : parts) {
+                    if (!partition.ready.isEmpty() && partition.ready.lastPriority() < victimPriority) {
+                        victim = partition;
+                        victimPriority = partition.ready.lastPriority();
+                    }
+                }
+                if (victim == null) {
+                    break;
+                }
+                Message msg = victim.ready.pollLast();
+                dropped.add(msg);
+                droppedFrom.add(victim);
+                account(state, -1, -QueueLimits.bodyBytes(msg)); // room for this batch only
+            }
+            for (int i = 0; i < dropped.size(); i++) {
+                Message msg = dropped.get(i);
+                if (!admitted) {
+                    droppedFrom.get(i).ready.add(msg);
+                    account(state, 1, QueueLimits.bodyBytes(msg));
+                } else if (log != null) {
+                    log.appendDelete(msg.getId());
+                }
+            }
+        } finally {
+            for (int i = parts.length - 1; i >= 0; i--) {
+                parts[i].lock.unlock();
+            }
+        }
+        if (admitted) {
+            discardBlobs(dropped);
+            state.metrics.dropped.add(dropped.size());
+        }
+        return admitted;
+    }
+
     @Override
     public Message pull(String queueUrl) {
-        PriorityBlockingQueue<Message> queue = queues.get(queueUrl);
-        if (queue == null) {
+        QueueState state = queues.get(queueUrl);
+        if (state == null) {
             return null;
         }
 
-        long nowTime = now();
+        List<Message> pulled = new ArrayList<>(1);
+        take(state, 1, now(), visibilityTimeoutMillis(state), pulled);
+        return pulled.isEmpty() ? null : pulled.get(0);
+    }
+
+    /**
+     * Long-polling pull: parks on the queue's condition until a push or an expiring lease makes a
+     * message visible, or until waitTime elapses.
+     */
+    @Override
+    public Message pull(String queueUrl, Duration waitTime) {
+        // Create the queue if needed so that a later push signals this consumer
+        QueueState state = queueState(queueUrl);
+        long deadline = System.nanoTime() + waitTime.toNanos();
+        List<Message> pulled = new ArrayList<>(1);
+
+        state.waiters.incrementAndGet();
+        try {
+            while (true) {
+                long version = state.version.get();
+                long nowTime = now();
+                take(state, 1, nowTime, visibilityTimeoutMillis(state), pulled);
+                if (!pulled.isEmpty()) {
+                    return pulled.get(0);
+                }
 
-        Message msg = queue.peek(); // look at head of priority queue
-        if (msg == null || !msg.isVisibleAt(nowTime)) {
-            return null; // empty or head not visible
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return null;
+                }
+                long wait = Math.min(remaining, nanosUntilNextExpiry(state, nowTime));
+
+                state.waitLock.lock();
+                try {
+                    if (state.version.get() == version) {
+                        state.available.awaitNanos(wait);
+                    }
+                } finally {
+                    state.waitLock.unlock();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            state.waiters.decrementAndGet();
+        }
+    }
+
+    @Override
+    public List<Message> pull(String queueUrl, int maxMessages) {
+        QueueState state = queues.get(queueUrl);
+        return state == null ? Collections.emptyList() : pull(state, maxMessages, visibilityTimeoutMillis(state));
+    }
+
+    @Override
+    public List<Message> pull(String queueUrl, int maxMessages, Duration visibilityTimeout) {
+        QueueState state = queues.get(queueUrl);
+        return state == null ? Collections.emptyList() : pull(state, maxMessages, visibilityTimeout.toMillis());
+    }
+
+    private List<Message> pull(QueueState state, int maxMessages, long leaseMillis) {
+        if (maxMessages <= 0) {
+            return Collections.emptyList();
+        }
+
+        List<Message> pulled = new ArrayList<>(Math.min(maxMessages, 16));
+        take(state, maxMessages, now(), leaseMillis, pulled);
+        return pulled;
+    }
+
+    /**
+     * Set a queue's share of pullAny: among busy queues, each gets pulls in proportion to its
+     * weight (default 1).
+     */
+    public void setWeight(String queueUrl, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be at least 1: " + weight);
+        }
+        queueState(queueUrl).schedule.weight = weight;
+    }
+
+    /**
+     * Pull one message from whichever of queueUrls is next in turn; null if none has a visible
+     * message. Use {@link Message#getQueueUrl()} to delete it.
+     */
+    public Message pullAny(Set<String> queueUrls) {
+        List<Message> pulled = pullAny(queueUrls, 1);
+        return pulled.isEmpty() ? null : pulled.get(0);
+    }
+
+    /**
+     * Pull up to maxMessages from queueUrls, taking turns by deficit round robin so every busy queue
+     * gets a share proportional to its weight. Only queues known to hold messages are probed; the
+     * messages may come from several queues. Does not wait for messages.
+     */
+    public List<Message> pullAny(Set<String> queueUrls, int maxMessages) {
+        List<Message> pulled = new ArrayList<>(Math.min(Math.max(maxMessages, 0), 16));
+        int misses = 0;
+        while (pulled.size() < maxMessages) {
+            long nowTime = now();
+            FairScheduler.Turn<QueueState> turn = scheduler.next(queueUrls, nowTime, maxMessages - pulled.size());
+            if (turn == null) {
+                break;
+            }
+            QueueState state = turn.entry.queue;
+            List<Message> taken = new ArrayList<>(turn.allowance); // take counts max against the list
+            take(state, turn.allowance, nowTime, visibilityTimeoutMillis(state), taken);
+            if (!taken.isEmpty()) {
+                pulled.addAll(taken);
+                scheduler.served(turn.entry, taken.size());
+                continue;
+            }
+            // Nothing visible: sleep until a lease or delay may fire, unless a push just raced us
+            scheduler.deactivate(turn.entry, nextDeadline(state));
+            if (hasReady(state)) {
+                scheduler.activate(turn.entry);
+            }
+            if (++misses > scheduler.activeCount()) {
+                break; // a full pass found nothing; give up rather than spin
+            }
+        }
+        return pulled;
+    }
+
+    /** Earliest time a lease or delay of the queue may fire, or Long.MAX_VALUE if none is pending. */
+    private long nextDeadline(QueueState state) {
+        long deadline = Long.MAX_VALUE;
+        for (QueuePartition partition : state.partitions) {
+            partition.lock.lock();
+            try {
+                deadline = Math.min(deadline, partition.timers.nextDeadline());
+            } finally {
+                partition.lock.unlock();
+            }
         }
+        return deadline;
+    }
+
+    private boolean hasReady(QueueState state) {
+        for (QueuePartition partition : state.partitions) {
+            partition.lock.lock();
+            try {
+                if (!partition.ready.isEmpty()) {
+                    return true;
+                }
+            } finally {
+                partition.lock.unlock();
+            }
+        }
+        return false;
+    }
 
-        // Mark as delivered
-        msg.setReceiptId(UUID.randomUUID().toString());
+    /**
+     * Lease up to max visible messages from a queue into out, each for leaseMillis.
+     */
+    private void take(QueueState state, int max, long nowTime, long leaseMillis, List<Message> out) {
+        long start = System.nanoTime();
+        int before = out.size();
+        List<Message> deadLetters = new ArrayList<>(0);
+        long visibleFrom = nowTime + leaseMillis;
+        if (state.partitions.length > 1 && strictPriority) {
+            takeStrict(state, max, nowTime, visibleFrom, out, deadLetters);
+        } else {
+            takeAny(state, max, nowTime, visibleFrom, out, deadLetters);
+        }
+        deadLetter(state, deadLetters);
+        state.metrics.delivered.add(out.size() - before);
+        state.metrics.pullLatency.record(System.nanoTime() - start);
+    }
+
+    private void takeAny(QueueState state, int max, long nowTime, long visibleFrom,
+                         List<Message> out, List<Message> deadLetters) {
+        QueuePartition[] parts = state.partitions;
+
+        // Work-stealing: start at a random partition and skip the ones other threads hold
+        int start = parts.length == 1 ? 0 : ThreadLocalRandom.current().nextInt(parts.length);
+        for (int i = 0; i < parts.length && out.size() < max; i++) {
+            QueuePartition partition = parts[(start + i) % parts.length];
+            if (parts.length == 1) {
+                partition.lock.lock();
+            } else if (!partition.lock.tryLock()) {
+                continue;
+            }
+            try {
+                takeFrom(state, partition, max, nowTime, visibleFrom, out, deadLetters);
+            } finally {
+                partition.lock.unlock();
+            }
+        }
+
+        // Everything we could grab without waiting was empty: wait for the contended partitions
+        for (int i = 0; i < parts.length && out.isEmpty() && parts.length > 1; i++) {
+            QueuePartition partition = parts[(start + i) % parts.length];
+            partition.lock.lock();
+            try {
+                takeFrom(state, partition, max, nowTime, visibleFrom, out, deadLetters);
+            } finally {
+                partition.lock.unlock();
+            }
+        }
+    }
+
+    /** Lease from one partition. Caller must hold the partition lock. */
+    private void takeFrom(QueueState state, QueuePartition partition, int max, long nowTime, long visibleFrom,
+                          List<Message> out, List<Message> deadLetters) {
+        state.signalAvailable(partition.requeueExpired(nowTime, state.maxReceiveCount(), deadLetters));
+        Message msg;
+        while (out.size() < max && (msg = partition.ready.poll()) != null) {
+            out.add(lease(state, partition, msg, visibleFrom));
+        }
+    }
+
+    /** Strict mode: hold every partition lock and repeatedly take the best head across partitions. */
+    private void takeStrict(QueueState state, int max, long nowTime, long visibleFrom,
+                            List<Message> out, List<Message> deadLetters) {
+        QueuePartition[] parts = state.partitions;
+        for (QueuePartition partition : parts) {
+            partition.lock.lock();
+        }
+        try {
+            int maxReceiveCount = state.maxReceiveCount();
+            for (QueuePartition partition : parts) {
+                state.signalAvailable(partition.requeueExpired(nowTime, maxReceiveCount, deadLetters));
+            }
+            while (out.size() < max) {
+                QueuePartition best = null;
+                for (QueuePartition partition : parts) {
+                    ReadyQueue ready = partition.ready;
+                    if (!ready.isEmpty() && (best == null || ready.compareHeads(best.ready) < 0)) {
+                        best = partition;
+                    }
+                }
+                if (best == null) {
+                    break;
+                }
+                out.add(lease(state, best, best.ready.poll(), visibleFrom));
+            }
+        } finally {
+            for (int i = parts.length - 1; i >= 0; i--) {
+                parts[i].lock.unlock();
+            }
+        }
+    }
+
+    private long nanosUntilNextExpiry(QueueState state, long nowTime) {
+        long nanos = Long.MAX_VALUE;
+        for (QueuePartition partition : state.partitions) {
+            partition.lock.lock();
+            try {
+                nanos = Math.min(nanos, partition.nanosUntilNextExpiry(nowTime));
+            } finally {
+                partition.lock.unlock();
+            }
+        }
+        return nanos;
+    }
+
+    /**
+     * Mark a message polled from the ready heap as delivered and park it in the timing wheel
+     * until it is deleted or its lease expires. The receipt starts with the partition index so
+     * delete can go straight to the right partition. Caller must hold the partition lock.
+     */
+    private Message lease(QueueState state, QueuePartition partition, Message msg, long visibleFrom) {
+        msg.setReceiptId(partition.index + "." + receiptIds.next());
         msg.incrementAttempts();
-        msg.setVisibleFrom(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(visibilityTimeout));
+        if (msg.getAttempts() > 1) {
+            state.metrics.redelivered.increment();
+        }
+        msg.setVisibleFrom(visibleFrom);
+        partition.receipts.put(msg.getReceiptId(), partition.schedule(msg));
+        if (log != null) {
+            log.appendLease(msg.getId());
+        }
 
         // Return lightweight copy (don’t expose internal state)
-        return new Message(msg.getBody(), msg.getReceiptId());
+        PackedBody packed = msg.getPackedBody();
+        Message copy = new Message(packed == null ? msg.getBody() : null, msg.getReceiptId());
+        // Decompressed by the consumer, if it reads the body. A blob is read in now: whoever deletes
+        // the message deletes the blob, and that may be another consumer after this lease expires.
+        copy.setPackedBody(packed == null ? null : packed.inline());
+        copy.setQueueUrl(state.schedule.queueUrl);
+        return copy;
     }
 
 
     @Override
     public void delete(String queueUrl, String receiptId) {
-        PriorityBlockingQueue<Message> queue = queues.get(queueUrl);
-        if (queue != null) {
-            long nowTime = now();
+        deleteBatch(queueUrl, Collections.singletonList(receiptId));
+    }
 
-            // Use iterator to find matching receiptId
-            for (Iterator<Message> it = queue.iterator(); it.hasNext();) {
-                Message msg = it.next();
-                if (!msg.isVisibleAt(nowTime) && msg.getReceiptId().equals(receiptId)) {
-                    it.remove();
-                    break;
+    @Override
+    public void deleteBatch(String queueUrl, List<String> receiptIds) {
+        QueueState state = queues.get(queueUrl);
+        if (state == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        long nowTime = now();
+
+        // Group receipts by partition so each partition lock is taken once
+        QueuePartition[] parts = state.partitions;
+        List<List<String>> byPartition = new ArrayList<>(Collections.nCopies(parts.length, null));
+        for (String receiptId : receiptIds) {
+            int index = partitionOf(receiptId, parts.length);
+            if (index >= 0) {
+                if (byPartition.get(index) == null) {
+                    byPartition.set(index, new ArrayList<>());
                 }
+                byPartition.get(index).add(receiptId);
             }
         }
+
+        List<Message> deadLetters = new ArrayList<>(0);
+        List<Message> withBlobs = blobs == null ? null : new ArrayList<>();
+        int deleted = 0;
+        long deletedBytes = 0;
+        for (int i = 0; i < parts.length; i++) {
+            List<String> receipts = byPartition.get(i);
+            if (receipts == null) {
+                continue;
+            }
+            QueuePartition partition = parts[i];
+            partition.lock.lock();
+            try {
+                state.signalAvailable(partition.requeueExpired(nowTime, state.maxReceiveCount(), deadLetters));
+
+                // Only messages with a live lease are indexed by receipt
+                for (String receiptId : receipts) {
+                    TimingWheel.Timer<Message> lease = partition.receipts.remove(receiptId);
+                    if (lease != null) {
+                        partition.timers.cancel(lease);
+                        state.metrics.recordDelete(nowTime, lease.item.getCreatedAt(), lease.item.getAttempts());
+                        deleted++;
+                        deletedBytes += QueueLimits.bodyBytes(lease.item);
+                        if (withBlobs != null) {
+                            withBlobs.add(lease.item);
+                        }
+                        if (log != null) {
+                            log.appendDelete(lease.item.getId());
+                        }
+                    }
+                }
+            } finally {
+                partition.lock.unlock();
+            }
+        }
+        release(state, deleted, deletedBytes);
+        if (withBlobs != null) {
+            discardBlobs(withBlobs); // file deletes happen outside the partition locks
+        }
+        deadLetter(state, deadLetters);
+        state.metrics.deleteLatency.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Reschedule the lease timer of a pulled message, found through the receipt index. A zero
+     * timeout makes the message visible again right away, or dead-letters it if it has used up
+     * the redrive policy's receive count.
+     */
+    @Override
+    public boolean changeVisibility(String queueUrl, String receiptId, Duration visibilityTimeout) {
+        QueueState state = queues.get(queueUrl);
+        int index = state == null ? -1 : partitionOf(receiptId, state.partitions.length);
+        if (index < 0) {
+            return false;
+        }
+        long nowTime = now();
+
+        QueuePartition partition = state.partitions[index];
+        List<Message> deadLetters = new ArrayList<>(0);
+        boolean released = false;
+        partition.lock.lock();
+        try {
+            TimingWheel.Timer<Message> lease = partition.receipts.get(receiptId);
+            if (lease == null || lease.item.isVisibleAt(nowTime)) {
+                return false; // deleted, or expired and up for redelivery
+            }
+            partition.timers.cancel(lease);
+            Message msg = lease.item;
+            if (visibilityTimeout.isZero()) {
+                // Released like an expired lease, so it counts towards the redrive policy
+                partition.receipts.remove(receiptId);
+                released = partition.requeue(msg, state.maxReceiveCount(), deadLetters);
+            } else {
+                msg.setVisibleFrom(nowTime + visibilityTimeout.toMillis());
+                partition.receipts.put(receiptId, partition.schedule(msg));
+            }
+        } finally {
+            partition.lock.unlock();
+        }
+        if (released) {
+            state.signalAvailable(1);
+            scheduler.activate(state.schedule);
+        }
+        deadLetter(state, deadLetters);
+        return true;
+    }
+
+    /** Move messages that exhausted their receive count to the queue's dead-letter queue. */
+    private void deadLetter(QueueState state, List<Message> deadLetters) {
+        release(state, deadLetters.size(), QueueLimits.bodyBytes(deadLetters));
+        RedrivePolicy policy = state.redrivePolicy;
+        if (!deadLetters.isEmpty() && policy != null) {
+            transfer(policy.deadLetterQueueUrl, deadLetters);
+        }
+    }
+
+    /**
+     * Push messages already removed from one queue onto another, resetting their delivery state.
+     * In persistent mode the new push records are durable before the old ids are deleted, so a
+     * crash in between can duplicate a message but never lose it.
+     */
+    private void transfer(String targetQueueUrl, List<Message> msgs) {
+        if (msgs.isEmpty()) {
+            return;
+        }
+        long[] oldIds = new long[msgs.size()];
+        for (int i = 0; i < msgs.size(); i++) {
+            Message msg = msgs.get(i);
+            oldIds[i] = msg.getId();
+            msg.setReceiptId(null);
+            msg.setAttempts(0);
+            msg.setVisibleFrom(0);
+        }
+
+        enqueue(targetQueueUrl, msgs, false);
+        if (log != null) {
+            for (long oldId : oldIds) {
+                log.appendDelete(oldId);
+            }
+        }
+    }
+
+    /** Partition index encoded at the start of a receipt, or -1 if the receipt is malformed. */
+    private static int partitionOf(String receiptId, int partitionCount) {
+        int dot = receiptId.indexOf('.');
+        if (dot <= 0) {
+            return -1;
+        }
+        try {
+            int index = Integer.parseInt(receiptId, 0, dot, 10);
+            return index < partitionCount ? index : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Flush and close the message log in persistent mode; a no-op for a purely in-memory service.
+     */
+    @Override
+    public void close() throws IOException {
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    /**
+     * Whether pulls, deletes and visibility changes only touch memory and take one partition lock
+     * at a time: no log to wait for, no blob store to read or delete from, and no strict-priority
+     * pull that locks every partition.
+     */
+    boolean isMemoryOnly() {
+        return log == null && !offloading && (!strictPriority || partitions == 1);
     }
 
     long now() {
@@ -10,14 +10,27 @@ public class Message {
     /** An identifier associated with the act of receiving the message. */
     private String receiptId;
 
+    /** Queue the message was pulled from; set on pulled copies. */
+    private String queueUrl;
+
+    /** The body, or null while only its packed form is held. */
     private String msgBody;
 
+    /** Compressed or offloaded form of the body, or null for a plain body. */
+    private PackedBody packedBody;
+
     /** Message priority (higher number = higher priority) */
     private int priority;
 
-    /** Timestamp when message was created (used for FIFO within same priority) */
+    /** Timestamp when message was created (used for message age and dwell time) */
     private long createdAt;
 
+    /** Position in its queue's push order; breaks priority ties without relying on the clock. */
+    private long sequence;
+
+    /** Identifier assigned by the message log in persistent mode (0 otherwise). */
+    private long id;
+
     public Message(String msgBody, int priority) {
         this.msgBody = msgBody;
         this.priority = priority;
@@ -38,22 +51,59 @@ public class Message {
         this.receiptId = receiptId;
     }
 
+    public String getQueueUrl() {
+        return queueUrl;
+    }
+
+    protected void setQueueUrl(String queueUrl) {
+        this.queueUrl = queueUrl;
+    }
+
     protected void setVisibleFrom(long visibleFrom) {
         this.visibleFrom = visibleFrom;
     }
 
+    protected long getVisibleFrom() {
+        return visibleFrom;
+    }
+
     public boolean isVisibleAt(long instant) {
         return visibleFrom < instant;
     }
 
+    /** The body; a packed body is decompressed on first call. */
     public String getBody() {
-        return msgBody;
+        String body = msgBody;
+        if (body == null && packedBody != null) {
+            body = packedBody.unpack();
+            msgBody = body;
+        }
+        return body;
+    }
+
+    protected PackedBody getPackedBody() {
+        return packedBody;
+    }
+
+    protected void setPackedBody(PackedBody packedBody) {
+        this.packedBody = packedBody;
+    }
+
+    /** Drop the body string of a packed message, keeping only the packed form in memory. */
+    protected void releaseBody() {
+        if (packedBody != null) {
+            msgBody = null;
+        }
     }
 
     protected int getAttempts() {
         return attempts;
     }
 
+    protected void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
     protected void incrementAttempts() {
         this.attempts++;
     }
@@ -65,4 +115,24 @@ public class Message {
     public long getCreatedAt() {
         return createdAt;
     }
+
+    protected void setCreatedAt(long createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    protected long getSequence() {
+        return sequence;
+    }
+
+    protected void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    protected long getId() {
+        return id;
+    }
+
+    protected void setId(long id) {
+        this.id = id;
+    }
 }
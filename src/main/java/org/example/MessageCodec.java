@@ -0,0 +1,184 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary encoding of a Message, used instead of Jackson on the Redis path.
+ *
+ * <p>Layout (big-endian): {@code [byte version][int priority][long createdAt][int attempts]
+ * [long visibleFrom][int bodyLength][body as UTF-8]}. The body is length-prefixed rather than
+ * escaped, so quotes, backslashes and control characters need no special handling. The receipt
+ * is not encoded; it belongs to a lease, not to the stored message.
+ *
+ * <p>A message with a compressed body is written as version 2, which replaces the body with
+ * {@code [byte flags][int bodyLength][int dataLength][data]} from its PackedBody, and is decoded
+ * back into a packed message that decompresses on first read. Blobs are read back in first.
+ */
+final class MessageCodec {
+    static final byte VERSION = 1;
+    static final byte PACKED_VERSION = 2;
+
+    private static final int HEADER_SIZE = 1 + 4 + 8 + 4 + 8 + 4;
+    private static final int PACKED_HEADER_SIZE = HEADER_SIZE + 1 + 4;
+
+    private MessageCodec() {
+    }
+
+    /** Exact number of bytes encode() writes for this message. */
+    static int encodedSize(Message message) {
+        return encodedSize(message, packedBody(message));
+    }
+
+    private static int encodedSize(Message message, PackedBody packed) {
+        return packed != null
+                ? PACKED_HEADER_SIZE + packed.data.length
+                : Math.toIntExact(HEADER_SIZE + utf8Length(message.getBody()));
+    }
+
+    static byte[] encode(Message message) {
+        PackedBody packed = packedBody(message);
+        byte[] out = new byte[encodedSize(message, packed)];
+        encode(message, packed, ByteBuffer.wrap(out));
+        return out;
+    }
+
+    /**
+     * Write the message at the buffer's position, without intermediate copies of the body.
+     * The buffer must have at least encodedSize(message) bytes remaining.
+     */
+    static void encode(Message message, ByteBuffer out) {
+        encode(message, packedBody(message), out);
+    }
+
+    /** The packed body to write, with any blob read back in, or null for a plain body. */
+    private static PackedBody packedBody(Message message) {
+        PackedBody packed = message.getPackedBody();
+        return packed == null ? null : packed.inline();
+    }
+
+    private static void encode(Message message, PackedBody packed, ByteBuffer out) {
+        if (packed != null) {
+            out.put(PACKED_VERSION)
+                    .putInt(message.getPriority())
+                    .putLong(message.getCreatedAt())
+                    .putInt(message.getAttempts())
+                    .putLong(message.getVisibleFrom())
+                    .put(packed.flags)
+                    .putInt(packed.bodyLength)
+                    .putInt(packed.data.length)
+                    .put(packed.data);
+            return;
+        }
+        String body = message.getBody();
+        out.put(VERSION)
+                .putInt(message.getPriority())
+                .putLong(message.getCreatedAt())
+                .putInt(message.getAttempts())
+                .putLong(message.getVisibleFrom())
+                .putInt((int) utf8Length(body)); // fits: encodedSize checked the total
+        writeUtf8(body, out);
+    }
+
+    static Message decode(byte[] bytes) {
+        return decode(ByteBuffer.wrap(bytes));
+    }
+
+    /** Read one message from the buffer's position, advancing it past the message. */
+    static Message decode(ByteBuffer in) {
+        byte version = in.get();
+        if (version != VERSION && version != PACKED_VERSION) {
+            throw new IllegalArgumentException("Unsupported message encoding version: " + version);
+        }
+        int priority = in.getInt();
+        long createdAt = in.getLong();
+        int attempts = in.getInt();
+        long visibleFrom = in.getLong();
+        if (version == PACKED_VERSION) {
+            byte flags = in.get();
+            int bodyLength = in.getInt();
+            int length = in.getInt();
+            if (length < 0 || length > in.remaining() || (flags & PackedBody.BLOB) != 0) {
+                throw new IllegalArgumentException("Malformed packed message body");
+            }
+            byte[] data = new byte[length];
+            in.get(data);
+            Message message = new Message(null, priority);
+            message.setPackedBody(new PackedBody(flags, bodyLength, data, null));
+            message.setCreatedAt(createdAt);
+            message.setAttempts(attempts);
+            message.setVisibleFrom(visibleFrom);
+            return message;
+        }
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining()) {
+            throw new IllegalArgumentException("Truncated message body: " + length + " bytes declared");
+        }
+
+        String body;
+        if (in.hasArray()) {
+            // Heap buffer: decode straight from the backing array
+            body = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            body = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        Message message = new Message(body, priority);
+        message.setCreatedAt(createdAt);
+        message.setAttempts(attempts);
+        message.setVisibleFrom(visibleFrom);
+        return message;
+    }
+
+    /**
+     * UTF-8 length of s as encode() writes it, computed without encoding it. Shared with the queue
+     * limits and the wire protocol, so every size check agrees on how big a body is.
+     */
+    static long utf8Length(String s) {
+        int length = s.length();
+        long bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    bytes += 1;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    bytes += 2; // 4 bytes for the pair, 2 chars already counted
+                    i++;
+                } else {
+                    bytes += 2; // 3 bytes; unpaired surrogates are written as U+FFFD
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private static void writeUtf8(String s, ByteBuffer out) {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                out.put((byte) (0xF0 | (cp >> 18)));
+                out.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (cp & 0x3F)));
+            } else {
+                if (Character.isSurrogate(c)) {
+                    c = '\uFFFD'; // unpaired surrogate cannot be encoded
+                }
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+}
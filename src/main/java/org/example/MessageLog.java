@@ -0,0 +1,446 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-ahead log for InMemoryPriorityQueueService's persistent mode.
+ *
+ * <p>Push, lease and delete records are appended to fixed-size, memory-mapped segment files. A
+ * background flusher forces written ranges to disk and wakes every producer whose record is now
+ * covered, so concurrent pushes share one fsync (group commit). Each segment counts the messages
+ * pushed into it that are not deleted yet; once the oldest segments reach zero they are deleted.
+ * Only a prefix of the log is ever removed, so a delete record can never outlive the push it
+ * cancels.
+ *
+ * <p>Record layout: {@code [int length][int crc32c][byte type][payload]}, where length and crc
+ * cover type plus payload. A zero length marks the end of the written part of a segment. Pushes
+ * of delayed messages use their own record type, which adds the time they become visible.
+ */
+final class MessageLog implements Closeable {
+    static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final byte PUSH = 1;
+    private static final byte LEASE = 2;
+    private static final byte DELETE = 3;
+    private static final byte DELAYED_PUSH = 4;
+
+    private static final int HEADER_SIZE = 8;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    /** Signalled by appenders when there is something to flush. */
+    private final Condition written = lock.newCondition();
+    /** Signalled by the flusher when flushedPosition advances. */
+    private final Condition flushed = lock.newCondition();
+
+    /** Segments in log order; the last one is being appended to. */
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    /** Segments that contain at least one push, keyed by the first message id pushed into them. */
+    private final TreeMap<Long, Segment> segmentsByFirstId = new TreeMap<>();
+
+    private Segment current;
+    private long nextId = 1;
+    private final CRC32C crc = new CRC32C();
+
+    // Global log positions: segment index * segmentSize + offset, so they only ever grow
+    private long writePosition;
+    private long flushedPosition;
+    private Segment flushSegment;
+    private int flushOffset;
+
+    private IOException flushFailure;
+    private boolean closed;
+    private final Thread flusher;
+
+    private static final class Segment {
+        final long index;
+        final Path path;
+        final MappedByteBuffer buffer;
+        /** Messages pushed into this segment that have not been deleted. */
+        int live;
+
+        Segment(long index, Path path, MappedByteBuffer buffer) {
+            this.index = index;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    MessageLog(Path directory, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+
+        this.flusher = new Thread(this::flushLoop, "queue-log-flusher");
+        this.flusher.setDaemon(true);
+    }
+
+    /**
+     * Replay the segments on disk and report every message that was pushed and not deleted, in log
+     * order. Must be called once, before any append; starts the flusher afterwards.
+     */
+    void recover(BiConsumer<String, Message> sink) throws IOException {
+        Map<Long, String> queueOf = new LinkedHashMap<>();
+        Map<Long, Message> live = new LinkedHashMap<>();
+
+        for (Path path : listSegments()) {
+            Segment segment = open(path, indexOf(path));
+            segments.add(segment);
+            current = segment;
+
+            ByteBuffer buffer = segment.buffer;
+            int offset = 0;
+            while (offset + HEADER_SIZE <= segmentSize) {
+                int length = buffer.getInt(offset);
+                if (length <= 0 || offset + HEADER_SIZE + length > segmentSize
+                        || checksum(buffer, offset + HEADER_SIZE, length) != buffer.getInt(offset + 4)) {
+                    break; // end of segment or torn write
+                }
+
+                ByteBuffer record = buffer.slice(offset + HEADER_SIZE, length);
+                byte type = record.get();
+                long id = record.getLong();
+                if (type == PUSH || type == DELAYED_PUSH) {
+                    int priority = record.getInt();
+                    long createdAt = record.getLong();
+                    long visibleFrom = type == DELAYED_PUSH ? record.getLong() : 0;
+                    String queueUrl = readString(record);
+                    Message msg = new Message(readString(record), priority);
+                    msg.setCreatedAt(createdAt);
+                    msg.setVisibleFrom(visibleFrom);
+                    msg.setId(id);
+                    queueOf.put(id, queueUrl);
+                    live.put(id, msg);
+                    segmentsByFirstId.putIfAbsent(id, segment);
+                    segment.live++;
+                    nextId = Math.max(nextId, id + 1);
+                } else if (type == LEASE) {
+                    Message msg = live.get(id);
+                    if (msg != null) {
+                        msg.incrementAttempts();
+                    }
+                } else if (type == DELETE) {
+                    if (live.remove(id) != null) {
+                        queueOf.remove(id);
+                        segmentOf(id).live--;
+                    }
+                }
+                offset += HEADER_SIZE + length;
+            }
+            // Anything after a torn record is overwritten by new appends
+            segment.buffer.position(offset);
+        }
+
+        if (current == null) {
+            current = open(segmentPath(0), 0);
+            segments.add(current);
+        } else {
+            clearTail(current);
+        }
+        writePosition = current.index * segmentSize + current.buffer.position();
+        flushedPosition = writePosition;
+        flushSegment = current;
+        flushOffset = current.buffer.position();
+        compact();
+
+        for (Map.Entry<Long, Message> entry : live.entrySet()) {
+            sink.accept(queueOf.get(entry.getKey()), entry.getValue());
+        }
+        flusher.start();
+    }
+
+    /**
+     * Append push records for a batch of messages, assigning each one its id.
+     * Returns the log position to pass to {@link #awaitDurable(long)}.
+     */
+    long appendPush(String queueUrl, List<Message> messages) {
+        byte[] queue = queueUrl.getBytes(StandardCharsets.UTF_8);
+        lock.lock();
+        try {
+            for (Message msg : messages) {
+                byte[] body = msg.getBody().getBytes(StandardCharsets.UTF_8);
+                long id = nextId++;
+                msg.setId(id);
+
+                boolean delayed = msg.getVisibleFrom() > 0;
+                ByteBuffer record = reserve(1 + 8 + 4 + 8 + (delayed ? 8 : 0) + 4 + queue.length + 4 + body.length);
+                record.put(delayed ? DELAYED_PUSH : PUSH).putLong(id).putInt(msg.getPriority()).putLong(msg.getCreatedAt());
+                if (delayed) {
+                    record.putLong(msg.getVisibleFrom());
+                }
+                record.putInt(queue.length).put(queue);
+                record.putInt(body.length).put(body);
+                commit(record);
+
+                segmentsByFirstId.putIfAbsent(id, current);
+                current.live++;
+            }
+            return writePosition;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Record a delivery of a message, so the attempt count survives a restart. */
+    void appendLease(long id) {
+        lock.lock();
+        try {
+            commit(reserve(1 + 8).put(LEASE).putLong(id));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Record that a message was acknowledged, and drop segments that no longer hold live messages. */
+    void appendDelete(long id) {
+        lock.lock();
+        try {
+            commit(reserve(1 + 8).put(DELETE).putLong(id));
+            segmentOf(id).live--;
+            compact();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Block until everything up to the given log position has been forced to disk. */
+    void awaitDurable(long position) {
+        lock.lock();
+        try {
+            while (flushedPosition < position) {
+                if (flushFailure != null) {
+                    throw new IllegalStateException("Message log flush failed", flushFailure);
+                }
+                if (closed) {
+                    throw new IllegalStateException("Message log is closed");
+                }
+                flushed.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            written.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (flushFailure != null) {
+            throw flushFailure;
+        }
+    }
+
+    /**
+     * Zero the last segment after its recovery point and force it. A torn write can leave intact
+     * records behind it; were they kept, a new append ending exactly where one begins would bring
+     * it back on the next recovery, with an id that new pushes have reused since.
+     */
+    private void clearTail(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int from = buffer.position();
+        while (from + 8 <= segmentSize && buffer.getLong(from) == 0) {
+            from += 8;
+        }
+        while (from < segmentSize && buffer.get(from) == 0) {
+            from++;
+        }
+        if (from == segmentSize) {
+            return; // clean end: nothing but zeros after the last record
+        }
+        byte[] zeros = new byte[Math.min(64 * 1024, segmentSize - from)];
+        for (int offset = from; offset < segmentSize; offset += zeros.length) {
+            buffer.put(offset, zeros, 0, Math.min(zeros.length, segmentSize - offset));
+        }
+        buffer.force();
+    }
+
+    /**
+     * Reserve room for a record body in the current segment, rolling to a new segment if needed.
+     * Returns a buffer positioned at the start of the body. Caller must hold the lock.
+     */
+    private ByteBuffer reserve(int length) {
+        if (HEADER_SIZE + length + HEADER_SIZE > segmentSize) {
+            throw new IllegalArgumentException("Message too large for log segment: " + length + " bytes");
+        }
+        if (closed) {
+            throw new IllegalStateException("Message log is closed");
+        }
+        if (current.buffer.position() + HEADER_SIZE + length > segmentSize) {
+            roll();
+        }
+        int start = current.buffer.position();
+        return current.buffer.duplicate().position(start + HEADER_SIZE).limit(start + HEADER_SIZE + length).slice();
+    }
+
+    /** Write the header for a record filled through reserve() and publish it. Caller must hold the lock. */
+    private void commit(ByteBuffer record) {
+        MappedByteBuffer buffer = current.buffer;
+        int start = buffer.position();
+        int length = record.position();
+        buffer.putInt(start + 4, checksum(buffer, start + HEADER_SIZE, length));
+        buffer.putInt(start, length); // written last: a non-zero length marks the record complete
+        buffer.position(start + HEADER_SIZE + length);
+
+        writePosition = current.index * segmentSize + buffer.position();
+        written.signal();
+    }
+
+    /** Seal the current segment, forcing it synchronously, and start a new one. Caller must hold the lock. */
+    private void roll() {
+        current.buffer.force();
+        long sealedEnd = current.index * segmentSize + current.buffer.position();
+        flushedPosition = Math.max(flushedPosition, sealedEnd);
+        flushed.signalAll();
+
+        try {
+            current = open(segmentPath(current.index + 1), current.index + 1);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not create log segment", e);
+        }
+        segments.add(current);
+        flushSegment = current;
+        flushOffset = 0;
+    }
+
+    /** Delete the oldest segments while they hold no live messages. Caller must hold the lock. */
+    private void compact() {
+        while (segments.size() > 1 && segments.peekFirst().live == 0) {
+            Segment oldest = segments.pollFirst();
+            segmentsByFirstId.values().remove(oldest);
+            try {
+                Files.deleteIfExists(oldest.path);
+            } catch (IOException e) {
+                e.printStackTrace(); // retried implicitly: the file is ignored once it is out of the deque
+            }
+        }
+    }
+
+    private Segment segmentOf(long id) {
+        return segmentsByFirstId.floorEntry(id).getValue();
+    }
+
+    /** Group commit: force whatever was appended since the last pass and wake the waiting producers. */
+    private void flushLoop() {
+        while (true) {
+            Segment segment;
+            int from;
+            int to;
+            long target;
+
+            lock.lock();
+            try {
+                while (!closed && writePosition == flushedPosition) {
+                    written.awaitUninterruptibly();
+                }
+                if (writePosition == flushedPosition) {
+                    return; // closed and fully flushed
+                }
+                segment = flushSegment;
+                from = flushOffset;
+                to = segment.buffer.position();
+                target = writePosition;
+            } finally {
+                lock.unlock();
+            }
+
+            IOException failure = null;
+            try {
+                if (to > from) {
+                    segment.buffer.force(from, to - from);
+                }
+            } catch (RuntimeException e) {
+                failure = new IOException("Could not force log segment " + segment.path, e);
+            }
+
+            lock.lock();
+            try {
+                if (failure != null) {
+                    flushFailure = failure;
+                    flushed.signalAll();
+                    return;
+                }
+                if (flushSegment == segment) {
+                    flushOffset = Math.max(flushOffset, to);
+                }
+                flushedPosition = Math.max(flushedPosition, target);
+                flushed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private Segment open(Path path, long index) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed; new files are zero-filled
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            return new Segment(index, path, buffer);
+        }
+    }
+
+    private List<Path> listSegments() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                paths.add(path);
+            }
+        }
+        paths.sort(null); // zero-padded names sort in log order
+        return paths;
+    }
+
+    private Path segmentPath(long index) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    private static long indexOf(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private int checksum(ByteBuffer buffer, int offset, int length) {
+        crc.reset();
+        crc.update(buffer.slice(offset, length));
+        return (int) crc.getValue();
+    }
+
+    private static String readString(ByteBuffer record) {
+        byte[] bytes = new byte[record.getInt()];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,198 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * ReadyQueue for very deep queues that keeps no object per queued message. The binary heap is
+ * three parallel primitive arrays (priority, sequence, ref). The body and the remaining message
+ * fields live off-heap in a SlabArena record {@code [int dataLength][int attempts][long id][long
+ * createdAt][int bodyLength][byte flags][data]}, where data is the UTF-8 body, or its packed form
+ * if flags are those of a PackedBody. A Message object only exists again once the message is polled for
+ * delivery. A backlog of tens of millions therefore costs the collector a few large arrays
+ * instead of tens of millions of objects; the bodies count against -XX:MaxDirectMemorySize
+ * instead of the heap.
+ */
+final class OffHeapReadyQueue implements ReadyQueue {
+    private static final int HEADER_SIZE = 29;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final SlabArena arena = new SlabArena();
+    private int[] priorities = new int[INITIAL_CAPACITY];
+    private long[] sequences = new long[INITIAL_CAPACITY];
+    private long[] refs = new long[INITIAL_CAPACITY];
+    private int size;
+    /** Store that packed bodies with the BLOB flag refer to. */
+    private final Supplier<BlobStore> blobs;
+
+    OffHeapReadyQueue() {
+        this(() -> null);
+    }
+
+    OffHeapReadyQueue(Supplier<BlobStore> blobs) {
+        this.blobs = blobs;
+    }
+
+    @Override
+    public void add(Message msg) {
+        PackedBody packed = msg.getPackedBody();
+        byte[] data = packed != null ? packed.data : msg.getBody().getBytes(StandardCharsets.UTF_8);
+        long ref = arena.allocate(HEADER_SIZE + data.length);
+        ByteBuffer chunk = arena.chunk(ref);
+        int offset = arena.offset(ref);
+        chunk.putInt(offset, data.length);
+        chunk.putInt(offset + 4, msg.getAttempts());
+        chunk.putLong(offset + 8, msg.getId());
+        chunk.putLong(offset + 16, msg.getCreatedAt());
+        chunk.putInt(offset + 24, packed != null ? packed.bodyLength : data.length);
+        chunk.put(offset + 28, packed != null ? packed.flags : 0);
+        chunk.put(offset + HEADER_SIZE, data);
+
+        if (size == refs.length) {
+            resize(size * 2);
+        }
+        siftUp(size++, msg.getPriority(), msg.getSequence(), ref);
+    }
+
+    @Override
+    public Message poll() {
+        if (size == 0) {
+            return null;
+        }
+        return removeAt(0);
+    }
+
+    @Override
+    public int lastPriority() {
+        return priorities[lastIndex()];
+    }
+
+    @Override
+    public Message pollLast() {
+        return size == 0 ? null : removeAt(lastIndex());
+    }
+
+    /** Index of the message delivered last; it has no children, so only leaves are scanned. */
+    private int lastIndex() {
+        int last = size - 1;
+        for (int i = size >>> 1; i < size - 1; i++) {
+            if (before(priorities[last], sequences[last], priorities[i], sequences[i])) {
+                last = i;
+            }
+        }
+        return last;
+    }
+
+    private Message removeAt(int index) {
+        int priority = priorities[index];
+        long sequence = sequences[index];
+        long ref = refs[index];
+
+        int last = --size;
+        if (index < last) {
+            int movedPriority = priorities[last];
+            long movedSequence = sequences[last];
+            long movedRef = refs[last];
+            siftDown(index, movedPriority, movedSequence, movedRef);
+            if (refs[index] == movedRef) {
+                siftUp(index, movedPriority, movedSequence, movedRef);
+            }
+        }
+        if (refs.length > INITIAL_CAPACITY && size < refs.length / 4) {
+            resize(refs.length / 2); // give memory back after a large backlog drains
+        }
+
+        ByteBuffer chunk = arena.chunk(ref);
+        int offset = arena.offset(ref);
+        byte[] data = new byte[chunk.getInt(offset)];
+        chunk.get(offset + HEADER_SIZE, data);
+        byte flags = chunk.get(offset + 28);
+        Message msg;
+        if (flags == 0) {
+            msg = new Message(new String(data, StandardCharsets.UTF_8), priority);
+        } else {
+            msg = new Message(null, priority);
+            BlobStore store = (flags & PackedBody.BLOB) != 0 ? blobs.get() : null;
+            msg.setPackedBody(new PackedBody(flags, chunk.getInt(offset + 24), data, store));
+        }
+        msg.setSequence(sequence);
+        msg.setAttempts(chunk.getInt(offset + 4));
+        msg.setId(chunk.getLong(offset + 8));
+        msg.setCreatedAt(chunk.getLong(offset + 16));
+        arena.free(ref);
+        return msg;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int headPriority() {
+        return priorities[0];
+    }
+
+    @Override
+    public long headSequence() {
+        return sequences[0];
+    }
+
+    @Override
+    public long headCreatedAt() {
+        return arena.chunk(refs[0]).getLong(arena.offset(refs[0]) + 16);
+    }
+
+    /** Direct memory held by the bodies, including free slots kept for reuse. */
+    long offHeapBytes() {
+        return arena.reservedBytes();
+    }
+
+    /** True if (p1, s1) is delivered before (p2, s2); the inlined form of ReadyQueue.compare. */
+    private static boolean before(int p1, long s1, int p2, long s2) {
+        return p1 > p2 || (p1 == p2 && s1 < s2);
+    }
+
+    private void siftUp(int index, int priority, long sequence, long ref) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!before(priority, sequence, priorities[parent], sequences[parent])) {
+                break;
+            }
+            set(index, priorities[parent], sequences[parent], refs[parent]);
+            index = parent;
+        }
+        set(index, priority, sequence, ref);
+    }
+
+    private void siftDown(int index, int priority, long sequence, long ref) {
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < size && before(priorities[right], sequences[right], priorities[child], sequences[child])) {
+                child = right;
+            }
+            if (!before(priorities[child], sequences[child], priority, sequence)) {
+                break;
+            }
+            set(index, priorities[child], sequences[child], refs[child]);
+            index = child;
+        }
+        set(index, priority, sequence, ref);
+    }
+
+    private void set(int index, int priority, long sequence, long ref) {
+        priorities[index] = priority;
+        sequences[index] = sequence;
+        refs[index] = ref;
+    }
+
+    private void resize(int capacity) {
+        priorities = Arrays.copyOf(priorities, capacity);
+        sequences = Arrays.copyOf(sequences, capacity);
+        refs = Arrays.copyOf(refs, capacity);
+    }
+}
@@ -0,0 +1,18 @@
+package org.example;
+
+/**
+ * What a push does when its queue is at one of its limits, or the service is at its memory
+ * budget.
+ */
+public enum OverflowPolicy {
+    /** Wait up to the queue's block timeout for consumers to make room, then reject. */
+    BLOCK,
+    /** Fail the push at once with QueueFullException. */
+    REJECT,
+    /**
+     * Make room by discarding the visible messages that would be delivered last, as long as they
+     * have a lower priority than the pushed message; otherwise reject. In-flight and delayed
+     * messages are never discarded.
+     */
+    DROP_LOWEST
+}
@@ -0,0 +1,137 @@
+package org.example;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Stored form of a large message body: deflated, moved to a BlobStore with only its key kept,
+ * or both. Immutable, so a queued message and the copies handed to consumers can share it.
+ * Messages hold a PackedBody instead of their body string and turn it back into a string only
+ * when {@link Message#getBody()} is first called, which usually happens in the consumer.
+ *
+ * <p>Deflate from java.util.zip at its fastest level: large JSON bodies typically shrink to a
+ * fifth, at a cost well below that of moving the uncompressed bytes around.
+ */
+final class PackedBody {
+    /** data is the deflated UTF-8 body, or the blob holds it deflated. */
+    static final byte DEFLATED = 1;
+    /** data is a blob key in UTF-8; the body is in the BlobStore. */
+    static final byte BLOB = 2;
+
+    final byte flags;
+    /** UTF-8 length of the plain body. */
+    final int bodyLength;
+    final byte[] data;
+    /** Store holding the body if flags has BLOB, otherwise null. */
+    private final BlobStore blobs;
+
+    PackedBody(byte flags, int bodyLength, byte[] data, BlobStore blobs) {
+        if ((flags & BLOB) != 0 && blobs == null) {
+            throw new IllegalArgumentException("blob reference without a blob store");
+        }
+        this.flags = flags;
+        this.bodyLength = bodyLength;
+        this.data = data;
+        this.blobs = blobs;
+    }
+
+    /**
+     * Pack a body under a queue's settings: deflate it if it has at least compressAbove UTF-8
+     * bytes and deflating saves space, and move it to blobs if it has at least offloadAbove.
+     * Returns null if neither applies, so small bodies stay plain strings.
+     */
+    static PackedBody pack(String body, long compressAbove, long offloadAbove, BlobStore blobs) {
+        long length = MessageCodec.utf8Length(body);
+        boolean offload = length >= offloadAbove && blobs != null;
+        if (length < compressAbove && !offload) {
+            return null;
+        }
+        byte[] utf8 = body.getBytes(StandardCharsets.UTF_8);
+        byte flags = 0;
+        byte[] content = utf8;
+        if (length >= compressAbove) {
+            byte[] deflated = deflate(utf8);
+            if (deflated.length < utf8.length) {
+                flags |= DEFLATED;
+                content = deflated;
+            }
+        }
+        if (offload) {
+            String key = blobs.put(content);
+            return new PackedBody((byte) (flags | BLOB), utf8.length, key.getBytes(StandardCharsets.UTF_8), blobs);
+        }
+        return flags == 0 ? null : new PackedBody(flags, utf8.length, content, null);
+    }
+
+    /** Bytes this body takes up while queued: the deflated body, or just the blob key. */
+    int storedBytes() {
+        return data.length;
+    }
+
+    /** Key of the blob holding the body, or null if it is held in data. */
+    String blobKey() {
+        return (flags & BLOB) != 0 ? new String(data, StandardCharsets.UTF_8) : null;
+    }
+
+    /** The same body with the blob read back in, for handing to a process that cannot reach the store. */
+    PackedBody inline() {
+        return (flags & BLOB) == 0 ? this : new PackedBody((byte) (flags & ~BLOB), bodyLength, content(), null);
+    }
+
+    String unpack() {
+        byte[] content = content();
+        byte[] utf8 = (flags & DEFLATED) != 0 ? inflate(content, bodyLength) : content;
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    /** The deflated or plain body bytes, reading them from the blob store if needed. */
+    private byte[] content() {
+        return (flags & BLOB) != 0 ? blobs.get(blobKey()) : data;
+    }
+
+    static byte[] deflate(byte[] input) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            byte[] out = new byte[Math.max(64, input.length / 2)];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            return Arrays.copyOf(out, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static byte[] inflate(byte[] input, int length) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            byte[] out = new byte[length];
+            int read = 0;
+            while (read < length && !inflater.finished()) {
+                int n = inflater.inflate(out, read, length - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += n;
+            }
+            if (read != length) {
+                throw new IllegalStateException("Corrupt compressed body: " + read + " of " + length + " bytes");
+            }
+            return out;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt compressed body", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package org.example;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Opt-in consumer for one queue that leases messages ahead of demand, so a pull is a local dequeue
+ * instead of a round trip. Meant for RedisQueueService, but works over any QueueService.
+ *
+ * <p>A background thread pulls batches with an explicit visibility timeout into a bounded buffer
+ * and records when each lease ends. A message is only handed out while at least minRemainingLease
+ * of its lease is left, so the caller has that long to process and delete it. Buffered messages
+ * that fall below that are released back to the queue with changeVisibility, letting another
+ * consumer (or the next batch) take them with a fresh lease instead of this one handing them out
+ * stale. Closing the consumer releases whatever is still buffered.
+ */
+public class PrefetchingConsumer implements AutoCloseable {
+    private static final int DEFAULT_BATCH_SIZE = 10;
+    private static final int DEFAULT_CAPACITY = 100;
+    private static final Duration DEFAULT_VISIBILITY_TIMEOUT = Duration.ofSeconds(30);
+    private static final Duration DEFAULT_MIN_REMAINING_LEASE = Duration.ofSeconds(10);
+
+    /** How long the fetcher long-polls an empty queue before checking its buffer again. */
+    private static final Duration IDLE_WAIT = Duration.ofSeconds(1);
+
+    private final QueueService service;
+    private final String queueUrl;
+    private final int batchSize;
+    private final int capacity;
+    private final Duration visibilityTimeout;
+    private final long minRemainingMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    /** Leased messages in fetch order, so the head always has the earliest lease deadline. */
+    private final ArrayDeque<Leased> buffer = new ArrayDeque<>();
+    private final Thread fetcher;
+    private volatile boolean running = true;
+
+    /** A buffered message and the time (epoch millis) its lease runs out. */
+    private static final class Leased {
+        final Message message;
+        final long deadline;
+
+        Leased(Message message, long deadline) {
+            this.message = message;
+            this.deadline = deadline;
+        }
+    }
+
+    public PrefetchingConsumer(QueueService service, String queueUrl) {
+        this(service, queueUrl, DEFAULT_BATCH_SIZE, DEFAULT_CAPACITY,
+                DEFAULT_VISIBILITY_TIMEOUT, DEFAULT_MIN_REMAINING_LEASE);
+    }
+
+    /**
+     * @param batchSize          most messages leased per pull
+     * @param capacity           most messages buffered at once
+     * @param visibilityTimeout  lease length requested for prefetched messages
+     * @param minRemainingLease  lease time a message must have left to be handed out
+     */
+    public PrefetchingConsumer(QueueService service, String queueUrl, int batchSize, int capacity,
+                               Duration visibilityTimeout, Duration minRemainingLease) {
+        if (batchSize < 1 || capacity < batchSize) {
+            throw new IllegalArgumentException("need 1 <= batchSize <= capacity: " + batchSize + ", " + capacity);
+        }
+        if (minRemainingLease.compareTo(visibilityTimeout) >= 0) {
+            throw new IllegalArgumentException("minRemainingLease must be shorter than visibilityTimeout");
+        }
+        this.service = service;
+        this.queueUrl = queueUrl;
+        this.batchSize = batchSize;
+        this.capacity = capacity;
+        this.visibilityTimeout = visibilityTimeout;
+        this.minRemainingMillis = minRemainingLease.toMillis();
+
+        this.fetcher = new Thread(this::fetchLoop, "prefetch-" + queueUrl);
+        this.fetcher.setDaemon(true);
+        this.fetcher.start();
+    }
+
+    /** Take a buffered message, or null if none is buffered right now. */
+    public Message pull() {
+        return pull(Duration.ZERO);
+    }
+
+    /** Take a buffered message, waiting up to waitTime for the fetcher to bring one. */
+    public Message pull(Duration waitTime) {
+        long deadline = System.nanoTime() + waitTime.toNanos();
+        List<Leased> stale = new ArrayList<>(0);
+        lock.lock();
+        try {
+            while (true) {
+                Leased leased = takeFresh(stale);
+                if (leased != null) {
+                    return leased.message;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !running) {
+                    return null;
+                }
+                notEmpty.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            lock.unlock();
+            release(stale);
+        }
+    }
+
+    public void delete(String receiptId) {
+        service.delete(queueUrl, receiptId);
+    }
+
+    /** Messages currently buffered. */
+    public int buffered() {
+        lock.lock();
+        try {
+            return buffer.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Pop the first buffered message with enough lease left, moving stale ones to stale.
+     * Caller must hold the lock.
+     */
+    private Leased takeFresh(List<Leased> stale) {
+        long now = System.currentTimeMillis();
+        Leased leased;
+        while ((leased = buffer.poll()) != null) {
+            notFull.signal();
+            if (leased.deadline - now >= minRemainingMillis) {
+                return leased;
+            }
+            stale.add(leased);
+        }
+        return null;
+    }
+
+    /** Hand leases that can no longer be used back to the queue; expired ones need nothing. */
+    private void release(List<Leased> leases) {
+        long now = System.currentTimeMillis();
+        for (Leased leased : leases) {
+            if (leased.deadline > now) {
+                try {
+                    service.changeVisibility(queueUrl, leased.message.getReceiptId(), Duration.ZERO);
+                } catch (RuntimeException e) {
+                    e.printStackTrace(); // the lease still expires on its own
+                }
+            }
+        }
+    }
+
+    private void fetchLoop() {
+        while (running) {
+            try {
+                List<Leased> stale = new ArrayList<>(0);
+                int room = awaitRoom(stale);
+                release(stale);
+                if (room > 0) {
+                    fetch(room);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                if (!running) {
+                    return; // interrupted by close
+                }
+                e.printStackTrace(); // log error and retry after a pause
+                try {
+                    Thread.sleep(IDLE_WAIT.toMillis());
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait until a whole batch fits into the buffer, dropping messages that went stale while
+     * waiting. Returns how many messages to fetch, or 0 if the wait should be repeated.
+     */
+    private int awaitRoom(List<Leased> stale) throws InterruptedException {
+        lock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            while (!buffer.isEmpty() && buffer.peek().deadline - now < minRemainingMillis) {
+                stale.add(buffer.poll());
+            }
+            int room = capacity - buffer.size();
+            if (room >= batchSize || buffer.isEmpty()) {
+                return Math.min(room, batchSize);
+            }
+            // Sleep until a consumer makes room or the head goes stale
+            long untilStale = buffer.peek().deadline - minRemainingMillis - now;
+            notFull.await(Math.max(untilStale, 1), TimeUnit.MILLISECONDS);
+            return 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void fetch(int max) {
+        long leasedAt = System.currentTimeMillis();
+        List<Message> messages = service.pull(queueUrl, max, visibilityTimeout);
+        if (messages.isEmpty()) {
+            // Queue is idle: long-poll for one message, then give it the lease length we track
+            Message message = service.pull(queueUrl, IDLE_WAIT);
+            leasedAt = System.currentTimeMillis();
+            if (message == null || !service.changeVisibility(queueUrl, message.getReceiptId(), visibilityTimeout)) {
+                return;
+            }
+            messages = List.of(message);
+        }
+
+        long deadline = leasedAt + visibilityTimeout.toMillis();
+        lock.lock();
+        try {
+            for (Message message : messages) {
+                buffer.add(new Leased(message, deadline));
+            }
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop prefetching and release every buffered message back to the queue. If the calling thread
+     * is interrupted while waiting for the fetcher, it still releases the buffer and then keeps its
+     * interrupt status.
+     */
+    @Override
+    public void close() {
+        running = false;
+        fetcher.interrupt();
+        boolean interrupted = false;
+        try {
+            fetcher.join();
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+
+        List<Leased> remaining;
+        lock.lock();
+        try {
+            remaining = new ArrayList<>(buffer);
+            buffer.clear();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        release(remaining);
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package org.example;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a handler for every message of one queue, each on its own virtual thread, so thousands of
+ * handlers blocked on I/O cost no platform threads and no pool sizing. Works over any
+ * QueueService; requires Java 21.
+ *
+ * <p>A dispatcher thread leases only as many messages as there are free handler slots, so no
+ * message waits in a local buffer while its lease runs down. A message whose handler returns is
+ * deleted. One that throws is left alone and becomes visible again when its lease expires, which
+ * counts toward the queue's redrive policy. While a handler runs, a renewer thread extends its lease
+ * every third of the visibility timeout, so slow handlers do not lose their message to another
+ * consumer.
+ *
+ * <p>close() stops leasing, waits for running handlers to finish (extending their leases in the
+ * meantime) and, if the drain timeout passes first, interrupts them and lets their leases expire.
+ */
+public class QueueConsumer implements AutoCloseable {
+    private static final int DEFAULT_MAX_CONCURRENCY = 1_000;
+    private static final Duration DEFAULT_VISIBILITY_TIMEOUT = Duration.ofSeconds(30);
+    private static final Duration DEFAULT_DRAIN_TIMEOUT = Duration.ofSeconds(30);
+
+    /** Most messages leased per pull. */
+    private static final int MAX_BATCH = 10;
+    /** How long the dispatcher long-polls an empty queue before checking whether it was closed. */
+    private static final Duration IDLE_WAIT = Duration.ofSeconds(1);
+
+    /** Processes one message; returning normally acknowledges it. */
+    @FunctionalInterface
+    public interface Handler {
+        void handle(Message message) throws Exception;
+    }
+
+    private final QueueService service;
+    private final String queueUrl;
+    private final Handler handler;
+    private final Duration visibilityTimeout;
+    private final long renewIntervalMillis;
+
+    private final Semaphore slots;
+    private final ExecutorService handlers = Executors.newVirtualThreadPerTaskExecutor();
+    /** Receipts of messages whose handler is running, with the time their lease was last set. */
+    private final Map<String, Long> active = new ConcurrentHashMap<>();
+    private final Thread dispatcher;
+    private final Thread renewer;
+    private volatile boolean running = true;
+
+    public QueueConsumer(QueueService service, String queueUrl, Handler handler) {
+        this(service, queueUrl, handler, DEFAULT_MAX_CONCURRENCY, DEFAULT_VISIBILITY_TIMEOUT);
+    }
+
+    /**
+     * @param maxConcurrency    most handlers running at once
+     * @param visibilityTimeout lease length requested for messages and each extension
+     */
+    public QueueConsumer(QueueService service, String queueUrl, Handler handler,
+                         int maxConcurrency, Duration visibilityTimeout) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be at least 1: " + maxConcurrency);
+        }
+        if (visibilityTimeout.toMillis() < 3) {
+            throw new IllegalArgumentException("visibilityTimeout too short to extend: " + visibilityTimeout);
+        }
+        this.service = service;
+        this.queueUrl = queueUrl;
+        this.handler = handler;
+        this.visibilityTimeout = visibilityTimeout;
+        this.renewIntervalMillis = visibilityTimeout.toMillis() / 3;
+        this.slots = new Semaphore(maxConcurrency);
+
+        this.dispatcher = Thread.ofVirtual().name("consumer-" + queueUrl).start(this::dispatchLoop);
+        this.renewer = Thread.ofVirtual().name("consumer-renew-" + queueUrl).start(this::renewLoop);
+    }
+
+    /** Handlers currently running. */
+    public int inFlight() {
+        return active.size();
+    }
+
+    private void dispatchLoop() {
+        while (running) {
+            int permits = 0;
+            try {
+                slots.acquire();
+                permits = 1 + slots.drainPermits();
+                List<Message> messages = lease(Math.min(permits, MAX_BATCH));
+                for (Message message : messages) {
+                    active.put(message.getReceiptId(), System.currentTimeMillis());
+                    handlers.execute(() -> process(message));
+                    permits--;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                if (!running) {
+                    return; // interrupted by close
+                }
+                e.printStackTrace(); // log error and retry after a pause
+                try {
+                    Thread.sleep(IDLE_WAIT.toMillis());
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            } finally {
+                slots.release(permits); // slots not handed to a handler
+            }
+        }
+    }
+
+    private List<Message> lease(int max) {
+        List<Message> messages = service.pull(queueUrl, max, visibilityTimeout);
+        if (!messages.isEmpty()) {
+            return messages;
+        }
+        // Queue is idle: long-poll for one message, then give it the lease length we renew
+        Message message = service.pull(queueUrl, IDLE_WAIT);
+        if (message == null) {
+            return List.of();
+        }
+        if (!running) {
+            service.changeVisibility(queueUrl, message.getReceiptId(), Duration.ZERO); // closed meanwhile
+            return List.of();
+        }
+        if (!service.changeVisibility(queueUrl, message.getReceiptId(), visibilityTimeout)) {
+            return List.of();
+        }
+        return List.of(message);
+    }
+
+    private void process(Message message) {
+        String receiptId = message.getReceiptId();
+        try {
+            handler.handle(message);
+            service.delete(queueUrl, receiptId);
+        } catch (Exception e) {
+            e.printStackTrace(); // the lease expires and the message is redelivered
+        } finally {
+            active.remove(receiptId);
+            slots.release();
+        }
+    }
+
+    /** Extend the leases of running handlers before they can expire. */
+    private void renewLoop() {
+        while (true) {
+            try {
+                Thread.sleep(renewIntervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, Long> entry : active.entrySet()) {
+                if (now - entry.getValue() < renewIntervalMillis) {
+                    continue;
+                }
+                try {
+                    if (service.changeVisibility(queueUrl, entry.getKey(), visibilityTimeout)) {
+                        active.replace(entry.getKey(), now);
+                    }
+                } catch (RuntimeException e) {
+                    e.printStackTrace(); // retried on the next round while the lease lasts
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop leasing and wait up to 30 seconds for running handlers to finish. If the calling thread
+     * is interrupted while waiting, it stops waiting and keeps its interrupt status.
+     */
+    @Override
+    public void close() {
+        try {
+            close(DEFAULT_DRAIN_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stop leasing and wait up to drainTimeout for running handlers to finish; returns false if
+     * some were still running and had to be interrupted.
+     */
+    public boolean close(Duration drainTimeout) throws InterruptedException {
+        running = false;
+        dispatcher.interrupt();
+        dispatcher.join();
+
+        handlers.shutdown();
+        boolean drained = handlers.awaitTermination(drainTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        if (!drained) {
+            handlers.shutdownNow();
+        }
+        renewer.interrupt();
+        renewer.join();
+        return drained;
+    }
+}
@@ -0,0 +1,14 @@
+package org.example;
+
+/**
+ * Thrown by push when a bounded queue, or the service's memory budget, has no room for the
+ * message and the overflow policy does not allow waiting or discarding any longer.
+ */
+public class QueueFullException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    public QueueFullException(String message) {
+        super(message);
+    }
+}
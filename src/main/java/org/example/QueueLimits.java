@@ -0,0 +1,46 @@
+package org.example;
+
+/**
+ * Capacity settings of a queue. A message counts against the limits from push until it is
+ * deleted, dead-lettered or dropped, so in-flight and delayed messages take up room too. Bytes
+ * are what the bodies take up while queued: the UTF-8 length of a plain body, the compressed
+ * length of a packed one, and only the key of one moved to the blob store. A limit of 0 means
+ * unlimited.
+ */
+final class QueueLimits {
+    static final QueueLimits UNBOUNDED = new QueueLimits(0, 0, OverflowPolicy.REJECT, 0);
+
+    final long maxMessages;
+    final long maxBytes;
+    final OverflowPolicy policy;
+    final long blockTimeoutMillis;
+
+    QueueLimits(long maxMessages, long maxBytes, OverflowPolicy policy, long blockTimeoutMillis) {
+        if (maxMessages < 0 || maxBytes < 0 || blockTimeoutMillis < 0) {
+            throw new IllegalArgumentException("queue limits must not be negative");
+        }
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.policy = policy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+    }
+
+    /** Whether a queue holding messages messages of bytes body bytes is within the limits. */
+    boolean admits(long messages, long bytes) {
+        return (maxMessages == 0 || messages <= maxMessages) && (maxBytes == 0 || bytes <= maxBytes);
+    }
+
+    /** Bytes a queued message counts against the limits. */
+    static long bodyBytes(Message msg) {
+        PackedBody packed = msg.getPackedBody();
+        return packed != null ? packed.storedBytes() : MessageCodec.utf8Length(msg.getBody());
+    }
+
+    static long bodyBytes(Iterable<Message> msgs) {
+        long bytes = 0;
+        for (Message msg : msgs) {
+            bytes += bodyBytes(msg);
+        }
+        return bytes;
+    }
+}
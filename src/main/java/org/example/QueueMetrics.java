@@ -0,0 +1,124 @@
+package org.example;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live metrics of one queue, as seen by one service instance. Counters and histograms are
+ * updated in place by the service without allocating; read them at any time. Latencies are in
+ * nanoseconds, dwell time (push to delete) in milliseconds, and attemptsAtDelete counts how many
+ * deliveries a message took before it was deleted.
+ */
+public final class QueueMetrics {
+    final LongAdder pushed = new LongAdder();
+    final LongAdder delivered = new LongAdder();
+    final LongAdder redelivered = new LongAdder();
+    final LongAdder deleted = new LongAdder();
+    final LongAdder rejected = new LongAdder();
+    final LongAdder dropped = new LongAdder();
+    final LongAdder deduplicated = new LongAdder();
+
+    final Histogram pushLatency = new Histogram();
+    final Histogram pullLatency = new Histogram();
+    final Histogram deleteLatency = new Histogram();
+    final Histogram dwellTime = new Histogram();
+    final Histogram attemptsAtDelete = new Histogram();
+
+    public long getPushed() {
+        return pushed.sum();
+    }
+
+    /** Messages handed out by pull, including redeliveries. */
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    /** Deliveries of messages that had been delivered before. */
+    public long getRedelivered() {
+        return redelivered.sum();
+    }
+
+    public long getDeleted() {
+        return deleted.sum();
+    }
+
+    /** Messages refused by push because the queue or the memory budget was full. */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /** Messages discarded to make room under OverflowPolicy.DROP_LOWEST. */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /** Pushes skipped because their deduplication id was seen within the window. */
+    public long getDeduplicated() {
+        return deduplicated.sum();
+    }
+
+    public Histogram getPushLatency() {
+        return pushLatency;
+    }
+
+    public Histogram getPullLatency() {
+        return pullLatency;
+    }
+
+    public Histogram getDeleteLatency() {
+        return deleteLatency;
+    }
+
+    public Histogram getDwellTime() {
+        return dwellTime;
+    }
+
+    public Histogram getAttemptsAtDelete() {
+        return attemptsAtDelete;
+    }
+
+    /** Record the delete of a message pushed at createdAt and delivered attempts times. */
+    void recordDelete(long nowMillis, long createdAt, int attempts) {
+        deleted.increment();
+        dwellTime.record(nowMillis - createdAt);
+        attemptsAtDelete.record(attempts);
+    }
+
+    /** Point-in-time sizes of a queue. */
+    public static final class Gauges {
+        private final long depth;
+        private final long inFlight;
+        private final long delayed;
+        private final long oldestAgeMillis;
+
+        Gauges(long depth, long inFlight, long delayed, long oldestAgeMillis) {
+            this.depth = depth;
+            this.inFlight = inFlight;
+            this.delayed = delayed;
+            this.oldestAgeMillis = oldestAgeMillis;
+        }
+
+        /** Messages visible to pull. */
+        public long getDepth() {
+            return depth;
+        }
+
+        /** Messages leased to consumers and not deleted yet. */
+        public long getInFlight() {
+            return inFlight;
+        }
+
+        /** Messages pushed with a delay that has not elapsed yet. */
+        public long getDelayed() {
+            return delayed;
+        }
+
+        /**
+         * Age of the oldest message at the head of the queue, i.e. of the visible messages next in
+         * line for delivery; 0 if none is visible. This is the oldest visible message whenever
+         * they all share a priority.
+         */
+        public long getOldestAgeMillis() {
+            return oldestAgeMillis;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One lock-guarded slice of an in-memory queue. Visible messages live in the ready heap. Leased
+ * and delayed messages wait in a timing wheel until their lease expires or their delay elapses;
+ * leased ones are also indexed by receipt. A queue has a single partition unless partitioned mode
+ * is configured. All fields are guarded by {@link #lock}.
+ */
+final class QueuePartition {
+    final int index;
+    final ReentrantLock lock = new ReentrantLock();
+    final ReadyQueue ready;
+    final TimingWheel<Message> timers = new TimingWheel<>();
+    final Map<String, TimingWheel.Timer<Message>> receipts = new HashMap<>();
+    /** Scratch list for messages whose timers fired. */
+    private final List<Message> due = new ArrayList<>();
+
+    QueuePartition(int index, ReadyQueue ready) {
+        this.index = index;
+        this.ready = ready;
+    }
+
+    /** Park a message until visibleFrom has passed, matching Message.isVisibleAt. */
+    TimingWheel.Timer<Message> schedule(Message msg) {
+        return timers.schedule(msg, msg.getVisibleFrom() + 1);
+    }
+
+    /**
+     * Move every delayed message that is now due and every message whose lease has expired back
+     * to the ready heap; returns how many moved. Expired messages that already used up
+     * maxReceiveCount deliveries go to deadLetters instead (a maxReceiveCount of 0 disables this),
+     * for the caller to move once the lock is released.
+     */
+    int requeueExpired(long nowTime, int maxReceiveCount, List<Message> deadLetters) {
+        timers.advance(nowTime, due);
+        int moved = 0;
+        for (Message msg : due) {
+            // Only leased messages carry a receipt; a delayed one has never been delivered
+            if (msg.getReceiptId() != null && receipts.remove(msg.getReceiptId()) != null) {
+                if (requeue(msg, maxReceiveCount, deadLetters)) {
+                    moved++;
+                }
+            } else {
+                ready.add(msg);
+                moved++;
+            }
+        }
+        due.clear();
+        return moved;
+    }
+
+    /**
+     * Return a message whose lease ended, already removed from the receipt index, to the ready
+     * heap; returns false if it used up maxReceiveCount deliveries and went to deadLetters instead.
+     */
+    boolean requeue(Message msg, int maxReceiveCount, List<Message> deadLetters) {
+        if (maxReceiveCount > 0 && msg.getAttempts() >= maxReceiveCount) {
+            deadLetters.add(msg);
+            return false;
+        }
+        ready.add(msg);
+        return true;
+    }
+
+    /** Nanoseconds until the next timer may fire, or Long.MAX_VALUE if none is pending. */
+    long nanosUntilNextExpiry(long nowTime) {
+        long deadline = timers.nextDeadline();
+        if (deadline == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(deadline - nowTime, 0));
+    }
+}
@@ -0,0 +1,186 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+/**
+ * Wire format shared by QueueServer and RemoteQueueService.
+ *
+ * <p>Every frame is {@code [int length][int requestId][byte code][payload]}, big-endian, where
+ * length covers everything after itself. In a request the code is the operation, in a response it
+ * is the status. Responses carry the id of their request and may come back in any order, so a
+ * client can have many requests outstanding on one connection. Strings are {@code [int length]
+ * [UTF-8 bytes]}, with length -1 for null; durations are millis, with -1 for "not given".
+ *
+ * <p>Payloads by operation (responses after the arrow):
+ * <ul>
+ *   <li>PUSH {@code [queue][priority][body]} → empty</li>
+ *   <li>PUSH_BATCH {@code [queue][priority][int count][body]...} → empty</li>
+ *   <li>PUSH_DEDUPLICATED {@code [queue][priority][body][deduplicationId]} → {@code [byte pushed]}</li>
+ *   <li>PULL {@code [queue][int max][long visibilityTimeout][long waitTime]} → {@code [int count]
+ *       [receiptId][body]...}, each body as {@code [byte flags][int bodyLength][bytes]}: plain
+ *       UTF-8 for flags 0, otherwise compressed as a PackedBody with those flags. Messages that
+ *       would make the response larger than MAX_FRAME_SIZE are released and left out</li>
+ *   <li>DELETE {@code [queue][receiptId]} → empty</li>
+ *   <li>DELETE_BATCH {@code [queue][int count][receiptId]...} → empty</li>
+ *   <li>CHANGE_VISIBILITY {@code [queue][receiptId][long visibilityTimeout]} → {@code [byte changed]}</li>
+ * </ul>
+ * A failed request gets an error status and {@code [message]}.
+ */
+final class QueueProtocol {
+    static final byte PUSH = 1;
+    static final byte PUSH_BATCH = 2;
+    static final byte PUSH_DEDUPLICATED = 3;
+    static final byte PULL = 4;
+    static final byte DELETE = 5;
+    static final byte DELETE_BATCH = 6;
+    static final byte CHANGE_VISIBILITY = 7;
+
+    static final byte OK = 0;
+    /** The request was refused because the queue is full; the client throws QueueFullException. */
+    static final byte QUEUE_FULL = 1;
+    /** The request was malformed or had invalid arguments; the client throws IllegalArgumentException. */
+    static final byte INVALID = 2;
+    static final byte ERROR = 3;
+
+    /** Size of the length, request id and code fields. */
+    static final int HEADER_SIZE = 4 + 4 + 1;
+    /** Largest frame either side accepts; a peer sending more is disconnected. */
+    static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    private QueueProtocol() {
+    }
+
+    /**
+     * Builds one frame in a growable heap buffer; the length is filled in by finish(). Writing past
+     * MAX_FRAME_SIZE throws IllegalArgumentException, so an oversized request fails its own caller
+     * instead of the peer dropping the connection.
+     */
+    static final class FrameWriter {
+        private ByteBuffer buffer;
+
+        FrameWriter(int requestId, byte code) {
+            this(requestId, code, 64);
+        }
+
+        FrameWriter(int requestId, byte code, int sizeHint) {
+            buffer = ByteBuffer.allocate(Math.max(HEADER_SIZE + sizeHint, 64));
+            buffer.putInt(0).putInt(requestId).put(code);
+        }
+
+        FrameWriter putByte(byte value) {
+            ensure(1).put(value);
+            return this;
+        }
+
+        FrameWriter putInt(int value) {
+            ensure(4).putInt(value);
+            return this;
+        }
+
+        FrameWriter putLong(long value) {
+            ensure(8).putLong(value);
+            return this;
+        }
+
+        FrameWriter putString(String value) {
+            if (value == null) {
+                return putInt(-1);
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            ensure(4 + bytes.length).putInt(bytes.length).put(bytes);
+            return this;
+        }
+
+        FrameWriter putBytes(byte[] value) {
+            ensure(4 + value.length).putInt(value.length).put(value);
+            return this;
+        }
+
+        /** The finished frame, flipped for writing. */
+        ByteBuffer finish() {
+            buffer.putInt(0, buffer.position() - 4);
+            return buffer.flip();
+        }
+
+        private ByteBuffer ensure(int bytes) {
+            if ((long) buffer.position() - 4 + bytes > MAX_FRAME_SIZE) {
+                throw new IllegalArgumentException("Frame larger than " + MAX_FRAME_SIZE + " bytes");
+            }
+            if (buffer.remaining() < bytes) {
+                int capacity = Math.max(buffer.capacity() * 2, buffer.position() + bytes);
+                buffer = ByteBuffer.allocate(capacity).put(buffer.flip());
+            }
+            return buffer;
+        }
+    }
+
+    static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length == -1) {
+            return null;
+        }
+        checkLength(length, in);
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    static byte[] readBytes(ByteBuffer in) {
+        int length = in.getInt();
+        checkLength(length, in);
+        byte[] value = new byte[length];
+        in.get(value);
+        return value;
+    }
+
+    private static void checkLength(int length, ByteBuffer in) {
+        if (length < 0 || length > in.remaining()) {
+            throw new IllegalArgumentException("Truncated field: " + length + " bytes declared");
+        }
+    }
+
+    /**
+     * Write a pulled message's body as stored: a compressed body stays compressed, so it is
+     * decompressed only by the consumer.
+     */
+    static void putBody(FrameWriter out, Message message) {
+        PackedBody packed = message.getPackedBody();
+        if (packed == null) {
+            byte[] utf8 = message.getBody().getBytes(StandardCharsets.UTF_8);
+            out.putByte((byte) 0).putInt(utf8.length).putBytes(utf8);
+        } else {
+            packed = packed.inline();
+            out.putByte(packed.flags).putInt(packed.bodyLength).putBytes(packed.data);
+        }
+    }
+
+    /** Bytes a pulled message takes up in a PULL response: its receipt id and its body as putBody writes it. */
+    static long pulledSize(Message message) {
+        PackedBody packed = message.getPackedBody();
+        long body = packed == null ? MessageCodec.utf8Length(message.getBody()) : packed.inline().data.length;
+        return 4 + message.getReceiptId().length() + 1 + 4 + 4 + body;
+    }
+
+    /** Read a body written by putBody into a message that decompresses it when first read. */
+    static Message readMessage(ByteBuffer in, String receiptId) {
+        byte flags = in.get();
+        int bodyLength = in.getInt();
+        byte[] data = readBytes(in);
+        if (flags == 0) {
+            return new Message(new String(data, StandardCharsets.UTF_8), receiptId);
+        }
+        if ((flags & PackedBody.BLOB) != 0) {
+            throw new IllegalArgumentException("Blob reference on the wire");
+        }
+        Message message = new Message(null, receiptId);
+        message.setPackedBody(new PackedBody(flags, bodyLength, data, null));
+        return message;
+    }
+
+    /** Milliseconds for the wire: -1 if not given. */
+    static long millis(Duration duration) {
+        return duration == null ? -1 : duration.toMillis();
+    }
+}
@@ -0,0 +1,324 @@
+package org.example;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Flow.Publisher view of one queue, for streaming pipelines. Works over any QueueService.
+ *
+ * <p>Each subscription has its own virtual thread that leases messages only when the subscriber
+ * has signalled demand, in batches of up to MAX_BATCH, and hands them to onNext at once, so no
+ * leased message waits in a buffer. Subscribers acknowledge a message with {@link #ack}, which
+ * deletes it, or hand it back with {@link #nack}. A subscription stops leasing while
+ * maxUnacked of its messages are delivered but neither acknowledged nor expired, so a subscriber
+ * that falls behind holds back leasing instead of letting leases run out unprocessed.
+ *
+ * <p>Messages that are never acknowledged become visible again when their lease expires. After
+ * close(), subscribers receive onComplete; unacknowledged messages can still be acknowledged.
+ * Requires Java 21.
+ */
+public class QueuePublisher implements Flow.Publisher<Message>, AutoCloseable {
+    private static final int DEFAULT_MAX_UNACKED = 100;
+    private static final Duration DEFAULT_VISIBILITY_TIMEOUT = Duration.ofSeconds(30);
+
+    /** Most messages leased per pull. */
+    private static final int MAX_BATCH = 10;
+    /** How long a subscription long-polls an empty queue before checking for cancellation. */
+    private static final Duration IDLE_WAIT = Duration.ofSeconds(1);
+
+    private final QueueService service;
+    private final String queueUrl;
+    private final Duration visibilityTimeout;
+    private final int maxUnacked;
+
+    /** Delivered, unacknowledged messages by receipt, mapped to the subscription they count against. */
+    private final Map<String, QueueSubscription> unacked = new ConcurrentHashMap<>();
+    private final Set<QueueSubscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    public QueuePublisher(QueueService service, String queueUrl) {
+        this(service, queueUrl, DEFAULT_VISIBILITY_TIMEOUT, DEFAULT_MAX_UNACKED);
+    }
+
+    /**
+     * @param visibilityTimeout lease length of delivered messages; the time a subscriber has to ack
+     * @param maxUnacked        most unacknowledged messages per subscription
+     */
+    public QueuePublisher(QueueService service, String queueUrl, Duration visibilityTimeout, int maxUnacked) {
+        if (maxUnacked < 1) {
+            throw new IllegalArgumentException("maxUnacked must be at least 1: " + maxUnacked);
+        }
+        this.service = service;
+        this.queueUrl = queueUrl;
+        this.visibilityTimeout = visibilityTimeout;
+        this.maxUnacked = maxUnacked;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Message> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber");
+        QueueSubscription subscription = new QueueSubscription(subscriber);
+        subscriptions.add(subscription);
+        Thread.ofVirtual().name("publisher-" + queueUrl).start(subscription::run);
+    }
+
+    /** Acknowledge a delivered message: delete it from the queue. */
+    public void ack(Message message) {
+        settle(message);
+        service.delete(queueUrl, message.getReceiptId());
+    }
+
+    /** Give a delivered message back: make it visible again right away. */
+    public void nack(Message message) {
+        settle(message);
+        service.changeVisibility(queueUrl, message.getReceiptId(), Duration.ZERO);
+    }
+
+    private void settle(Message message) {
+        QueueSubscription subscription = unacked.remove(message.getReceiptId());
+        if (subscription != null) {
+            subscription.settled(message.getReceiptId());
+        }
+    }
+
+    /**
+     * Stop leasing and complete every subscription.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (QueueSubscription subscription : subscriptions) {
+            subscription.stop();
+        }
+    }
+
+    private final class QueueSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super Message> subscriber;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        /** Outstanding demand, guarded by lock. */
+        private long demand;
+        /** Lease deadlines (epoch millis) of unacknowledged messages by receipt, guarded by lock. */
+        private final Map<String, Long> leases = new HashMap<>();
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+        private volatile Thread thread;
+        /**
+         * Whether the thread is in a long-poll that wake() may interrupt, guarded by lock. The same
+         * thread runs onNext, which must never see an interrupt meant for the poll.
+         */
+        private boolean polling;
+
+        QueueSubscription(Flow.Subscriber<? super Message> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            lock.lock();
+            try {
+                if (n <= 0) {
+                    invalidRequest = new IllegalArgumentException("request must be positive: " + n);
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n; // saturate, as the spec asks
+                }
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            wake();
+        }
+
+        /** Cancel on behalf of close(), so the loop signals onComplete. */
+        void stop() {
+            wake();
+        }
+
+        void settled(String receiptId) {
+            lock.lock();
+            try {
+                leases.remove(receiptId);
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void wake() {
+            lock.lock();
+            try {
+                changed.signalAll();
+                if (polling) {
+                    thread.interrupt(); // cut the long-poll short
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean done() {
+            return cancelled || closed || invalidRequest != null;
+        }
+
+        void run() {
+            thread = Thread.currentThread();
+            try {
+                subscriber.onSubscribe(this);
+                while (!done()) {
+                    int max = awaitCapacity();
+                    if (max > 0) {
+                        deliver(lease(max));
+                    }
+                }
+                if (invalidRequest != null) {
+                    subscriber.onError(invalidRequest);
+                } else if (!cancelled) {
+                    subscriber.onComplete();
+                }
+            } catch (Throwable t) {
+                t.printStackTrace(); // a subscriber that throws is treated as cancelled
+            } finally {
+                subscriptions.remove(this);
+            }
+        }
+
+        /**
+         * Wait until the subscriber has demand and fewer than maxUnacked live leases, and return
+         * how many messages to lease; 0 if the subscription ended or the wait was cut short.
+         */
+        private int awaitCapacity() {
+            lock.lock();
+            try {
+                long now = System.currentTimeMillis();
+                long nextExpiry = Long.MAX_VALUE;
+                Iterator<Map.Entry<String, Long>> it = leases.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<String, Long> lease = it.next();
+                    if (lease.getValue() <= now) {
+                        it.remove(); // expired: the message is back on the queue, not ours any more
+                        unacked.remove(lease.getKey(), this);
+                    } else {
+                        nextExpiry = Math.min(nextExpiry, lease.getValue());
+                    }
+                }
+                int room = maxUnacked - leases.size();
+                if (demand > 0 && room > 0) {
+                    return (int) Math.min(Math.min(demand, room), MAX_BATCH);
+                }
+                if (nextExpiry == Long.MAX_VALUE) {
+                    changed.await();
+                } else {
+                    changed.await(nextExpiry - now, TimeUnit.MILLISECONDS);
+                }
+                return 0;
+            } catch (InterruptedException e) {
+                return 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private List<Message> lease(int max) {
+            try {
+                List<Message> messages = service.pull(queueUrl, max, visibilityTimeout);
+                if (!messages.isEmpty()) {
+                    return messages;
+                }
+                // Queue is idle: long-poll for one message, then give it our lease length
+                Message message = longPoll();
+                if (message == null
+                        || !service.changeVisibility(queueUrl, message.getReceiptId(), visibilityTimeout)) {
+                    return List.of();
+                }
+                return List.of(message);
+            } catch (RuntimeException e) {
+                if (!done()) {
+                    e.printStackTrace(); // log error and retry after a pause
+                    sleep(IDLE_WAIT);
+                }
+                return List.of();
+            }
+        }
+
+        /** Wait up to IDLE_WAIT for one message; cancel and close interrupt only this wait. */
+        private Message longPoll() {
+            lock.lock();
+            try {
+                if (done()) {
+                    return null;
+                }
+                polling = true;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                return service.pull(queueUrl, IDLE_WAIT);
+            } finally {
+                lock.lock();
+                try {
+                    polling = false;
+                } finally {
+                    lock.unlock();
+                }
+                Thread.interrupted(); // a wake-up meant for the long-poll
+            }
+        }
+
+        private void deliver(List<Message> messages) {
+            long deadline = System.currentTimeMillis() + visibilityTimeout.toMillis();
+            for (Message message : messages) {
+                if (done()) {
+                    release(message);
+                    continue;
+                }
+                lock.lock();
+                try {
+                    demand--;
+                    leases.put(message.getReceiptId(), deadline);
+                } finally {
+                    lock.unlock();
+                }
+                unacked.put(message.getReceiptId(), this);
+                subscriber.onNext(message);
+            }
+        }
+
+        /** Not handed out: release it for other consumers. */
+        private void release(Message message) {
+            Thread.interrupted(); // an interrupt from subscriber code must not fail the release
+            try {
+                service.changeVisibility(queueUrl, message.getReceiptId(), Duration.ZERO);
+            } catch (RuntimeException e) {
+                e.printStackTrace(); // the lease still expires on its own
+            }
+        }
+
+        private void sleep(Duration pause) {
+            lock.lock();
+            try {
+                if (!done()) {
+                    changed.await(pause.toMillis(), TimeUnit.MILLISECONDS); // woken by cancel or close
+                }
+            } catch (InterruptedException e) {
+                // the loop checks done()
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,438 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serves an InMemoryPriorityQueueService over TCP, so services on other hosts share its queues.
+ * Clients use {@link RemoteQueueService}; the wire format is described in {@link QueueProtocol}.
+ *
+ * <p>One selector thread accepts connections and reads request frames. Requests that never wait
+ * run right there. The rest run on their own virtual thread, because a push may wait for room or
+ * for the log to be forced and a pull may long-poll, and must not hold up the other requests on
+ * the connection. A response is written straight to the socket if nothing is queued ahead of it;
+ * otherwise the selector thread writes it once the socket has room. Responses can therefore leave out of order,
+ * and a client can pipeline requests over one connection. A connection with MAX_IN_FLIGHT
+ * requests running is not read from until some finish, so a flood from one client cannot pile up
+ * unbounded work.
+ *
+ * <p>Requires Java 21.
+ */
+public class QueueServer implements Closeable {
+    static final int DEFAULT_PORT = 7380;
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    /** Requests a connection may have running before the server stops reading from it. */
+    private static final int MAX_IN_FLIGHT = 1_024;
+
+    private final InMemoryPriorityQueueService service;
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final int port;
+    private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+    /** Connections whose interest set must be recomputed by the selector thread. */
+    private final Queue<Connection> updates = new ConcurrentLinkedQueue<>();
+    private final Thread selectorThread;
+    private volatile boolean closed;
+
+    public QueueServer(InMemoryPriorityQueueService service, int port) throws IOException {
+        this(service, new InetSocketAddress(port));
+    }
+
+    /** Bind to address and start serving; port 0 picks a free port, see {@link #getPort()}. */
+    public QueueServer(InMemoryPriorityQueueService service, InetSocketAddress address) throws IOException {
+        this.service = service;
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        try {
+            server.bind(address);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+        this.port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+        this.selectorThread = new Thread(this::selectLoop, "queue-server-" + port);
+        selectorThread.start();
+    }
+
+    /**
+     * Run a standalone server: {@code QueueServer [port] [dataDir]}. With a data directory the
+     * queues are persistent.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        InMemoryPriorityQueueService service = args.length > 1
+                ? new InMemoryPriorityQueueService(Path.of(args[1]))
+                : new InMemoryPriorityQueueService();
+        QueueServer server = new QueueServer(service, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                service.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }));
+        System.out.println("Queue server listening on port " + server.getPort());
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    private void selectLoop() {
+        try {
+            while (!closed) {
+                selector.select();
+                Connection changed;
+                while ((changed = updates.poll()) != null) {
+                    changed.resume();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        connection.close(); // peer went away or broke the protocol
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                e.printStackTrace();
+            }
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection connection) {
+                    connection.close();
+                }
+            }
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+    }
+
+    /**
+     * Stop accepting, drop all connections and interrupt running requests; long-polls end
+     * without a response.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+        try {
+            selectorThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdownNow();
+    }
+
+    /** Run one request and encode its response. */
+    private ByteBuffer execute(int requestId, byte op, ByteBuffer in) {
+        String queueUrl = QueueProtocol.readString(in);
+        QueueProtocol.FrameWriter out = new QueueProtocol.FrameWriter(requestId, QueueProtocol.OK);
+        switch (op) {
+            case QueueProtocol.PUSH -> {
+                int priority = in.getInt();
+                service.push(queueUrl, QueueProtocol.readString(in), priority);
+            }
+            case QueueProtocol.PUSH_BATCH -> {
+                int priority = in.getInt();
+                service.pushBatch(queueUrl, readStrings(in), priority);
+            }
+            case QueueProtocol.PUSH_DEDUPLICATED -> {
+                int priority = in.getInt();
+                String body = QueueProtocol.readString(in);
+                String deduplicationId = QueueProtocol.readString(in);
+                out.putByte(service.pushDeduplicated(queueUrl, body, priority, deduplicationId) ? (byte) 1 : 0);
+            }
+            case QueueProtocol.PULL -> {
+                int max = in.getInt();
+                long visibilityTimeout = in.getLong();
+                long waitTime = in.getLong();
+                List<Message> messages;
+                if (waitTime >= 0) {
+                    Message message = service.pull(queueUrl, Duration.ofMillis(waitTime));
+                    messages = message == null ? List.of() : List.of(message);
+                } else if (visibilityTimeout >= 0) {
+                    messages = service.pull(queueUrl, max, Duration.ofMillis(visibilityTimeout));
+                } else {
+                    messages = service.pull(queueUrl, max);
+                }
+                // Stop before the response outgrows a frame and give the rest back to the queue
+                int fits = 0;
+                long length = QueueProtocol.HEADER_SIZE - 4 + 4;
+                while (fits < messages.size()
+                        && (length += QueueProtocol.pulledSize(messages.get(fits))) <= QueueProtocol.MAX_FRAME_SIZE) {
+                    fits++;
+                }
+                for (Message message : messages.subList(fits, messages.size())) {
+                    service.changeVisibility(queueUrl, message.getReceiptId(), Duration.ZERO);
+                }
+                if (fits == 0 && !messages.isEmpty()) {
+                    throw new IllegalStateException("Message too large for a response frame");
+                }
+                out.putInt(fits);
+                for (Message message : messages.subList(0, fits)) {
+                    QueueProtocol.putBody(out.putString(message.getReceiptId()), message);
+                }
+            }
+            case QueueProtocol.DELETE -> service.delete(queueUrl, QueueProtocol.readString(in));
+            case QueueProtocol.DELETE_BATCH -> service.deleteBatch(queueUrl, readStrings(in));
+            case QueueProtocol.CHANGE_VISIBILITY -> {
+                String receiptId = QueueProtocol.readString(in);
+                Duration visibilityTimeout = Duration.ofMillis(in.getLong());
+                out.putByte(service.changeVisibility(queueUrl, receiptId, visibilityTimeout) ? (byte) 1 : 0);
+            }
+            default -> throw new IllegalArgumentException("Unknown operation: " + op);
+        }
+        return out.finish();
+    }
+
+    /**
+     * Whether a request never waits, so the selector thread can run it and skip the hand-off:
+     * deletes and visibility changes, and pulls that do not long-poll, as long as the service
+     * keeps them in memory. With a log they can dead-letter messages, which waits for the log,
+     * with a blob store they read or delete files, and a strict-priority pull takes every
+     * partition lock; all of those are handed off.
+     */
+    private boolean runsInline(byte op, byte[] payload) {
+        if (!service.isMemoryOnly()) {
+            return false;
+        }
+        return switch (op) {
+            case QueueProtocol.DELETE, QueueProtocol.DELETE_BATCH, QueueProtocol.CHANGE_VISIBILITY -> true;
+            case QueueProtocol.PULL -> payload.length >= 8
+                    && ByteBuffer.wrap(payload).getLong(payload.length - 8) < 0; // waitTime is last
+            default -> false;
+        };
+    }
+
+    private static List<String> readStrings(ByteBuffer in) {
+        int count = in.getInt();
+        if (count < 0 || count > in.remaining() / 4) {
+            throw new IllegalArgumentException("Bad count: " + count);
+        }
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(QueueProtocol.readString(in));
+        }
+        return values;
+    }
+
+    private static ByteBuffer error(int requestId, byte status, Exception e) {
+        return new QueueProtocol.FrameWriter(requestId, status).putString(String.valueOf(e.getMessage())).finish();
+    }
+
+    private final class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        /** Bytes read but not yet dispatched, in write mode; used by the selector thread only. */
+        private ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private final ReentrantLock writeLock = new ReentrantLock();
+        /** Responses not yet fully written, guarded by writeLock. */
+        private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        private volatile boolean closed;
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        void read() throws IOException {
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+            dispatch();
+        }
+
+        /** Hand every complete frame to a worker, up to the in-flight limit. */
+        private void dispatch() throws IOException {
+            in.flip();
+            while (inFlight.get() < MAX_IN_FLIGHT && in.remaining() >= 4) {
+                int length = in.getInt(in.position());
+                if (length < QueueProtocol.HEADER_SIZE - 4 || length > QueueProtocol.MAX_FRAME_SIZE) {
+                    throw new IOException("Bad frame length: " + length);
+                }
+                if (in.remaining() < 4 + length) {
+                    break;
+                }
+                in.getInt();
+                int requestId = in.getInt();
+                byte op = in.get();
+                byte[] payload = new byte[length - (QueueProtocol.HEADER_SIZE - 4)];
+                in.get(payload);
+                inFlight.incrementAndGet();
+                if (runsInline(op, payload)) {
+                    handle(requestId, op, ByteBuffer.wrap(payload));
+                } else {
+                    workers.execute(() -> handle(requestId, op, ByteBuffer.wrap(payload)));
+                }
+            }
+            in.compact();
+            int needed = in.position() >= 4 ? 4 + in.getInt(0) : 0;
+            if (needed > in.capacity()) {
+                in = ByteBuffer.allocate(needed).put(in.flip()); // room for one large frame
+            } else if (in.capacity() > READ_BUFFER_SIZE && Math.max(needed, in.position()) <= READ_BUFFER_SIZE) {
+                in = ByteBuffer.allocate(READ_BUFFER_SIZE).put(in.flip()); // large frame served: give it back
+            }
+            updateInterest();
+        }
+
+        private void handle(int requestId, byte op, ByteBuffer payload) {
+            ByteBuffer response;
+            try {
+                response = execute(requestId, op, payload);
+            } catch (QueueFullException e) {
+                response = error(requestId, QueueProtocol.QUEUE_FULL, e);
+            } catch (IllegalArgumentException | BufferUnderflowException e) {
+                response = error(requestId, QueueProtocol.INVALID, e);
+            } catch (RuntimeException e) {
+                response = error(requestId, QueueProtocol.ERROR, e);
+            }
+            respond(response);
+        }
+
+        /** Write a response from a worker thread, leaving what the socket cannot take to the selector. */
+        private void respond(ByteBuffer response) {
+            boolean pending;
+            writeLock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                out.add(response);
+                if (out.size() == 1) {
+                    writePending();
+                }
+                pending = !out.isEmpty();
+            } catch (IOException e) {
+                pending = false;
+                close();
+            } finally {
+                writeLock.unlock();
+            }
+            boolean unpaused = inFlight.getAndDecrement() == MAX_IN_FLIGHT;
+            if (pending || unpaused) {
+                updates.add(this);
+                selector.wakeup();
+            }
+        }
+
+        void flush() throws IOException {
+            writeLock.lock();
+            try {
+                writePending();
+            } finally {
+                writeLock.unlock();
+            }
+            updateInterest();
+        }
+
+        /** Gather-write queued responses until done or the socket is full. Caller holds writeLock. */
+        private void writePending() throws IOException {
+            while (!out.isEmpty()) {
+                if (channel.write(out.toArray(new ByteBuffer[0])) == 0) {
+                    return;
+                }
+                while (!out.isEmpty() && !out.peek().hasRemaining()) {
+                    out.poll();
+                }
+            }
+        }
+
+        /** On the selector thread: dispatch frames held back by the in-flight limit, then re-arm. */
+        void resume() {
+            if (closed) {
+                return;
+            }
+            try {
+                dispatch();
+            } catch (IOException | RuntimeException e) {
+                close();
+            }
+        }
+
+        private void updateInterest() {
+            if (closed) {
+                return;
+            }
+            int ops = inFlight.get() < MAX_IN_FLIGHT ? SelectionKey.OP_READ : 0;
+            writeLock.lock();
+            try {
+                if (!out.isEmpty()) {
+                    ops |= SelectionKey.OP_WRITE;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+            key.interestOps(ops);
+        }
+
+        void close() {
+            closed = true;
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // already gone
+            }
+        }
+    }
+}
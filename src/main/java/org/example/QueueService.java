@@ -1,12 +1,36 @@
 package org.example;
 
+import java.time.Duration;
+import java.util.List;
+
 public interface QueueService {
     /** push a message onto a queue. */
     public void push(String queueUrl, String messageBody);
 
+    /** push a message unless one with the same deduplicationId (or, if null, the same body) was pushed within the queue's deduplication window; false if skipped as a duplicate. */
+    public boolean pushDeduplicated(String queueUrl, String messageBody, String deduplicationId);
+
     /** retrieves a single message from a queue. */
     public Message pull(String queueUrl);
 
+    /** retrieves a single message, waiting up to waitTime for one to become visible; null on timeout. */
+    public Message pull(String queueUrl, Duration waitTime);
+
     /** deletes a message from the queue that was received by pull(). */
     public void delete(String queueUrl, String receiptId);
-}
\ No newline at end of file
+
+    /** push several messages onto a queue in a single operation. */
+    public void pushBatch(String queueUrl, List<String> messageBodies);
+
+    /** retrieves up to maxMessages messages from a queue; empty if none are visible. */
+    public List<Message> pull(String queueUrl, int maxMessages);
+
+    /** deletes several messages received by pull() in a single operation. */
+    public void deleteBatch(String queueUrl, List<String> receiptIds);
+
+    /** retrieves up to maxMessages messages, keeping them invisible for visibilityTimeout instead of the queue's default. */
+    public List<Message> pull(String queueUrl, int maxMessages, Duration visibilityTimeout);
+
+    /** restarts the lease of a pulled message so it stays invisible for visibilityTimeout from now; false if the lease was lost. */
+    public boolean changeVisibility(String queueUrl, String receiptId, Duration visibilityTimeout);
+}
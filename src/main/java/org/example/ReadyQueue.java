@@ -0,0 +1,121 @@
+package org.example;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * The visible messages of a QueuePartition, ordered for delivery: higher priority first, then
+ * lower sequence, i.e. earlier push. Sequences are unique per queue, so the order is strict.
+ * Implementations are not thread-safe; the partition lock guards them.
+ */
+interface ReadyQueue {
+
+    /** Delivery order of two messages, compared on primitives without boxing or key extractors. */
+    Comparator<Message> DELIVERY_ORDER = new Comparator<Message>() {
+        @Override
+        public int compare(Message a, Message b) {
+            return ReadyQueue.compare(a.getPriority(), a.getSequence(), b.getPriority(), b.getSequence());
+        }
+    };
+
+    /** Negative if (priority1, sequence1) is delivered before (priority2, sequence2). */
+    static int compare(int priority1, long sequence1, int priority2, long sequence2) {
+        if (priority1 != priority2) {
+            return priority1 > priority2 ? -1 : 1;
+        }
+        return Long.compare(sequence1, sequence2);
+    }
+
+    void add(Message msg);
+
+    /** Remove and return the next message to deliver, or null if empty. */
+    Message poll();
+
+    int size();
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /** Priority of the next message; only meaningful when not empty. */
+    int headPriority();
+
+    /** Sequence of the next message; only meaningful when not empty. */
+    long headSequence();
+
+    /** createdAt of the next message; only meaningful when not empty. */
+    long headCreatedAt();
+
+    /**
+     * Priority of the message that would be delivered last; only meaningful when not empty. Takes
+     * a scan of the queue, as does pollLast; both are only used when shedding load.
+     */
+    int lastPriority();
+
+    /** Remove and return the message that would be delivered last, or null if empty. */
+    Message pollLast();
+
+    /** Negative if this queue's head should be delivered before other's. Both must be non-empty. */
+    default int compareHeads(ReadyQueue other) {
+        return compare(headPriority(), headSequence(), other.headPriority(), other.headSequence());
+    }
+
+    /** The default: a binary heap of Message objects. */
+    final class OnHeap implements ReadyQueue {
+        private final PriorityQueue<Message> heap = new PriorityQueue<>(11, DELIVERY_ORDER);
+
+        @Override
+        public void add(Message msg) {
+            heap.add(msg);
+        }
+
+        @Override
+        public Message poll() {
+            return heap.poll();
+        }
+
+        @Override
+        public int size() {
+            return heap.size();
+        }
+
+        @Override
+        public int headPriority() {
+            return heap.peek().getPriority();
+        }
+
+        @Override
+        public long headSequence() {
+            return heap.peek().getSequence();
+        }
+
+        @Override
+        public long headCreatedAt() {
+            return heap.peek().getCreatedAt();
+        }
+
+        @Override
+        public int lastPriority() {
+            return last().getPriority();
+        }
+
+        @Override
+        public Message pollLast() {
+            Message last = last();
+            if (last != null) {
+                heap.remove(last);
+            }
+            return last;
+        }
+
+        private Message last() {
+            Message last = null;
+            for (Message msg : heap) {
+                if (last == null || DELIVERY_ORDER.compare(msg, last) > 0) {
+                    last = msg;
+                }
+            }
+            return last;
+        }
+    }
+}
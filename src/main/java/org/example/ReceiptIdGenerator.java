@@ -0,0 +1,21 @@
+package org.example;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates compact receipt handles: a random per-instance prefix followed by a base-36 counter.
+ * Unlike UUID.randomUUID() this never touches SecureRandom, and the handles stay short.
+ */
+final class ReceiptIdGenerator {
+    private final String prefix;
+    private final AtomicLong counter = new AtomicLong();
+
+    ReceiptIdGenerator() {
+        this.prefix = Long.toString(ThreadLocalRandom.current().nextLong() >>> 1, 36) + "-";
+    }
+
+    String next() {
+        return prefix + Long.toString(counter.incrementAndGet(), 36);
+    }
+}
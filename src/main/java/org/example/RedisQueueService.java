@@ -4,22 +4,57 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * Redis-backed QueueService implementation using Upstash REST API.
+ *
+ * <p>Every operation is a single atomic Lua script (see {@link RedisScripts}): pull moves expired
+ * leases back, pops the highest-priority messages and records their leases in one EVAL, so a crash
+ * can no longer lose a message between the pop and the in-flight write.
  */
 public class RedisQueueService implements QueueService {
 
-    private static final String UPSTASH_URL = System.getenv("UPSTASH_REDIS_REST_URL");
-    private static final String TOKEN = System.getenv("UPSTASH_REDIS_REST_TOKEN");
+    static final String UPSTASH_URL = System.getenv("UPSTASH_REDIS_REST_URL");
+    static final String TOKEN = System.getenv("UPSTASH_REDIS_REST_TOKEN");
 
-    private static final long VISIBILITY_TIMEOUT_MS = 30_000; // 30 seconds
+    static final long VISIBILITY_TIMEOUT_MS = 30_000; // 30 seconds
+
+    static final long DEDUPLICATION_WINDOW_MS = 300_000; // 5 minutes
+
+    /** Longest single BLPOP while long-polling, so expired leases are picked up promptly. */
+    private static final long LONG_POLL_SLICE_MS = 1_000;
+
+    /** Shared with AsyncRedisQueueService; ObjectMapper is thread-safe once configured. */
+    static final ObjectMapper MAPPER = new ObjectMapper();
 
     private final HttpClient client;
-    private final ObjectMapper objectMapper;
+    private final URI endpoint;
+    private final String token;
+    private final ReceiptIdGenerator receiptIds = new ReceiptIdGenerator();
+
+    /** Queues this client has touched; swept by requeueExpiredMessages(). */
+    private final Set<String> knownQueues = ConcurrentHashMap.newKeySet();
+    /** Lease length per queue in millis, for queues that do not use VISIBILITY_TIMEOUT_MS. */
+    private final Map<String, Long> visibilityTimeouts = new ConcurrentHashMap<>();
+    /** Deduplication window per queue in millis, for queues that do not use DEDUPLICATION_WINDOW_MS. */
+    private final Map<String, Long> deduplicationWindows = new ConcurrentHashMap<>();
+    /** Compression threshold per queue in UTF-8 bytes; queues without one are not compressed. */
+    private final Map<String, Long> compressionThresholds = new ConcurrentHashMap<>();
+    /** Client-side counters and latencies per queue. */
+    private final Map<String, QueueMetrics> metrics = new ConcurrentHashMap<>();
+
+    /** Messages moved per REDRIVE call. */
+    private static final int REDRIVE_BATCH = 1_000;
 
     /** Default constructor (production) */
     public RedisQueueService() {
@@ -28,118 +63,442 @@ public class RedisQueueService implements QueueService {
 
     /** Constructor for injecting custom HttpClient (useful for tests) */
     public RedisQueueService(HttpClient client) {
+        this(client, UPSTASH_URL, TOKEN);
+    }
+
+    /** Constructor for pointing at another Upstash-compatible endpoint, e.g. a local REST proxy */
+    public RedisQueueService(HttpClient client, String url, String token) {
         this.client = client;
-        this.objectMapper = new ObjectMapper();
+        this.endpoint = url == null ? null : URI.create(url);
+        this.token = token;
     }
 
     @Override
     public void push(String queueUrl, String messageBody) {
+        push(queueUrl, messageBody, 0); // default priority 0
+    }
+
+    /**
+     * Push message with explicit priority (higher number = higher priority)
+     */
+    public void push(String queueUrl, String messageBody, int priority) {
+        pushBatch(queueUrl, List.of(messageBody), priority);
+    }
+
+    @Override
+    public boolean pushDeduplicated(String queueUrl, String messageBody, String deduplicationId) {
+        return pushDeduplicated(queueUrl, messageBody, 0, deduplicationId);
+    }
+
+    /**
+     * Push a message unless one with the same deduplicationId, or the same body if it is null, was
+     * pushed to queueUrl within the deduplication window. The check and the push are one script,
+     * so concurrent producers retrying the same message cannot both get through.
+     */
+    public boolean pushDeduplicated(String queueUrl, String messageBody, int priority, String deduplicationId) {
+        knownQueues.add(queueUrl);
+        String id = deduplicationId != null ? deduplicationId : DeduplicationCache.contentId(messageBody);
+        long window = deduplicationWindows.getOrDefault(queueUrl, DEDUPLICATION_WINDOW_MS);
+        long start = System.nanoTime();
+        JsonNode pushed;
         try {
-            Message message = new Message(messageBody, 0); // default priority 0
-            String payload = objectMapper.writeValueAsString(message);
-
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(UPSTASH_URL + "/lpush/" + queueUrl))
-                    .header("Authorization", "Bearer " + TOKEN)
-                    .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString("[\"" + payload + "\"]")) // LPUSH expects an array
-                    .build();
-
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-            if (response.statusCode() != 200) {
-                throw new RuntimeException("Failed to push message: " + response.body());
-            }
+            List<String> args = new ArrayList<>(pushArgs(List.of(messageBody), priority, compressionThreshold(queueUrl)));
+            args.add(2, Long.toString(window));
+            pushed = eval(RedisScripts.PUSH_DEDUP, RedisScripts.pushDedupKeys(queueUrl, id), args);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
+        QueueMetrics queueMetrics = metrics(queueUrl);
+        if (pushed == null || pushed.asInt() == 0) {
+            queueMetrics.deduplicated.increment();
+            return false;
+        }
+        queueMetrics.pushed.increment();
+        queueMetrics.pushLatency.record(System.nanoTime() - start);
+        return true;
+    }
+
+    @Override
+    public void pushBatch(String queueUrl, List<String> messageBodies) {
+        pushBatch(queueUrl, messageBodies, 0);
+    }
+
+    /**
+     * Push several messages with the same priority in one EVAL
+     */
+    public void pushBatch(String queueUrl, List<String> messageBodies, int priority) {
+        if (messageBodies.isEmpty()) {
+            return;
+        }
+        knownQueues.add(queueUrl);
+        long start = System.nanoTime();
+        try {
+            eval(RedisScripts.PUSH, RedisScripts.pushKeys(queueUrl), pushArgs(messageBodies, priority, compressionThreshold(queueUrl)));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        QueueMetrics queueMetrics = metrics(queueUrl);
+        queueMetrics.pushed.add(messageBodies.size());
+        queueMetrics.pushLatency.record(System.nanoTime() - start);
     }
 
     @Override
     public Message pull(String queueUrl) {
+        List<Message> messages = pull(queueUrl, 1);
+        return messages.isEmpty() ? null : messages.get(0);
+    }
+
+    @Override
+    public List<Message> pull(String queueUrl, int maxMessages) {
+        return pull(queueUrl, maxMessages, visibilityTimeouts.getOrDefault(queueUrl, VISIBILITY_TIMEOUT_MS));
+    }
+
+    @Override
+    public List<Message> pull(String queueUrl, int maxMessages, Duration visibilityTimeout) {
+        return pull(queueUrl, maxMessages, visibilityTimeout.toMillis());
+    }
+
+    private List<Message> pull(String queueUrl, int maxMessages, long leaseMillis) {
+        if (maxMessages <= 0) {
+            return Collections.emptyList();
+        }
+        knownQueues.add(queueUrl);
+        long start = System.nanoTime();
+        List<Message> messages;
         try {
-            // Pop from Redis list
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(UPSTASH_URL + "/rpop/" + queueUrl))
-                    .header("Authorization", "Bearer " + TOKEN)
-                    .GET()
-                    .build();
+            long now = System.currentTimeMillis();
+            JsonNode leased = eval(RedisScripts.PULL, RedisScripts.requeueKeys(queueUrl),
+                    pullArgs(now, now + leaseMillis, maxMessages, receiptIds.next()));
+            messages = decodeLeased(leased, now + leaseMillis);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+
+        QueueMetrics queueMetrics = metrics(queueUrl);
+        queueMetrics.delivered.add(messages.size());
+        for (Message message : messages) {
+            if (message.getAttempts() > 1) {
+                queueMetrics.redelivered.increment();
+            }
+        }
+        queueMetrics.pullLatency.record(System.nanoTime() - start);
+        return messages;
+    }
 
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+    /**
+     * Long-polling pull: between pull attempts the consumer blocks in BLPOP on the queue's signal
+     * list, which every push appends to, so an idle consumer costs one request per slice.
+     */
+    @Override
+    public Message pull(String queueUrl, Duration waitTime) {
+        long deadline = System.nanoTime() + waitTime.toNanos();
+        while (true) {
+            Message message = pull(queueUrl);
+            if (message != null) {
+                return message;
+            }
 
-            if (response.statusCode() != 200 || response.body().equals("null")) {
+            long remainingMs = (deadline - System.nanoTime()) / 1_000_000;
+            if (remainingMs <= 0) {
                 return null;
             }
+            try {
+                String timeoutSeconds = Double.toString(Math.min(remainingMs, LONG_POLL_SLICE_MS) / 1000.0);
+                execute(List.of("BLPOP", RedisScripts.signal(queueUrl), timeoutSeconds));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @Override
+    public void delete(String queueUrl, String receiptId) {
+        deleteBatch(queueUrl, List.of(receiptId));
+    }
 
-            // Deserialize message
-            Message message = objectMapper.readValue(response.body(), Message.class);
-            message.incrementAttempts();
-            message.setReceiptId(UUID.randomUUID().toString());
-            message.setVisibleFrom(System.currentTimeMillis() + VISIBILITY_TIMEOUT_MS);
-
-            // Store in inflight map for delete()
-            String tempPayload = objectMapper.writeValueAsString(message);
-            HttpRequest storeRequest = HttpRequest.newBuilder()
-                    .uri(URI.create(UPSTASH_URL + "/hset/inflight " + message.getReceiptId() + " '" + tempPayload + "'"))
-                    .header("Authorization", "Bearer " + TOKEN)
-                    .POST(HttpRequest.BodyPublishers.noBody())
-                    .build();
-            client.send(storeRequest, HttpResponse.BodyHandlers.ofString());
-
-            return message;
+    @Override
+    public void deleteBatch(String queueUrl, List<String> receiptIds) {
+        if (receiptIds.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        JsonNode deleted;
+        try {
+            deleted = eval(RedisScripts.DELETE, RedisScripts.leaseKeys(queueUrl), receiptIds);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
+
+        QueueMetrics queueMetrics = metrics(queueUrl);
+        if (deleted != null && deleted.isArray()) {
+            long now = System.currentTimeMillis();
+            for (int i = 0; i + 1 < deleted.size(); i += 2) {
+                long createdAt = createdAtOf(deleted.get(i).asText());
+                queueMetrics.recordDelete(now, createdAt < 0 ? now : createdAt, deleted.get(i + 1).asInt());
+            }
+        }
+        queueMetrics.deleteLatency.record(System.nanoTime() - start);
     }
 
-    @Override
-    public void delete(String queueUrl, String receiptId) {
+    /**
+     * Live counters and latency histograms of a queue, as seen by this client.
+     */
+    public QueueMetrics metrics(String queueUrl) {
+        return metrics.computeIfAbsent(queueUrl, q -> new QueueMetrics());
+    }
+
+    /**
+     * Current depth, in-flight count and head age of a queue, from ZCARD and the head member in
+     * one script call. Delayed delivery is not supported by this backend, so delayed is always 0.
+     */
+    public QueueMetrics.Gauges gauges(String queueUrl) {
         try {
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(UPSTASH_URL + "/hdel/inflight " + receiptId))
-                    .header("Authorization", "Bearer " + TOKEN)
-                    .POST(HttpRequest.BodyPublishers.noBody())
-                    .build();
+            JsonNode gauges = eval(RedisScripts.GAUGES, RedisScripts.leaseKeys(queueUrl), List.of());
+            long createdAt = gauges.get(2).isNull() ? -1 : createdAtOf(gauges.get(2).asText());
+            long age = createdAt < 0 ? 0 : Math.max(System.currentTimeMillis() - createdAt, 0);
+            return new QueueMetrics.Gauges(gauges.get(0).asLong(), gauges.get(1).asLong(), 0, age);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-            client.send(request, HttpResponse.BodyHandlers.ofString());
+    /**
+     * Move the visibility deadline of a leased message in place with ZADD XX on the in-flight set,
+     * after checking in the same script that the receipt still holds an unexpired lease.
+     */
+    @Override
+    public boolean changeVisibility(String queueUrl, String receiptId, Duration visibilityTimeout) {
+        try {
+            long now = System.currentTimeMillis();
+            JsonNode changed = eval(RedisScripts.CHANGE_VISIBILITY, RedisScripts.leaseKeys(queueUrl),
+                    List.of(receiptId, Long.toString(now), Long.toString(now + visibilityTimeout.toMillis())));
+            return changed != null && changed.asInt() == 1;
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Set how long pushDeduplicated remembers an id for queueUrl, instead of DEDUPLICATION_WINDOW_MS.
+     * A zero window turns deduplication off, as for the in-memory service.
+     */
+    public void setDeduplicationWindow(String queueUrl, Duration window) {
+        if (window.isNegative()) {
+            throw new IllegalArgumentException("window must not be negative: " + window);
+        }
+        deduplicationWindows.put(queueUrl, window.toMillis());
+    }
 
-    void requeueExpiredMessages() {
+    /**
+     * Compress bodies of at least thresholdBytes UTF-8 bytes that this client pushes to queueUrl,
+     * once at push; consumers decompress a body when they first read it. Any client can read
+     * compressed messages, whatever its own settings.
+     */
+    public void setCompression(String queueUrl, long thresholdBytes) {
+        if (thresholdBytes < 0) {
+            throw new IllegalArgumentException("threshold must not be negative: " + thresholdBytes);
+        }
+        compressionThresholds.put(queueUrl, thresholdBytes);
+    }
+
+    private long compressionThreshold(String queueUrl) {
+        return compressionThresholds.getOrDefault(queueUrl, Long.MAX_VALUE);
+    }
+
+    /**
+     * Set how long messages pulled from queueUrl stay invisible, instead of VISIBILITY_TIMEOUT_MS.
+     */
+    public void setVisibilityTimeout(String queueUrl, Duration visibilityTimeout) {
+        visibilityTimeouts.put(queueUrl, visibilityTimeout.toMillis());
+    }
+
+    /**
+     * Send messages of queueUrl to deadLetterQueueUrl once they have been received maxReceiveCount
+     * times without being deleted. The move happens atomically when the last lease expires. The
+     * policy is stored in Redis next to the queue, so it holds for every client.
+     */
+    public void setRedrivePolicy(String queueUrl, String deadLetterQueueUrl, int maxReceiveCount) {
         try {
-            // Get all keys in inflight
-            HttpRequest keysRequest = HttpRequest.newBuilder()
-                    .uri(URI.create(UPSTASH_URL + "/hkeys/inflight"))
-                    .header("Authorization", "Bearer " + TOKEN)
-                    .GET()
-                    .build();
-
-            HttpResponse<String> keysResponse = client.send(keysRequest, HttpResponse.BodyHandlers.ofString());
-            if (keysResponse.statusCode() != 200 || keysResponse.body().equals("null")) return;
-
-            List<String> keys = objectMapper.readValue(keysResponse.body(), List.class);
-            for (String receiptId : keys) {
-                // Fetch message
-                HttpRequest getRequest = HttpRequest.newBuilder()
-                        .uri(URI.create(UPSTASH_URL + "/hget/inflight/" + receiptId))
-                        .header("Authorization", "Bearer " + TOKEN)
-                        .GET()
-                        .build();
-                HttpResponse<String> getResponse = client.send(getRequest, HttpResponse.BodyHandlers.ofString());
-                if (getResponse.statusCode() != 200 || getResponse.body().equals("null")) continue;
-
-                Message message = objectMapper.readValue(getResponse.body(), Message.class);
-                if (message.isVisibleAt(System.currentTimeMillis())) {
-                    // Requeue message
-                    push("default", message.getBody());
-                    // Remove from inflight
-                    delete("default", receiptId);
+            execute(redrivePolicyCommand(queueUrl, new RedrivePolicy(deadLetterQueueUrl, maxReceiveCount)));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Move every visible message of a dead-letter queue back to its source queue, in batches of
+     * REDRIVE_BATCH per script call. Returns the number of messages moved.
+     */
+    public int redrive(String deadLetterQueueUrl, String sourceQueueUrl) {
+        List<String> keys = RedisScripts.redriveKeys(deadLetterQueueUrl, sourceQueueUrl);
+        List<String> args = List.of(Integer.toString(REDRIVE_BATCH));
+        knownQueues.add(sourceQueueUrl);
+        try {
+            int total = 0;
+            while (true) {
+                JsonNode moved = eval(RedisScripts.REDRIVE, keys, args);
+                int count = moved == null ? 0 : moved.asInt();
+                total += count;
+                if (count < REDRIVE_BATCH) {
+                    return total;
                 }
             }
         } catch (Exception e) {
-            e.printStackTrace(); // log error but continue
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Move expired leases of every queue this client has used back to their ready sets.
+     */
+    void requeueExpiredMessages() {
+        for (String queueUrl : knownQueues) {
+            try {
+                requeueExpiredMessages(queueUrl);
+            } catch (Exception e) {
+                e.printStackTrace(); // log error but continue with the other queues
+            }
+        }
+    }
+
+    /**
+     * Move expired leases of one queue back to its ready set with a single ZRANGEBYSCORE inside an
+     * EVAL. Returns the number of requeued messages.
+     */
+    int requeueExpiredMessages(String queueUrl) {
+        try {
+            JsonNode requeued = eval(RedisScripts.REQUEUE, RedisScripts.requeueKeys(queueUrl),
+                    List.of(Long.toString(System.currentTimeMillis())));
+            return requeued == null ? 0 : requeued.asInt();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Run a script by SHA and fall back to sending its source when the server has not cached it
+     * yet (NOSCRIPT). The fallback also loads the script, so later calls hit EVALSHA.
+     */
+    private JsonNode eval(RedisScripts.Script script, List<String> keys, List<String> args) throws Exception {
+        List<String> command = script.evalSha(keys, args);
+
+        JsonNode body = send(command);
+        if (RedisScripts.isNoScript(body)) {
+            command = script.eval(keys, args);
+            body = send(command);
+        }
+        return result(command, body);
+    }
+
+    /**
+     * Run a single Redis command through the Upstash REST API. The command is sent as a JSON array
+     * in the request body, so arguments are escaped by Jackson rather than spliced into the URL.
+     * Returns the "result" node of the response.
+     */
+    private JsonNode execute(List<String> command) throws Exception {
+        return result(command, send(command));
+    }
+
+    private JsonNode send(List<String> command) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(endpoint)
+                .header("Authorization", "Bearer " + token)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(MAPPER.writeValueAsString(command)))
+                .build();
+
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200 && response.statusCode() != 400) {
+            throw new RuntimeException("Redis command " + command.get(0) + " failed: " + response.body());
+        }
+        return MAPPER.readTree(response.body());
+    }
+
+    static JsonNode result(List<String> command, JsonNode body) {
+        if (body.hasNonNull("error")) {
+            throw new RuntimeException("Redis command " + command.get(0) + " failed: " + body.get("error").asText());
+        }
+        return body.get("result");
+    }
+
+    static List<String> pushArgs(List<String> messageBodies, int priority) {
+        return pushArgs(messageBodies, priority, Long.MAX_VALUE);
+    }
+
+    /**
+     * Push arguments: priority, push time, then one encoded payload per body, with bodies of at
+     * least compressAbove UTF-8 bytes compressed.
+     */
+    static List<String> pushArgs(List<String> messageBodies, int priority, long compressAbove) {
+        long now = System.currentTimeMillis();
+        List<String> args = new ArrayList<>(messageBodies.size() + 2);
+        args.add(Integer.toString(priority));
+        args.add(Long.toString(now));
+        for (String messageBody : messageBodies) {
+            Message message = new Message(messageBody, priority);
+            message.setCreatedAt(now);
+            message.setPackedBody(PackedBody.pack(messageBody, compressAbove, Long.MAX_VALUE, null));
+            args.add(encode(message));
+        }
+        return args;
+    }
+
+    /**
+     * Push time stored in a "seq:createdAt:priority" member or a receipt starting with one, or -1
+     * for members written before push times were recorded. Parses in place without allocating.
+     */
+    static long createdAtOf(String memberOrReceipt) {
+        int end = memberOrReceipt.indexOf('/');
+        end = end < 0 ? memberOrReceipt.length() : end;
+        int first = memberOrReceipt.indexOf(':');
+        int last = memberOrReceipt.lastIndexOf(':', end - 1);
+        if (first < 0 || first == last) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(memberOrReceipt, first + 1, last, 10);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** Pull arguments: now, visibility deadline, count and a fresh receipt prefix. */
+    static List<String> pullArgs(long now, long visibleFrom, int maxMessages, String receiptPrefix) {
+        return List.of(Long.toString(now), Long.toString(visibleFrom), Integer.toString(maxMessages),
+                receiptPrefix + ".");
+    }
+
+    /** HSET storing a redrive policy where the PULL and REQUEUE scripts read it. */
+    static List<String> redrivePolicyCommand(String queueUrl, RedrivePolicy policy) {
+        return List.of("HSET", RedisScripts.redrive(queueUrl), "dlq", policy.deadLetterQueueUrl,
+                "maxReceive", Integer.toString(policy.maxReceiveCount));
+    }
+
+    /** Decode the flat receipt, payload, attempts triples returned by the PULL script. */
+    static List<Message> decodeLeased(JsonNode leased, long visibleFrom) {
+        if (leased == null || !leased.isArray() || leased.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Message> messages = new ArrayList<>(leased.size() / 3);
+        for (int i = 0; i + 2 < leased.size(); i += 3) {
+            Message message = decode(leased.get(i + 1).asText());
+            message.setReceiptId(leased.get(i).asText());
+            message.setAttempts(leased.get(i + 2).asInt());
+            message.setVisibleFrom(visibleFrom);
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    /**
+     * Stored form of a message: its MessageCodec bytes, Base64-encoded because the Upstash REST
+     * API carries values inside JSON strings.
+     */
+    static String encode(Message message) {
+        return Base64.getEncoder().encodeToString(MessageCodec.encode(message));
+    }
+
+    static Message decode(String payload) {
+        return MessageCodec.decode(Base64.getDecoder().decode(payload));
+    }
 }
@@ -0,0 +1,318 @@
+package org.example;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Lua scripts backing RedisQueueService. Each queue is stored under a hash-tagged key family so a
+ * script only ever touches one cluster slot:
+ * <ul>
+ *   <li>{@code {q}:ready}    ZSET of visible messages, score = -priority, member = "seq:createdAt:priority"</li>
+ *   <li>{@code {q}:inflight} ZSET of leased messages, score = visibility deadline (epoch millis)</li>
+ *   <li>{@code {q}:msgs}     HASH member -> payload</li>
+ *   <li>{@code {q}:lease}    HASH member -> current receipt handle</li>
+ *   <li>{@code {q}:attempts} HASH member -> delivery count</li>
+ *   <li>{@code {q}:seq}      counter used to build members</li>
+ *   <li>{@code {q}:signal}   LIST of wake-up tokens for long-polling consumers</li>
+ *   <li>{@code {q}:dedup:id} STRING set by PUSH_DEDUP, expiring after the deduplication window</li>
+ *   <li>{@code {q}:redrive}  HASH with the dead-letter queue ("dlq") and "maxReceive", if a redrive policy is set</li>
+ * </ul>
+ * Members start with a zero-padded hex sequence, so messages with equal priority (equal score) are
+ * ordered FIFO by Redis' lexicographic tiebreak. Receipts are "member/token", which lets delete
+ * find the message without a separate index and reject receipts from an expired lease.
+ * <p>
+ * The redrive policy is stored with the queue, so every client sweeping expired leases applies
+ * it, whether or not it set the policy itself. PULL and REQUEUE build the dead-letter queue's keys
+ * from the name in the policy. Those live in another slot, so dead-lettering needs a
+ * non-clustered deployment (such as Upstash) or a dead-letter queue name that shares the source
+ * queue's hash tag.
+ */
+final class RedisScripts {
+
+    /**
+     * Moves expired leases back to the ready set, or to the dead-letter queue named by the redrive
+     * policy in KEYS[6] once their delivery count reached its maxReceive. Shared prefix of the pull
+     * and requeue scripts; without a policy nothing is dead-lettered.
+     */
+    private static final String REQUEUE_EXPIRED =
+            "local policy = redis.call('HMGET', KEYS[6], 'dlq', 'maxReceive')\n"
+            + "local dlq = policy[1] and '{' .. policy[1] .. '}:'\n"
+            + "local maxReceive = dlq and tonumber(policy[2]) or 0\n"
+            + "local expired = redis.call('ZRANGEBYSCORE', KEYS[2], '-inf', '(' .. ARGV[1])\n"
+            + "local dead = 0\n"
+            + "for _, m in ipairs(expired) do\n"
+            + "  redis.call('ZREM', KEYS[2], m)\n"
+            + "  redis.call('HDEL', KEYS[4], m)\n"
+            + "  local prio = string.match(m, ':(-?%d+)$')\n"
+            + "  if maxReceive > 0 and tonumber(redis.call('HGET', KEYS[5], m) or '0') >= maxReceive then\n"
+            + "    local payload = redis.call('HGET', KEYS[3], m)\n"
+            + "    redis.call('HDEL', KEYS[3], m)\n"
+            + "    redis.call('HDEL', KEYS[5], m)\n"
+            + "    if payload then\n"
+            + "      local d = string.format('%016x', redis.call('INCR', dlq .. 'seq')) .. string.match(m, '^%x+(:.*)$')\n"
+            + "      redis.call('HSET', dlq .. 'msgs', d, payload)\n"
+            + "      redis.call('ZADD', dlq .. 'ready', -tonumber(prio), d)\n"
+            + "      dead = dead + 1\n"
+            + "    end\n"
+            + "  else\n"
+            + "    redis.call('ZADD', KEYS[1], -tonumber(prio), m)\n"
+            + "  end\n"
+            + "end\n"
+            + "if dead > 0 then\n"
+            + "  redis.call('LPUSH', dlq .. 'signal', '1')\n"
+            + "  redis.call('LTRIM', dlq .. 'signal', 0, 63)\n"
+            + "end\n";
+
+    /**
+     * KEYS: ready, msgs, seq, signal, dedup key. ARGV: priority, createdAt, window millis, payload.
+     * Pushes like PUSH unless the dedup key exists; SET NX PX claims it for the window in the same
+     * atomic step. A window of 0 claims nothing, since SET rejects PX 0. Returns 1 if pushed, 0 if
+     * skipped as a duplicate.
+     */
+    static final Script PUSH_DEDUP = new Script(
+            "if tonumber(ARGV[3]) > 0 and not redis.call('SET', KEYS[5], '1', 'NX', 'PX', ARGV[3]) then\n"
+            + "  return 0\n"
+            + "end\n"
+            + "local m = string.format('%016x', redis.call('INCR', KEYS[3])) .. ':' .. ARGV[2] .. ':' .. ARGV[1]\n"
+            + "redis.call('HSET', KEYS[2], m, ARGV[4])\n"
+            + "redis.call('ZADD', KEYS[1], -tonumber(ARGV[1]), m)\n"
+            + "redis.call('LPUSH', KEYS[4], '1')\n"
+            + "redis.call('LTRIM', KEYS[4], 0, 63)\n"
+            + "return 1\n");
+
+    /**
+     * KEYS: ready, msgs, seq, signal. ARGV: priority, createdAt, payload... Returns the number
+     * pushed. The push time is kept in the member so delete can measure dwell time from a receipt.
+     */
+    static final Script PUSH = new Script(
+            "local prio = tonumber(ARGV[1])\n"
+            + "for i = 3, #ARGV do\n"
+            + "  local m = string.format('%016x', redis.call('INCR', KEYS[3])) .. ':' .. ARGV[2] .. ':' .. ARGV[1]\n"
+            + "  redis.call('HSET', KEYS[2], m, ARGV[i])\n"
+            + "  redis.call('ZADD', KEYS[1], -prio, m)\n"
+            + "end\n"
+            // Wake long-polling consumers; the token list is capped so it cannot grow unbounded
+            + "redis.call('LPUSH', KEYS[4], '1')\n"
+            + "redis.call('LTRIM', KEYS[4], 0, 63)\n"
+            + "return #ARGV - 2\n");
+
+    /**
+     * KEYS: ready, inflight, msgs, lease, attempts, redrive. ARGV: now, deadline, count, receipt prefix.
+     * Requeues expired leases, then leases up to count messages in priority order.
+     * Returns a flat array of receipt, payload, attempts triples.
+     */
+    static final Script PULL = new Script(
+            REQUEUE_EXPIRED
+            + "local popped = redis.call('ZPOPMIN', KEYS[1], ARGV[3])\n"
+            + "local out = {}\n"
+            + "for i = 1, #popped, 2 do\n"
+            + "  local m = popped[i]\n"
+            + "  local payload = redis.call('HGET', KEYS[3], m)\n"
+            + "  if payload then\n"
+            + "    local receipt = m .. '/' .. ARGV[4] .. i\n"
+            + "    redis.call('ZADD', KEYS[2], ARGV[2], m)\n"
+            + "    redis.call('HSET', KEYS[4], m, receipt)\n"
+            + "    out[#out + 1] = receipt\n"
+            + "    out[#out + 1] = payload\n"
+            + "    out[#out + 1] = redis.call('HINCRBY', KEYS[5], m, 1)\n"
+            + "  end\n"
+            + "end\n"
+            + "return out\n");
+
+    /**
+     * KEYS: ready, inflight, msgs, lease, attempts. ARGV: receipt...
+     * Deletes every message whose lease is still held by the given receipt. Returns a flat array
+     * of receipt, attempts pairs for the messages that were deleted.
+     */
+    static final Script DELETE = new Script(
+            "local deleted = {}\n"
+            + "for i = 1, #ARGV do\n"
+            + "  local m = string.match(ARGV[i], '^([^/]+)/')\n"
+            + "  if m and redis.call('HGET', KEYS[4], m) == ARGV[i] then\n"
+            + "    deleted[#deleted + 1] = ARGV[i]\n"
+            + "    deleted[#deleted + 1] = tonumber(redis.call('HGET', KEYS[5], m) or '0')\n"
+            + "    redis.call('ZREM', KEYS[2], m)\n"
+            + "    redis.call('HDEL', KEYS[3], m)\n"
+            + "    redis.call('HDEL', KEYS[4], m)\n"
+            + "    redis.call('HDEL', KEYS[5], m)\n"
+            + "  end\n"
+            + "end\n"
+            + "return deleted\n");
+
+    /**
+     * KEYS: ready, inflight, msgs, lease, attempts. ARGV: none.
+     * Returns the ready count, the in-flight count and the member at the head of the queue (false
+     * if the queue is empty); all O(1) or O(log n) in Redis.
+     */
+    static final Script GAUGES = new Script(
+            "local head = redis.call('ZRANGE', KEYS[1], 0, 0)[1]\n"
+            + "return {redis.call('ZCARD', KEYS[1]), redis.call('ZCARD', KEYS[2]), head or false}\n");
+
+    /**
+     * KEYS: ready, inflight, msgs, lease, attempts. ARGV: receipt, now, deadline.
+     * Moves the visibility deadline of a message whose lease is still held by the receipt and has
+     * not expired yet. Returns 1 if the lease was changed, 0 otherwise.
+     */
+    static final Script CHANGE_VISIBILITY = new Script(
+            "local m = string.match(ARGV[1], '^([^/]+)/')\n"
+            + "if not m or redis.call('HGET', KEYS[4], m) ~= ARGV[1] then\n"
+            + "  return 0\n"
+            + "end\n"
+            + "local deadline = redis.call('ZSCORE', KEYS[2], m)\n"
+            + "if not deadline or tonumber(deadline) < tonumber(ARGV[2]) then\n"
+            + "  return 0\n"
+            + "end\n"
+            + "redis.call('ZADD', KEYS[2], 'XX', ARGV[3], m)\n"
+            + "return 1\n");
+
+    /**
+     * KEYS: as for PULL. ARGV: now.
+     * Returns the number of messages moved back to the ready set.
+     */
+    static final Script REQUEUE = new Script(
+            REQUEUE_EXPIRED
+            + "return #expired - dead\n");
+
+    /**
+     * KEYS: dlq ready, dlq msgs, dlq attempts, ready, msgs, seq, signal. ARGV: count.
+     * Moves up to count messages from a dead-letter queue back to its source queue with fresh
+     * delivery counts. Returns the number moved; callers repeat until it is below count.
+     */
+    static final Script REDRIVE = new Script(
+            "local popped = redis.call('ZPOPMIN', KEYS[1], ARGV[1])\n"
+            + "local moved = 0\n"
+            + "for i = 1, #popped, 2 do\n"
+            + "  local m = popped[i]\n"
+            + "  local payload = redis.call('HGET', KEYS[2], m)\n"
+            + "  redis.call('HDEL', KEYS[2], m)\n"
+            + "  redis.call('HDEL', KEYS[3], m)\n"
+            + "  if payload then\n"
+            + "    local prio = string.match(m, ':(-?%d+)$')\n"
+            + "    local s = string.format('%016x', redis.call('INCR', KEYS[6])) .. string.match(m, '^%x+(:.*)$')\n"
+            + "    redis.call('HSET', KEYS[5], s, payload)\n"
+            + "    redis.call('ZADD', KEYS[4], -tonumber(prio), s)\n"
+            + "    moved = moved + 1\n"
+            + "  end\n"
+            + "end\n"
+            + "if moved > 0 then\n"
+            + "  redis.call('LPUSH', KEYS[7], '1')\n"
+            + "  redis.call('LTRIM', KEYS[7], 0, 63)\n"
+            + "end\n"
+            + "return #popped / 2\n");
+
+    private RedisScripts() {
+    }
+
+    static String ready(String queueUrl) {
+        return "{" + queueUrl + "}:ready";
+    }
+
+    static String inflight(String queueUrl) {
+        return "{" + queueUrl + "}:inflight";
+    }
+
+    static String msgs(String queueUrl) {
+        return "{" + queueUrl + "}:msgs";
+    }
+
+    static String lease(String queueUrl) {
+        return "{" + queueUrl + "}:lease";
+    }
+
+    static String attempts(String queueUrl) {
+        return "{" + queueUrl + "}:attempts";
+    }
+
+    static String seq(String queueUrl) {
+        return "{" + queueUrl + "}:seq";
+    }
+
+    static String signal(String queueUrl) {
+        return "{" + queueUrl + "}:signal";
+    }
+
+    static String redrive(String queueUrl) {
+        return "{" + queueUrl + "}:redrive";
+    }
+
+    /** Keys in the order expected by DELETE, GAUGES and CHANGE_VISIBILITY. */
+    static List<String> leaseKeys(String queueUrl) {
+        return List.of(ready(queueUrl), inflight(queueUrl), msgs(queueUrl), lease(queueUrl), attempts(queueUrl));
+    }
+
+    /** Keys in the order expected by PULL and REQUEUE: leaseKeys, then the redrive policy. */
+    static List<String> requeueKeys(String queueUrl) {
+        return List.of(ready(queueUrl), inflight(queueUrl), msgs(queueUrl), lease(queueUrl), attempts(queueUrl),
+                redrive(queueUrl));
+    }
+
+    /** Keys in the order expected by REDRIVE. */
+    static List<String> redriveKeys(String deadLetterQueueUrl, String sourceQueueUrl) {
+        return List.of(ready(deadLetterQueueUrl), msgs(deadLetterQueueUrl), attempts(deadLetterQueueUrl),
+                ready(sourceQueueUrl), msgs(sourceQueueUrl), seq(sourceQueueUrl), signal(sourceQueueUrl));
+    }
+
+    /** Keys in the order expected by PUSH. */
+    static List<String> pushKeys(String queueUrl) {
+        return List.of(ready(queueUrl), msgs(queueUrl), seq(queueUrl), signal(queueUrl));
+    }
+
+    /** Keys in the order expected by PUSH_DEDUP. */
+    static List<String> pushDedupKeys(String queueUrl, String deduplicationId) {
+        return List.of(ready(queueUrl), msgs(queueUrl), seq(queueUrl), signal(queueUrl),
+                "{" + queueUrl + "}:dedup:" + deduplicationId);
+    }
+
+    /** A Lua script together with its SHA1, so callers can try EVALSHA before sending the source. */
+    static final class Script {
+        final String source;
+        final String sha;
+
+        Script(String source) {
+            this.source = source;
+            this.sha = sha1Hex(source);
+        }
+
+        /** EVALSHA command; the first choice since it avoids resending the source. */
+        List<String> evalSha(List<String> keys, List<String> args) {
+            return command("EVALSHA", sha, keys, args);
+        }
+
+        /** EVAL command; used after the server answered NOSCRIPT. */
+        List<String> eval(List<String> keys, List<String> args) {
+            return command("EVAL", source, keys, args);
+        }
+
+        private static List<String> command(String verb, String script, List<String> keys, List<String> args) {
+            List<String> command = new ArrayList<>(3 + keys.size() + args.size());
+            command.add(verb);
+            command.add(script);
+            command.add(Integer.toString(keys.size()));
+            command.addAll(keys);
+            command.addAll(args);
+            return command;
+        }
+    }
+
+    /** True if an Upstash response envelope reports that the script is not cached on the server. */
+    static boolean isNoScript(JsonNode response) {
+        return response.hasNonNull("error") && response.get("error").asText().startsWith("NOSCRIPT");
+    }
+
+    private static String sha1Hex(String source) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(source.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+    }
+}
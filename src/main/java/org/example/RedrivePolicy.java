@@ -0,0 +1,19 @@
+package org.example;
+
+/**
+ * Dead-letter settings of a queue: once a message has been received maxReceiveCount times without
+ * being deleted, its next lease expiry moves it to the dead-letter queue instead of back to the
+ * ready messages.
+ */
+final class RedrivePolicy {
+    final String deadLetterQueueUrl;
+    final int maxReceiveCount;
+
+    RedrivePolicy(String deadLetterQueueUrl, int maxReceiveCount) {
+        if (maxReceiveCount < 1) {
+            throw new IllegalArgumentException("maxReceiveCount must be at least 1: " + maxReceiveCount);
+        }
+        this.deadLetterQueueUrl = deadLetterQueueUrl;
+        this.maxReceiveCount = maxReceiveCount;
+    }
+}
@@ -0,0 +1,311 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * QueueService client for a {@link QueueServer}.
+ *
+ * <p>Keeps a small pool of TCP connections and spreads calls over them round robin. Calls are
+ * pipelined: a caller writes its request frame and waits for the response with its id, while other
+ * callers keep sending on the same connection, so a pool of a few connections serves many threads.
+ * A connection that fails is dropped, its outstanding calls throw, and the next call on its slot
+ * reconnects. Requests are not retried, since a push may have reached the server before the
+ * connection broke.
+ */
+public class RemoteQueueService implements QueueService, Closeable {
+    private static final int DEFAULT_CONNECTIONS = 4;
+
+    private final InetSocketAddress address;
+    private final AtomicReferenceArray<Connection> pool;
+    private final AtomicInteger nextSlot = new AtomicInteger();
+    private volatile boolean closed;
+
+    public RemoteQueueService(String host, int port) {
+        this(new InetSocketAddress(host, port), DEFAULT_CONNECTIONS);
+    }
+
+    /** Client with its own pool size; connections are opened on first use. */
+    public RemoteQueueService(InetSocketAddress address, int connections) {
+        if (connections < 1) {
+            throw new IllegalArgumentException("connections must be at least 1: " + connections);
+        }
+        this.address = address;
+        this.pool = new AtomicReferenceArray<>(connections);
+    }
+
+    @Override
+    public void push(String queueUrl, String messageBody) {
+        push(queueUrl, messageBody, 0);
+    }
+
+    /**
+     * Push message with explicit priority (higher number = higher priority)
+     */
+    public void push(String queueUrl, String messageBody, int priority) {
+        call(QueueProtocol.PUSH, queueUrl, out -> out.putInt(priority).putString(messageBody));
+    }
+
+    @Override
+    public void pushBatch(String queueUrl, List<String> messageBodies) {
+        pushBatch(queueUrl, messageBodies, 0);
+    }
+
+    public void pushBatch(String queueUrl, List<String> messageBodies, int priority) {
+        if (messageBodies.isEmpty()) {
+            return;
+        }
+        call(QueueProtocol.PUSH_BATCH, queueUrl, out -> {
+            out.putInt(priority).putInt(messageBodies.size());
+            for (String body : messageBodies) {
+                out.putString(body);
+            }
+        });
+    }
+
+    @Override
+    public boolean pushDeduplicated(String queueUrl, String messageBody, String deduplicationId) {
+        return pushDeduplicated(queueUrl, messageBody, 0, deduplicationId);
+    }
+
+    public boolean pushDeduplicated(String queueUrl, String messageBody, int priority, String deduplicationId) {
+        ByteBuffer in = call(QueueProtocol.PUSH_DEDUPLICATED, queueUrl,
+                out -> out.putInt(priority).putString(messageBody).putString(deduplicationId));
+        return in.get() != 0;
+    }
+
+    @Override
+    public Message pull(String queueUrl) {
+        List<Message> pulled = pull(queueUrl, 1, null, null);
+        return pulled.isEmpty() ? null : pulled.get(0);
+    }
+
+    @Override
+    public Message pull(String queueUrl, Duration waitTime) {
+        List<Message> pulled = pull(queueUrl, 1, null, waitTime);
+        return pulled.isEmpty() ? null : pulled.get(0);
+    }
+
+    @Override
+    public List<Message> pull(String queueUrl, int maxMessages) {
+        return pull(queueUrl, maxMessages, null, null);
+    }
+
+    @Override
+    public List<Message> pull(String queueUrl, int maxMessages, Duration visibilityTimeout) {
+        return pull(queueUrl, maxMessages, visibilityTimeout, null);
+    }
+
+    private List<Message> pull(String queueUrl, int maxMessages, Duration visibilityTimeout, Duration waitTime) {
+        if (maxMessages <= 0) {
+            return List.of();
+        }
+        ByteBuffer in = call(QueueProtocol.PULL, queueUrl, out -> out.putInt(maxMessages)
+                .putLong(QueueProtocol.millis(visibilityTimeout))
+                .putLong(QueueProtocol.millis(waitTime)));
+        int count = in.getInt();
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Message message = QueueProtocol.readMessage(in, QueueProtocol.readString(in));
+            message.setQueueUrl(queueUrl);
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    @Override
+    public void delete(String queueUrl, String receiptId) {
+        call(QueueProtocol.DELETE, queueUrl, out -> out.putString(receiptId));
+    }
+
+    @Override
+    public void deleteBatch(String queueUrl, List<String> receiptIds) {
+        if (receiptIds.isEmpty()) {
+            return;
+        }
+        call(QueueProtocol.DELETE_BATCH, queueUrl, out -> {
+            out.putInt(receiptIds.size());
+            for (String receiptId : receiptIds) {
+                out.putString(receiptId);
+            }
+        });
+    }
+
+    @Override
+    public boolean changeVisibility(String queueUrl, String receiptId, Duration visibilityTimeout) {
+        ByteBuffer in = call(QueueProtocol.CHANGE_VISIBILITY, queueUrl,
+                out -> out.putString(receiptId).putLong(visibilityTimeout.toMillis()));
+        return in.get() != 0;
+    }
+
+    /** Close every connection; calls still waiting for a response throw. */
+    @Override
+    public void close() {
+        closed = true;
+        for (int i = 0; i < pool.length(); i++) {
+            Connection connection = pool.getAndSet(i, null);
+            if (connection != null) {
+                connection.fail(new IOException("Client closed"));
+            }
+        }
+    }
+
+    /**
+     * Send one request and wait for its response; returns the response payload on success and
+     * throws the server's error otherwise.
+     */
+    private ByteBuffer call(byte op, String queueUrl, Consumer<QueueProtocol.FrameWriter> request) {
+        ByteBuffer in;
+        try {
+            in = connection().send(op, out -> request.accept(out.putString(queueUrl))).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        byte status = in.get();
+        if (status == QueueProtocol.OK) {
+            return in;
+        }
+        String message = QueueProtocol.readString(in);
+        switch (status) {
+            case QueueProtocol.QUEUE_FULL -> throw new QueueFullException(message);
+            case QueueProtocol.INVALID -> throw new IllegalArgumentException(message);
+            default -> throw new RuntimeException("Queue server error: " + message);
+        }
+    }
+
+    private Connection connection() throws IOException {
+        int slot = Math.floorMod(nextSlot.getAndIncrement(), pool.length());
+        Connection connection = pool.get(slot);
+        if (connection != null && !connection.broken) {
+            return connection;
+        }
+        synchronized (this) {
+            connection = pool.get(slot);
+            if (connection == null || connection.broken) {
+                if (closed) {
+                    throw new IOException("Client closed");
+                }
+                connection = new Connection(address);
+                pool.set(slot, connection);
+            }
+            return connection;
+        }
+    }
+
+    private static final class Connection {
+        private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+        private final SocketChannel channel;
+        private final ReentrantLock writeLock = new ReentrantLock();
+        /** Calls waiting for a response, by request id. */
+        private final Map<Integer, CompletableFuture<ByteBuffer>> pending = new ConcurrentHashMap<>();
+        private final AtomicInteger requestIds = new AtomicInteger();
+        private volatile boolean broken;
+
+        Connection(InetSocketAddress address) throws IOException {
+            channel = SocketChannel.open(address);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Thread.ofPlatform().daemon().name("queue-client-" + address).start(this::readLoop);
+        }
+
+        CompletableFuture<ByteBuffer> send(byte op, Consumer<QueueProtocol.FrameWriter> request) {
+            int requestId = requestIds.incrementAndGet();
+            QueueProtocol.FrameWriter out = new QueueProtocol.FrameWriter(requestId, op);
+            request.accept(out);
+            ByteBuffer frame = out.finish();
+
+            CompletableFuture<ByteBuffer> response = new CompletableFuture<>();
+            pending.put(requestId, response);
+            if (broken) {
+                // fail() may have swept pending before we registered
+                pending.remove(requestId);
+                response.completeExceptionally(new IOException("Connection to queue server lost"));
+                return response;
+            }
+            writeLock.lock();
+            try {
+                while (frame.hasRemaining()) {
+                    channel.write(frame);
+                }
+            } catch (IOException e) {
+                fail(e);
+            } finally {
+                writeLock.unlock();
+            }
+            return response;
+        }
+
+        /** Complete calls as their responses arrive, several per read when they are pipelined. */
+        private void readLoop() {
+            ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            try {
+                while (true) {
+                    if (channel.read(in) < 0) {
+                        throw new EOFException("Queue server closed the connection");
+                    }
+                    in.flip();
+                    while (in.remaining() >= 4) {
+                        int length = in.getInt(in.position());
+                        if (length < QueueProtocol.HEADER_SIZE - 4 || length > QueueProtocol.MAX_FRAME_SIZE) {
+                            throw new IOException("Bad frame length: " + length);
+                        }
+                        if (in.remaining() < 4 + length) {
+                            break;
+                        }
+                        in.getInt();
+                        int requestId = in.getInt();
+                        byte[] response = new byte[length - 4]; // status and payload
+                        in.get(response);
+                        CompletableFuture<ByteBuffer> call = pending.remove(requestId);
+                        if (call != null) {
+                            call.complete(ByteBuffer.wrap(response));
+                        }
+                    }
+                    in.compact();
+                    if (in.position() >= 4 && 4 + in.getInt(0) > in.capacity()) {
+                        in = ByteBuffer.allocate(4 + in.getInt(0)).put(in.flip()); // room for one large frame
+                    }
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        /** Drop the connection and fail every call still waiting on it. */
+        void fail(IOException cause) {
+            broken = true;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // already gone
+            }
+            for (Integer requestId : pending.keySet()) {
+                CompletableFuture<ByteBuffer> call = pending.remove(requestId);
+                if (call != null) {
+                    call.completeExceptionally(cause);
+                }
+            }
+        }
+    }
+}
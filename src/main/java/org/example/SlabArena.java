@@ -0,0 +1,95 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Off-heap slab allocator used by OffHeapReadyQueue. Records are stored in direct ByteBuffer
+ * chunks, split into fixed-size slots by power-of-two size class starting at 64 bytes. Freed
+ * slots go on a per-class free list and are reused before the arena grows; chunks are never
+ * returned, so the arena's footprint is the high-water mark of the data stored in it.
+ *
+ * <p>A record is addressed by a long ref packing size class, chunk and slot, so callers keep no
+ * objects per record. Chunks of a class start small and double up to 1 MB, keeping near-empty
+ * arenas cheap. Not thread-safe; the owning partition's lock guards it.
+ */
+final class SlabArena {
+    private static final int MIN_SHIFT = 6;
+    private static final int CLASSES = 25; // 64 B .. 1 GB
+    private static final int MAX_CHUNK_BYTES = 1 << 20;
+    private static final int FIRST_CHUNK_SLOTS = 16;
+
+    private final SizeClass[] classes = new SizeClass[CLASSES];
+    private long reservedBytes;
+
+    private static final class SizeClass {
+        final int slotSize;
+        final List<ByteBuffer> chunks = new ArrayList<>();
+        /** Slots handed out so far in the last chunk. */
+        int used;
+        long[] free = new long[16];
+        int freeCount;
+
+        SizeClass(int slotSize) {
+            this.slotSize = slotSize;
+        }
+    }
+
+    /** Reserve a slot of at least size bytes and return its ref. */
+    long allocate(int size) {
+        int cls = classOf(size);
+        SizeClass sizeClass = classes[cls];
+        if (sizeClass == null) {
+            sizeClass = classes[cls] = new SizeClass(1 << (cls + MIN_SHIFT));
+        }
+        if (sizeClass.freeCount > 0) {
+            return sizeClass.free[--sizeClass.freeCount];
+        }
+
+        List<ByteBuffer> chunks = sizeClass.chunks;
+        if (chunks.isEmpty() || sizeClass.used == chunks.get(chunks.size() - 1).capacity() / sizeClass.slotSize) {
+            int slots = Math.max(1, Math.min(FIRST_CHUNK_SLOTS << chunks.size(), MAX_CHUNK_BYTES / sizeClass.slotSize));
+            chunks.add(ByteBuffer.allocateDirect(slots * sizeClass.slotSize));
+            reservedBytes += (long) slots * sizeClass.slotSize;
+            sizeClass.used = 0;
+        }
+        return ref(cls, chunks.size() - 1, sizeClass.used++);
+    }
+
+    /** Return a slot to its class's free list. */
+    void free(long ref) {
+        SizeClass sizeClass = classes[(int) (ref >>> 56)];
+        if (sizeClass.freeCount == sizeClass.free.length) {
+            sizeClass.free = Arrays.copyOf(sizeClass.free, sizeClass.freeCount * 2);
+        }
+        sizeClass.free[sizeClass.freeCount++] = ref;
+    }
+
+    /** The chunk holding a record; read and write it with absolute gets and puts at offset(ref). */
+    ByteBuffer chunk(long ref) {
+        return classes[(int) (ref >>> 56)].chunks.get((int) (ref >>> 32) & 0xFFFFFF);
+    }
+
+    int offset(long ref) {
+        return (int) ref * classes[(int) (ref >>> 56)].slotSize;
+    }
+
+    /** Direct memory reserved by this arena, used or not. */
+    long reservedBytes() {
+        return reservedBytes;
+    }
+
+    private static int classOf(int size) {
+        int cls = Math.max(0, 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1) - MIN_SHIFT);
+        if (cls >= CLASSES) {
+            throw new IllegalArgumentException("record too large for the off-heap arena: " + size + " bytes");
+        }
+        return cls;
+    }
+
+    private static long ref(int cls, int chunk, int slot) {
+        return ((long) cls << 56) | ((long) chunk << 32) | slot;
+    }
+}
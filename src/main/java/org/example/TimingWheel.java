@@ -0,0 +1,168 @@
+package org.example;
+
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel with millisecond ticks, used by QueuePartition for lease expiry and
+ * delayed delivery.
+ *
+ * <p>There are six levels of 64 buckets. Level n has ticks of 64^n ms, so a timer is filed in the
+ * lowest level whose 64 buckets span its deadline. Timers are unsorted doubly linked lists
+ * hanging off their bucket, so schedule and cancel are O(1). As time advances, the buckets the
+ * clock passed over are emptied: due timers are handed to the caller, and timers from higher
+ * levels are refiled into lower ones. A timer cascades at most once per level, so each costs
+ * amortized O(1) no matter how many are pending. Deadlines further out than the top level's span
+ * (about two years) wrap around in the top level and are refiled until they are due.
+ *
+ * <p>Not thread-safe; QueuePartition guards its wheel with the partition lock.
+ */
+final class TimingWheel<T> {
+    private static final int BITS = 6;
+    private static final int BUCKETS = 1 << BITS;
+    private static final int MASK = BUCKETS - 1;
+    private static final int LEVELS = 6;
+
+    /** A scheduled item; also the handle used to cancel it. */
+    static final class Timer<T> {
+        final T item;
+        final long deadline;
+        int bucket = -1;
+        Timer<T> prev;
+        Timer<T> next;
+
+        Timer(T item, long deadline) {
+            this.item = item;
+            this.deadline = deadline;
+        }
+    }
+
+    /** Heads of the bucket lists, level by level; null when a bucket is empty. */
+    @SuppressWarnings("unchecked")
+    private final Timer<T>[] buckets = (Timer<T>[]) new Timer<?>[LEVELS * BUCKETS];
+    /** Time the wheel was last advanced to. */
+    private long time;
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    /** File item to fire once the wheel is advanced to deadline or later. */
+    Timer<T> schedule(T item, long deadline) {
+        Timer<T> timer = new Timer<>(item, deadline);
+        file(timer);
+        return timer;
+    }
+
+    /** Remove a timer before it fires; returns false if it already fired or was cancelled. */
+    boolean cancel(Timer<T> timer) {
+        if (timer.bucket < 0) {
+            return false;
+        }
+        unlink(timer);
+        return true;
+    }
+
+    /**
+     * Move the clock to now and append the item of every timer whose deadline is at or before now
+     * to due. A clock that went backwards is ignored while timers are pending.
+     */
+    void advance(long now, List<T> due) {
+        long previous = time;
+        if (size == 0) {
+            time = now; // nothing to fire, so the wheel can jump
+            return;
+        }
+        if (now < previous) {
+            return;
+        }
+        time = now;
+
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = level * BITS;
+            long previousTicks = previous >>> shift;
+            long ticks = now >>> shift;
+            if (level > 0 && ticks == previousTicks) {
+                break; // higher levels did not turn either
+            }
+            // Include the bucket of the previous tick: it may have been filed into since
+            long steps = Math.min(ticks - previousTicks + 1, BUCKETS);
+            for (long tick = previousTicks; tick < previousTicks + steps; tick++) {
+                int bucket = level * BUCKETS + (int) (tick & MASK);
+                Timer<T> timer = buckets[bucket];
+                buckets[bucket] = null;
+                while (timer != null) {
+                    Timer<T> next = timer.next;
+                    timer.prev = null;
+                    timer.next = null;
+                    timer.bucket = -1;
+                    size--;
+                    if (timer.deadline <= now) {
+                        due.add(timer.item);
+                    } else {
+                        file(timer);
+                    }
+                    timer = next;
+                }
+            }
+        }
+    }
+
+    /**
+     * A lower bound on the earliest pending deadline, at most one bucket early, or Long.MAX_VALUE
+     * if nothing is scheduled. Good enough to size a wait: waking early only costs a retry.
+     */
+    long nextDeadline() {
+        if (size == 0) {
+            return Long.MAX_VALUE;
+        }
+        long earliest = Long.MAX_VALUE;
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = level * BITS;
+            long ticks = time >>> shift;
+            // Level 0 may hold timers for the current tick; higher levels only for later ticks
+            for (int i = level == 0 ? 0 : 1; i <= BUCKETS; i++) {
+                if (buckets[level * BUCKETS + (int) ((ticks + i) & MASK)] != null) {
+                    earliest = Math.min(earliest, (ticks + i) << shift);
+                    break;
+                }
+            }
+        }
+        return earliest;
+    }
+
+    private void file(Timer<T> timer) {
+        long delay = timer.deadline - time;
+        int level = 0;
+        while (level < LEVELS - 1 && delay >= 1L << (BITS * (level + 1))) {
+            level++;
+        }
+        // A deadline already passed goes into the current bucket, which the next advance visits
+        long at = Math.max(timer.deadline, time);
+        int bucket = level * BUCKETS + (int) ((at >>> (level * BITS)) & MASK);
+
+        Timer<T> head = buckets[bucket];
+        timer.bucket = bucket;
+        timer.next = head;
+        if (head != null) {
+            head.prev = timer;
+        }
+        buckets[bucket] = timer;
+        size++;
+    }
+
+    private void unlink(Timer<T> timer) {
+        if (timer.prev != null) {
+            timer.prev.next = timer.next;
+        } else {
+            buckets[timer.bucket] = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.prev = timer.prev;
+        }
+        timer.prev = null;
+        timer.next = null;
+        timer.bucket = -1;
+        size--;
+    }
+}
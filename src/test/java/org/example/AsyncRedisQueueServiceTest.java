@@ -0,0 +1,134 @@
+package org.example;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.example.TestSupport.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class AsyncRedisQueueServiceTest {
+
+    private HttpClient client;
+    private AsyncRedisQueueService service;
+    private ObjectMapper objectMapper;
+
+    @BeforeEach
+    void setUp() {
+        client = mock(HttpClient.class);
+        // One HTTP request at a time makes coalescing deterministic
+        service = new AsyncRedisQueueService(client, "http://localhost:8079", "token", 100, 1, 1_000);
+        objectMapper = new ObjectMapper();
+    }
+
+    @Test
+    void testOperationsQueuedBehindARequestShareOnePipeline() throws Exception {
+        CompletableFuture<HttpResponse<String>> first = new CompletableFuture<>();
+        CompletableFuture<HttpResponse<String>> second = new CompletableFuture<>();
+        when(client.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(first)
+                .thenReturn(second);
+
+        CompletableFuture<Void> push1 = service.push("myQueue", "a");
+        CompletableFuture<Void> push2 = service.push("myQueue", "b");
+        CompletableFuture<Void> push3 = service.push("myQueue", "c");
+        CompletableFuture<Void> delete = service.delete("myQueue", "0000000000000001:0/r1");
+
+        // Only the first push went out; the rest wait for the in-flight request
+        verify(client, times(1)).sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class));
+        assertFalse(push2.isDone());
+
+        first.complete(response("[{\"result\":1}]"));
+        assertTrue(push1.isDone());
+
+        ArgumentCaptor<HttpRequest> captor = ArgumentCaptor.forClass(HttpRequest.class);
+        verify(client, times(2)).sendAsync(captor.capture(), any(HttpResponse.BodyHandler.class));
+        HttpRequest pipelined = captor.getAllValues().get(1);
+        assertTrue(pipelined.uri().toString().endsWith("/pipeline"));
+        assertEquals(3, objectMapper.readValue(bodyOf(pipelined), List.class).size());
+
+        second.complete(response("[{\"result\":1},{\"result\":1},{\"result\":1}]"));
+        assertDoesNotThrow(() -> CompletableFuture.allOf(push2, push3, delete).join());
+    }
+
+    @Test
+    void testPullDecodesLeasedMessages() throws Exception {
+        String payload = RedisQueueService.encode(new Message("hello", 0));
+        String reply = objectMapper.writeValueAsString(
+                List.of(Map.of("result", List.of("0000000000000001:0/r1", payload, 1))));
+        HttpResponse<String> pullResponse = response(reply);
+        when(client.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(CompletableFuture.completedFuture(pullResponse));
+
+        Message pulled = service.pull("myQueue").join();
+
+        assertNotNull(pulled);
+        assertEquals("hello", pulled.getBody());
+        assertEquals("0000000000000001:0/r1", pulled.getReceiptId());
+    }
+
+    @Test
+    void testNoScriptIsRetriedWithSource() throws Exception {
+        HttpResponse<String> noScript = response("[{\"error\":\"NOSCRIPT No matching script.\"}]");
+        HttpResponse<String> ok = response("[{\"result\":1}]");
+        when(client.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(CompletableFuture.completedFuture(noScript))
+                .thenReturn(CompletableFuture.completedFuture(ok));
+
+        service.push("myQueue", "hello").join();
+
+        ArgumentCaptor<HttpRequest> captor = ArgumentCaptor.forClass(HttpRequest.class);
+        verify(client, times(2)).sendAsync(captor.capture(), any(HttpResponse.BodyHandler.class));
+        assertTrue(bodyOf(captor.getAllValues().get(1)).startsWith("[[\"EVAL\""));
+    }
+
+    @Test
+    void testRedisErrorFailsOnlyThatOperation() throws Exception {
+        CompletableFuture<HttpResponse<String>> first = new CompletableFuture<>();
+        HttpResponse<String> mixed = response("[{\"error\":\"WRONGTYPE\"},{\"result\":1}]");
+        when(client.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(first)
+                .thenReturn(CompletableFuture.completedFuture(mixed));
+
+        service.push("myQueue", "a");
+        CompletableFuture<Void> failing = service.push("myQueue", "b");
+        CompletableFuture<Void> succeeding = service.push("myQueue", "c");
+        first.complete(response("[{\"result\":1}]"));
+
+        assertTrue(failing.isCompletedExceptionally());
+        assertDoesNotThrow(() -> succeeding.join());
+    }
+
+    @Test
+    void testFollowUpChainedOnCompletionGetsThePermit() throws Exception {
+        AsyncRedisQueueService bounded = new AsyncRedisQueueService(client, "http://localhost:8079", "token",
+                100, 1, 1);
+        String payload = RedisQueueService.encode(new Message("hello", 0));
+        HttpResponse<String> pulled = response(objectMapper.writeValueAsString(
+                List.of(Map.of("result", List.of("0000000000000001:0/r1", payload, 1)))));
+        HttpResponse<String> deleted = response("[{\"result\":[\"0000000000000001:0/r1\",1]}]");
+        CompletableFuture<HttpResponse<String>> first = new CompletableFuture<>();
+        when(client.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(first)
+                .thenReturn(CompletableFuture.completedFuture(deleted));
+
+        // The delete is submitted from inside the pull's completion, while every permit is taken
+        CompletableFuture<Void> done = bounded.pull("myQueue")
+                .thenCompose(msg -> bounded.delete("myQueue", msg.getReceiptId()));
+        Thread completer = new Thread(() -> first.complete(pulled));
+        completer.start();
+        completer.join(5_000);
+
+        assertFalse(completer.isAlive());
+        assertDoesNotThrow(() -> done.join());
+    }
+}
@@ -0,0 +1,57 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistogramTest {
+
+    @Test
+    void testSmallValuesAreExact() {
+        Histogram histogram = new Histogram();
+        for (int value = 1; value <= 10; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(10, histogram.getCount());
+        assertEquals(5, histogram.getValueAtPercentile(50));
+        assertEquals(10, histogram.getValueAtPercentile(100));
+        assertEquals(5.5, histogram.getMean(), 1e-9);
+    }
+
+    @Test
+    void testLargeValuesStayWithinRelativeError() {
+        Histogram histogram = new Histogram();
+        for (long value = 1_000; value <= 1_000_000_000L; value *= 10) {
+            Histogram single = new Histogram();
+            single.record(value);
+            long reported = single.getValueAtPercentile(50);
+            assertTrue(reported >= value && reported <= value * 1.032, value + " reported as " + reported);
+            histogram.record(value);
+        }
+        assertEquals(1_000_000_000L, histogram.getMax());
+    }
+
+    @Test
+    void testPercentilesOfSkewedDistribution() {
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < 990; i++) {
+            histogram.record(100);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(50_000);
+        }
+
+        long p99 = histogram.getValueAtPercentile(99);
+        assertTrue(p99 >= 100 && p99 <= 103, "p99 " + p99);
+        assertTrue(histogram.getValueAtPercentile(99.9) >= 50_000);
+    }
+
+    @Test
+    void testHugeValuesLandInTopBucket() {
+        Histogram histogram = new Histogram();
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(1, histogram.getCount());
+        assertEquals(Long.MAX_VALUE, histogram.getMax());
+    }
+}
@@ -2,6 +2,19 @@ package org.example;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -9,6 +22,9 @@ class InMemoryPriorityQueueServiceTest {
 
     private InMemoryPriorityQueueService service;
 
+    @TempDir
+    Path dataDir;
+
     @BeforeEach
     void setUp() {
         service = new InMemoryPriorityQueueService();
@@ -68,6 +84,19 @@ class InMemoryPriorityQueueServiceTest {
         assertNull(second);
     }
 
+    @Test
+    void testInFlightHeadDoesNotBlockQueue() {
+        service.push("q1", "high", 5);
+        service.push("q1", "low", 1);
+
+        Message first = service.pull("q1");  // "high" is now in flight
+        Message second = service.pull("q1"); // must not be blocked by it
+
+        assertEquals("high", first.getBody());
+        assertNotNull(second);
+        assertEquals("low", second.getBody());
+    }
+
     @Test
     void testVisibilityTimeoutExpiry() throws InterruptedException {
         service.push("q1", "retry", 1);
@@ -100,6 +129,22 @@ class InMemoryPriorityQueueServiceTest {
         assertNull(again);
     }
 
+    @Test
+    void testDeleteOnlyRemovesMatchingReceipt() {
+        service.push("q1", "first", 1);
+        service.push("q1", "second", 1);
+
+        Message m1 = service.pull("q1");
+        Message m2 = service.pull("q1");
+        assertNotEquals(m1.getReceiptId(), m2.getReceiptId());
+
+        service.delete("q1", "unknown-receipt");
+        service.delete("q2", m2.getReceiptId()); // receipts are scoped per queue
+        service.delete("q1", m1.getReceiptId());
+
+        assertNull(service.pull("q1"));
+    }
+
     @Test
     void testMultipleMessagesFifoSamePriority() {
         String[] msgs = {"msg1", "msg2", "msg3"};
@@ -115,4 +160,635 @@ class InMemoryPriorityQueueServiceTest {
         assertEquals("msg2", m2.getBody());
         assertEquals("msg3", m3.getBody());
     }
+
+    @Test
+    void testSamePriorityKeepsPushOrderAcrossPartitions() {
+        InMemoryPriorityQueueService partitioned = new InMemoryPriorityQueueService(4, true);
+        for (int i = 0; i < 10_000; i++) {
+            partitioned.push("q1", "m" + i, 1); // many pushes per millisecond
+        }
+
+        List<Message> pulled = partitioned.pull("q1", 10_000);
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals("m" + i, pulled.get(i).getBody());
+        }
+    }
+
+    @Test
+    void testPushBatchAndPullBatch() {
+        service.pushBatch("q1", List.of("a", "b", "c"));
+        service.push("q1", "urgent", 5);
+
+        List<Message> pulled = service.pull("q1", 2);
+        assertEquals(2, pulled.size());
+        assertEquals("urgent", pulled.get(0).getBody());
+
+        List<Message> rest = service.pull("q1", 10);
+        assertEquals(2, rest.size());
+
+        assertTrue(service.pull("q1", 10).isEmpty());
+    }
+
+    @Test
+    void testDeleteBatch() {
+        service.pushBatch("q1", List.of("a", "b"));
+        List<Message> pulled = service.pull("q1", 2);
+
+        service.deleteBatch("q1", List.of(pulled.get(0).getReceiptId(), pulled.get(1).getReceiptId()));
+
+        assertTrue(service.pull("q1", 10).isEmpty());
+    }
+
+    @Test
+    void testLongPollWakesOnPush() throws InterruptedException {
+        Thread producer = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ignored) {
+            }
+            service.push("q1", "late", 1);
+        });
+        producer.start();
+
+        long start = System.nanoTime();
+        Message msg = service.pull("q1", Duration.ofSeconds(10));
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        producer.join();
+
+        assertNotNull(msg);
+        assertEquals("late", msg.getBody());
+        assertTrue(elapsedMs < 5_000, "pull should return as soon as the message is pushed");
+    }
+
+    @Test
+    void testLongPollTimesOutOnEmptyQueue() {
+        long start = System.nanoTime();
+        Message msg = service.pull("q1", Duration.ofMillis(50));
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertNull(msg);
+        assertTrue(elapsedMs >= 50);
+    }
+
+    @Test
+    void testPersistentModeRecoversUndeletedMessages() throws Exception {
+        try (InMemoryPriorityQueueService durable = new InMemoryPriorityQueueService(dataDir)) {
+            durable.push("q1", "done", 5);
+            durable.push("q1", "leased", 3);
+            durable.push("q2", "other", 1);
+
+            durable.delete("q1", durable.pull("q1").getReceiptId());
+            assertEquals("leased", durable.pull("q1").getBody()); // in flight at shutdown
+        }
+
+        try (InMemoryPriorityQueueService restarted = new InMemoryPriorityQueueService(dataDir)) {
+            Message recovered = restarted.pull("q1");
+            assertNotNull(recovered);
+            assertEquals("leased", recovered.getBody());
+            assertNull(restarted.pull("q1"));
+            assertEquals("other", restarted.pull("q2").getBody());
+        }
+    }
+
+    @Test
+    void testRecordsAfterATornWriteAreNotReplayedLater() throws Exception {
+        try (InMemoryPriorityQueueService durable = new InMemoryPriorityQueueService(dataDir, 4096)) {
+            durable.push("q1", "a");
+            durable.push("q1", "b");
+            durable.push("q1", "c");
+        }
+        // Corrupt the body of "b", as a write torn by a crash would; "c" after it stays intact
+        Path segment;
+        try (Stream<Path> files = Files.list(dataDir)) {
+            segment = files.filter(p -> p.getFileName().toString().endsWith(".log")).findFirst().orElseThrow();
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(segment));
+        int second = 8 + bytes.getInt(0);
+        int third = second + 8 + bytes.getInt(second);
+        bytes.put(third - 1, (byte) 'x');
+        Files.write(segment, bytes.array());
+
+        try (InMemoryPriorityQueueService restarted = new InMemoryPriorityQueueService(dataDir, 4096)) {
+            assertEquals(1, restarted.gauges("q1").getDepth());
+            restarted.push("q1", "d"); // same size as "b": ends where the stale "c" began
+        }
+
+        try (InMemoryPriorityQueueService again = new InMemoryPriorityQueueService(dataDir, 4096)) {
+            List<Message> recovered = again.pull("q1", 10);
+            assertEquals(List.of("a", "d"), recovered.stream().map(Message::getBody).toList());
+        }
+    }
+
+    @Test
+    void testPersistentModeCompactsAcknowledgedSegments() throws Exception {
+        try (InMemoryPriorityQueueService durable = new InMemoryPriorityQueueService(dataDir, 4096)) {
+            for (int i = 0; i < 200; i++) {
+                durable.push("q1", "message-" + i, 0);
+            }
+            for (Message msg = durable.pull("q1"); msg != null; msg = durable.pull("q1")) {
+                durable.delete("q1", msg.getReceiptId());
+            }
+        }
+
+        try (var segments = Files.list(dataDir)) {
+            assertEquals(1, segments.count());
+        }
+        try (InMemoryPriorityQueueService restarted = new InMemoryPriorityQueueService(dataDir, 4096)) {
+            assertNull(restarted.pull("q1"));
+        }
+    }
+
+    @Test
+    void testPartitionedStrictModeKeepsGlobalPriorityOrder() {
+        InMemoryPriorityQueueService partitioned = new InMemoryPriorityQueueService(4, true);
+        for (int priority = 0; priority < 20; priority++) {
+            partitioned.push("q1", "p" + priority, priority);
+        }
+
+        for (int priority = 19; priority >= 0; priority--) {
+            assertEquals("p" + priority, partitioned.pull("q1").getBody());
+        }
+        assertNull(partitioned.pull("q1"));
+    }
+
+    @Test
+    void testOffHeapModeKeepsPriorityOrderAndLeases() {
+        InMemoryPriorityQueueService offHeap = new InMemoryPriorityQueueService(2, true, true);
+        for (int priority = 0; priority < 10; priority++) {
+            offHeap.push("q1", "p" + priority, priority);
+        }
+
+        Message first = offHeap.pull("q1");
+        assertEquals("p9", first.getBody());
+        assertTrue(offHeap.changeVisibility("q1", first.getReceiptId(), Duration.ZERO));
+        assertEquals("p9", offHeap.pull("q1").getBody());
+        for (int priority = 8; priority >= 0; priority--) {
+            assertEquals("p" + priority, offHeap.pull("q1").getBody());
+        }
+        assertNull(offHeap.pull("q1"));
+    }
+
+    @Test
+    void testPartitionedModeDeliversEachMessageOnce() throws InterruptedException {
+        InMemoryPriorityQueueService partitioned = new InMemoryPriorityQueueService(8, false);
+        int producers = 4;
+        int perProducer = 2_000;
+        Set<String> received = ConcurrentHashMap.newKeySet();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int id = p;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    partitioned.push("q1", id + "-" + i, i % 5);
+                }
+            }));
+        }
+        for (int c = 0; c < 4; c++) {
+            threads.add(new Thread(() -> {
+                while (received.size() < producers * perProducer) {
+                    Message msg = partitioned.pull("q1", Duration.ofMillis(50));
+                    if (msg != null) {
+                        assertTrue(received.add(msg.getBody()), "duplicate delivery");
+                        partitioned.delete("q1", msg.getReceiptId());
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join(30_000);
+        }
+
+        assertEquals(producers * perProducer, received.size());
+        assertTrue(partitioned.pull("q1", 10).isEmpty());
+    }
+
+    @Test
+    void testPoisonMessageMovesToDeadLetterQueue() {
+        AtomicLong clock = new AtomicLong(1_000);
+        InMemoryPriorityQueueService clocked = clockedService(clock);
+        clocked.setRedrivePolicy("q1", "q1-dlq", 2);
+        clocked.push("q1", "poison");
+
+        for (int receive = 0; receive < 2; receive++) {
+            assertEquals("poison", clocked.pull("q1").getBody());
+            clock.addAndGet(31_000); // let the lease expire without deleting
+        }
+
+        assertNull(clocked.pull("q1"));
+        Message dead = clocked.pull("q1-dlq");
+        assertNotNull(dead);
+        assertEquals("poison", dead.getBody());
+    }
+
+    @Test
+    void testReleasedMessageCountsTowardsDeadLettering() {
+        service.setRedrivePolicy("q1", "q1-dlq", 2);
+        service.push("q1", "poison");
+
+        for (int receive = 0; receive < 2; receive++) {
+            Message msg = service.pull("q1");
+            assertEquals("poison", msg.getBody());
+            assertTrue(service.changeVisibility("q1", msg.getReceiptId(), Duration.ZERO));
+        }
+
+        assertNull(service.pull("q1"));
+        assertEquals("poison", service.pull("q1-dlq").getBody());
+    }
+
+    @Test
+    void testRedriveMovesDeadLettersBackToSource() {
+        AtomicLong clock = new AtomicLong(1_000);
+        InMemoryPriorityQueueService clocked = clockedService(clock);
+        clocked.setRedrivePolicy("q1", "q1-dlq", 1);
+        clocked.pushBatch("q1", List.of("a", "b", "c"));
+
+        assertEquals(3, clocked.pull("q1", 10).size());
+        clock.addAndGet(31_000);
+        assertNull(clocked.pull("q1"));
+
+        assertEquals(3, clocked.redrive("q1-dlq", "q1"));
+        assertNull(clocked.pull("q1-dlq"));
+
+        // Receive counts start over, so each message gets maxReceiveCount new deliveries
+        List<Message> redriven = clocked.pull("q1", 10);
+        assertEquals(3, redriven.size());
+        clocked.deleteBatch("q1", redriven.stream().map(Message::getReceiptId).toList());
+        assertNull(clocked.pull("q1"));
+    }
+
+    @Test
+    void testDelayedMessageIsInvisibleUntilDelayElapses() {
+        AtomicLong clock = new AtomicLong(1_000);
+        InMemoryPriorityQueueService clocked = clockedService(clock);
+        clocked.pushDelayed("q1", "later", Duration.ofSeconds(5));
+        clocked.push("q1", "now");
+
+        assertEquals("now", clocked.pull("q1").getBody());
+        assertNull(clocked.pull("q1"));
+
+        clock.addAndGet(5_001);
+        assertEquals("later", clocked.pull("q1").getBody());
+    }
+
+    @Test
+    void testLongPollWakesWhenDelayElapses() {
+        service.pushDelayed("q1", "later", Duration.ofMillis(100));
+
+        Message msg = service.pull("q1", Duration.ofSeconds(5));
+
+        assertNotNull(msg);
+        assertEquals("later", msg.getBody());
+    }
+
+    @Test
+    void testPersistentModeKeepsDelays() throws Exception {
+        try (InMemoryPriorityQueueService persistent = new InMemoryPriorityQueueService(dataDir)) {
+            persistent.pushDelayed("q1", "later", Duration.ofHours(1));
+        }
+
+        try (InMemoryPriorityQueueService recovered = new InMemoryPriorityQueueService(dataDir)) {
+            assertNull(recovered.pull("q1"));
+        }
+    }
+
+    @Test
+    void testChangeVisibilityExtendsLease() {
+        AtomicLong clock = new AtomicLong(1_000);
+        InMemoryPriorityQueueService clocked = clockedService(clock);
+        clocked.push("q1", "long job");
+        Message msg = clocked.pull("q1");
+
+        clock.addAndGet(20_000);
+        assertTrue(clocked.changeVisibility("q1", msg.getReceiptId(), Duration.ofSeconds(60)));
+        clock.addAndGet(40_000); // past the original 30s lease, inside the extension
+        assertNull(clocked.pull("q1"));
+
+        clock.addAndGet(21_000);
+        assertEquals("long job", clocked.pull("q1").getBody());
+        assertFalse(clocked.changeVisibility("q1", msg.getReceiptId(), Duration.ofSeconds(60)));
+    }
+
+    @Test
+    void testChangeVisibilityToZeroReleasesMessage() {
+        service.push("q1", "hello");
+        Message msg = service.pull("q1");
+
+        assertTrue(service.changeVisibility("q1", msg.getReceiptId(), Duration.ZERO));
+        assertEquals("hello", service.pull("q1").getBody());
+    }
+
+    @Test
+    void testPerQueueAndPullTimeVisibilityTimeouts() {
+        AtomicLong clock = new AtomicLong(1_000);
+        InMemoryPriorityQueueService clocked = clockedService(clock);
+        clocked.setVisibilityTimeout("short", Duration.ofSeconds(1));
+        clocked.push("short", "a");
+        clocked.push("override", "b");
+
+        assertNotNull(clocked.pull("short"));
+        assertEquals(1, clocked.pull("override", 1, Duration.ofSeconds(2)).size());
+
+        clock.addAndGet(1_001);
+        assertEquals("a", clocked.pull("short").getBody());
+        assertNull(clocked.pull("override"));
+        clock.addAndGet(1_000);
+        assertEquals("b", clocked.pull("override").getBody());
+    }
+
+    @Test
+    void testMetricsCountOperationsAndDwellTime() {
+        AtomicLong clock = new AtomicLong(1_000);
+        InMemoryPriorityQueueService clocked = clockedService(clock);
+        clocked.pushBatch("q1", List.of("a", "b"));
+
+        Message first = clocked.pull("q1");
+        clock.addAndGet(31_000); // first lease expires, so "a" or "b" is delivered again
+        List<Message> all = clocked.pull("q1", 10);
+        clocked.deleteBatch("q1", all.stream().map(Message::getReceiptId).toList());
+
+        QueueMetrics metrics = clocked.metrics("q1");
+        assertEquals(2, metrics.getPushed());
+        assertEquals(3, metrics.getDelivered());
+        assertEquals(1, metrics.getRedelivered());
+        assertEquals(2, metrics.getDeleted());
+        assertEquals(2, metrics.getAttemptsAtDelete().getMax());
+        assertEquals(2, metrics.getPullLatency().getCount());
+        assertNotNull(first);
+    }
+
+    @Test
+    void testRejectPolicyRefusesPushUntilRoomIsFreed() {
+        service.setQueueLimits("q1", 2, 0, OverflowPolicy.REJECT, Duration.ZERO);
+        service.push("q1", "a");
+        service.push("q1", "b");
+
+        assertThrows(QueueFullException.class, () -> service.push("q1", "c"));
+        assertThrows(QueueFullException.class, () -> service.pushBatch("q1", List.of("x", "y", "z")));
+        Message leased = service.pull("q1");
+        assertThrows(QueueFullException.class, () -> service.push("q1", "c")); // in flight still counts
+        service.delete("q1", leased.getReceiptId());
+        service.push("q1", "c");
+        assertEquals(5, service.metrics("q1").getRejected());
+    }
+
+    @Test
+    void testBlockPolicyWaitsForDelete() throws InterruptedException {
+        service.setQueueLimits("q1", 0, 5, OverflowPolicy.BLOCK, Duration.ofSeconds(10));
+        service.push("q1", "12345");
+        Message leased = service.pull("q1");
+        Thread consumer = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ignored) {
+            }
+            service.delete("q1", leased.getReceiptId());
+        });
+        consumer.start();
+
+        service.push("q1", "next"); // blocks until the delete
+        consumer.join();
+        assertEquals("next", service.pull("q1").getBody());
+    }
+
+    @Test
+    void testBlockPolicyRejectsAfterTimeout() {
+        service.setQueueLimits("q1", 1, 0, OverflowPolicy.BLOCK, Duration.ofMillis(50));
+        service.push("q1", "a");
+
+        long start = System.nanoTime();
+        assertThrows(QueueFullException.class, () -> service.push("q1", "b"));
+        assertTrue(System.nanoTime() - start >= 50_000_000L);
+    }
+
+    @Test
+    void testDropLowestDiscardsLowerPriorityMessages() {
+        InMemoryPriorityQueueService partitioned = new InMemoryPriorityQueueService(2, true);
+        partitioned.setQueueLimits("q1", 3, 0, OverflowPolicy.DROP_LOWEST, Duration.ZERO);
+        partitioned.push("q1", "low", 1);
+        partitioned.push("q1", "lowest", 0);
+        partitioned.push("q1", "high", 5);
+
+        partitioned.push("q1", "urgent", 9);
+        assertThrows(QueueFullException.class, () -> partitioned.push("q1", "too-low", 0));
+
+        assertEquals("urgent", partitioned.pull("q1").getBody());
+        assertEquals("high", partitioned.pull("q1").getBody());
+        assertEquals("low", partitioned.pull("q1").getBody());
+        assertNull(partitioned.pull("q1"));
+        assertEquals(1, partitioned.metrics("q1").getDropped());
+    }
+
+    @Test
+    void testMemoryBudgetSpansQueues() {
+        Properties config = new Properties();
+        config.setProperty("memoryBudget", "10");
+        InMemoryPriorityQueueService budgeted = new InMemoryPriorityQueueService(config);
+        budgeted.push("q1", "12345");
+        budgeted.push("q2", "1234");
+
+        assertThrows(QueueFullException.class, () -> budgeted.push("q3", "12"));
+        budgeted.delete("q1", budgeted.pull("q1").getReceiptId());
+        budgeted.push("q3", "12");
+    }
+
+    @Test
+    void testQueueLimitRefusalsDoNotUseUpMemoryBudget() {
+        Properties config = new Properties();
+        config.setProperty("memoryBudget", "1000");
+        InMemoryPriorityQueueService budgeted = new InMemoryPriorityQueueService(config);
+        budgeted.setQueueLimits("q1", 1, 0, OverflowPolicy.REJECT, Duration.ZERO);
+        budgeted.push("q1", "a");
+        for (int i = 0; i < 2_000; i++) {
+            assertThrows(QueueFullException.class, () -> budgeted.push("q1", "b"));
+        }
+        budgeted.setQueueLimits("q2", 1, 0, OverflowPolicy.BLOCK, Duration.ofMillis(20));
+        budgeted.push("q2", "a");
+        assertThrows(QueueFullException.class, () -> budgeted.push("q2", "b"));
+
+        budgeted.push("q3", "12345");
+        assertEquals("12345", budgeted.pull("q3").getBody());
+    }
+
+    @Test
+    void testPushDeduplicatedSkipsRepeatsWithinWindow() {
+        AtomicLong clock = new AtomicLong(1_000_000);
+        InMemoryPriorityQueueService clocked = clockedService(clock);
+        clocked.setDeduplicationWindow("q1", Duration.ofMinutes(5));
+
+        assertTrue(clocked.pushDeduplicated("q1", "charge", "order-42"));
+        assertFalse(clocked.pushDeduplicated("q1", "charge again", "order-42"));
+        assertTrue(clocked.pushDeduplicated("q1", "body", null));
+        assertFalse(clocked.pushDeduplicated("q1", "body", null)); // same content
+        assertTrue(clocked.pushDeduplicated("q2", "charge", "order-42")); // ids are per queue
+
+        clock.addAndGet(Duration.ofMinutes(5).toMillis());
+        assertTrue(clocked.pushDeduplicated("q1", "charge", "order-42"));
+        assertEquals(3, clocked.pull("q1", 10).size());
+        assertEquals(2, clocked.metrics("q1").getDeduplicated());
+    }
+
+    @Test
+    void testRejectedPushDoesNotClaimDeduplicationId() {
+        service.setQueueLimits("q1", 1, 0, OverflowPolicy.REJECT, Duration.ZERO);
+        service.push("q1", "filler");
+
+        assertThrows(QueueFullException.class, () -> service.pushDeduplicated("q1", "retry me", "id-1"));
+        service.delete("q1", service.pull("q1").getReceiptId());
+        assertTrue(service.pushDeduplicated("q1", "retry me", "id-1"));
+    }
+
+    @Test
+    void testGaugesReflectQueueState() {
+        AtomicLong clock = new AtomicLong(System.currentTimeMillis());
+        InMemoryPriorityQueueService clocked = clockedService(clock);
+        clocked.pushBatch("q1", List.of("a", "b", "c"));
+        clocked.pushDelayed("q1", "later", Duration.ofMinutes(1));
+        clocked.pull("q1");
+        clock.set(System.currentTimeMillis() + 5_000);
+
+        QueueMetrics.Gauges gauges = clocked.gauges("q1");
+        assertEquals(2, gauges.getDepth());
+        assertEquals(1, gauges.getInFlight());
+        assertEquals(1, gauges.getDelayed());
+        assertTrue(gauges.getOldestAgeMillis() >= 5_000);
+        assertEquals(0, clocked.gauges("unknown").getDepth());
+    }
+
+    @Test
+    void testPullAnyKeepsHotQueueFromStarvingOthers() {
+        for (int i = 0; i < 1_000; i++) {
+            service.push("hot", "h" + i);
+        }
+        for (int i = 0; i < 10; i++) {
+            service.push("cold", "c" + i);
+        }
+
+        int cold = 0;
+        for (int i = 0; i < 20; i++) {
+            if (service.pullAny(Set.of("hot", "cold")).getQueueUrl().equals("cold")) {
+                cold++;
+            }
+        }
+        assertEquals(10, cold);
+    }
+
+    @Test
+    void testPullAnySharesByWeight() {
+        service.setWeight("a", 3);
+        for (int i = 0; i < 100; i++) {
+            service.push("a", "a" + i);
+            service.push("b", "b" + i);
+            service.push("ignored", "x" + i);
+        }
+
+        List<Message> pulled = service.pullAny(Set.of("a", "b"), 40);
+        assertEquals(40, pulled.size());
+        assertEquals(30, pulled.stream().filter(m -> m.getQueueUrl().equals("a")).count());
+        assertEquals(10, pulled.stream().filter(m -> m.getQueueUrl().equals("b")).count());
+        assertEquals(0, service.metrics("ignored").getDelivered());
+        assertThrows(IllegalArgumentException.class, () -> service.setWeight("a", 0));
+    }
+
+    @Test
+    void testPullAnyWakesForDelayedAndExpiredMessages() {
+        AtomicLong clock = new AtomicLong(System.currentTimeMillis());
+        InMemoryPriorityQueueService clocked = clockedService(clock);
+        clocked.pushDelayed("q1", "later", Duration.ofSeconds(10));
+        assertNull(clocked.pullAny(Set.of("q1")));
+
+        clock.addAndGet(11_000);
+        Message msg = clocked.pullAny(Set.of("q1"));
+        assertEquals("later", msg.getBody());
+        assertEquals("q1", msg.getQueueUrl());
+        assertNull(clocked.pullAny(Set.of("q1")));
+
+        clock.addAndGet(31_000); // the lease expires without a delete
+        msg = clocked.pullAny(Set.of("q1"));
+        assertEquals("later", msg.getBody());
+        clocked.delete(msg.getQueueUrl(), msg.getReceiptId());
+        assertEquals(1, clocked.metrics("q1").getDeleted());
+        assertTrue(clocked.pullAny(Set.of("q1"), 10).isEmpty());
+    }
+
+    @Test
+    void testCompressedBodiesCountTheirStoredSize() {
+        String body = "{\"items\": [" + "{\"sku\": \"A-100\", \"qty\": 1}, ".repeat(40) + "]}";
+        service.setCompression("q1", 100);
+        service.setQueueLimits("q1", 0, 2_000, OverflowPolicy.REJECT, Duration.ZERO);
+
+        for (int i = 0; i < 10; i++) {
+            service.push("q1", body); // 10x the limit uncompressed
+        }
+        service.push("q1", "small");
+
+        List<Message> pulled = service.pull("q1", 20);
+        assertEquals(11, pulled.size());
+        assertNotNull(pulled.get(0).getPackedBody()); // decompressed only when read
+        assertEquals(body, pulled.get(0).getBody());
+        assertNull(pulled.get(10).getPackedBody());
+        assertEquals("small", pulled.get(10).getBody());
+    }
+
+    @Test
+    void testLargeBodiesGoToBlobStore() throws Exception {
+        Properties conf = new Properties();
+        conf.setProperty("blobDirectory", dataDir.toString());
+        InMemoryPriorityQueueService blobbed = new InMemoryPriorityQueueService(conf);
+        blobbed.setBlobThreshold("q1", 1_000);
+        String large = "x".repeat(5_000);
+        blobbed.push("q1", large, 2);
+        blobbed.push("q1", "small", 1);
+        try (Stream<Path> blobs = Files.list(dataDir)) {
+            assertEquals(1, blobs.count());
+        }
+
+        Message msg = blobbed.pull("q1");
+        assertEquals(large, msg.getBody());
+        assertEquals("small", blobbed.pull("q1").getBody());
+        blobbed.delete("q1", msg.getReceiptId());
+        try (Stream<Path> blobs = Files.list(dataDir)) {
+            assertEquals(0, blobs.count());
+        }
+    }
+
+    @Test
+    void testBlobBodyOutlivesRedeliveryAndDelete() {
+        Properties conf = new Properties();
+        conf.setProperty("blobDirectory", dataDir.toString());
+        InMemoryPriorityQueueService blobbed = new InMemoryPriorityQueueService(conf);
+        blobbed.setBlobThreshold("q1", 1_000);
+        String large = "x".repeat(5_000);
+        blobbed.push("q1", large);
+
+        Message first = blobbed.pull("q1");
+        blobbed.changeVisibility("q1", first.getReceiptId(), Duration.ZERO); // lease given up unread
+        Message second = blobbed.pull("q1");
+        blobbed.delete("q1", second.getReceiptId());
+
+        assertEquals(large, first.getBody());
+        assertEquals(large, second.getBody());
+    }
+
+    @Test
+    void testPackedBodiesSurviveOffHeapQueue() {
+        InMemoryPriorityQueueService offHeap = new InMemoryPriorityQueueService(1, false, true);
+        offHeap.setCompression("q1", 100);
+        String body = "abc".repeat(1_000);
+        offHeap.push("q1", body);
+        offHeap.push("q1", "plain");
+
+        assertEquals(body, offHeap.pull("q1").getBody());
+        assertEquals("plain", offHeap.pull("q1").getBody());
+    }
+
+    private static InMemoryPriorityQueueService clockedService(AtomicLong clock) {
+        return new InMemoryPriorityQueueService() {
+            @Override
+            long now() {
+                return clock.get();
+            }
+        };
+    }
 }
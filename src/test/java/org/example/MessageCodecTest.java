@@ -0,0 +1,86 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageCodecTest {
+
+    @Test
+    void testRoundTripKeepsAllFields() {
+        Message msg = new Message("hello", 7);
+        msg.setCreatedAt(1_700_000_000_123L);
+        msg.setAttempts(3);
+        msg.setVisibleFrom(1_700_000_030_123L);
+
+        Message decoded = MessageCodec.decode(MessageCodec.encode(msg));
+
+        assertEquals("hello", decoded.getBody());
+        assertEquals(7, decoded.getPriority());
+        assertEquals(1_700_000_000_123L, decoded.getCreatedAt());
+        assertEquals(3, decoded.getAttempts());
+        assertEquals(1_700_000_030_123L, decoded.getVisibleFrom());
+    }
+
+    @Test
+    void testBodiesNeedNoEscaping() {
+        String body = "{\"quoted\": \"value\"} \\ ' \n\t \u0000 é中😀";
+        Message decoded = MessageCodec.decode(MessageCodec.encode(new Message(body, 0)));
+        assertEquals(body, decoded.getBody());
+    }
+
+    @Test
+    void testEncodedSizeMatchesOutput() {
+        Message msg = new Message("é中😀 ascii", 1);
+        assertEquals(MessageCodec.encodedSize(msg), MessageCodec.encode(msg).length);
+    }
+
+    @Test
+    void testQueueLimitsCountBodiesAsEncoded() {
+        Message msg = new Message("a\uD800b\uDC00 é中😀", 1); // two unpaired surrogates
+        long encodedBody = MessageCodec.encode(msg).length - MessageCodec.encodedSize(new Message("", 1));
+        assertEquals(encodedBody, MessageCodec.utf8Length(msg.getBody()));
+        assertEquals(encodedBody, QueueLimits.bodyBytes(msg));
+    }
+
+    @Test
+    void testSeveralMessagesInOneDirectBuffer() {
+        Message first = new Message("first", 1);
+        Message second = new Message("second", 2);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(MessageCodec.encodedSize(first) + MessageCodec.encodedSize(second));
+
+        MessageCodec.encode(first, buffer);
+        MessageCodec.encode(second, buffer);
+        buffer.flip();
+
+        assertEquals("first", MessageCodec.decode(buffer).getBody());
+        assertEquals("second", MessageCodec.decode(buffer).getBody());
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    void testPackedBodyStaysCompressed() {
+        String body = "{\"k\": \"v\"} ".repeat(500);
+        Message msg = new Message(body, 4);
+        msg.setPackedBody(PackedBody.pack(body, 100, Long.MAX_VALUE, null));
+        msg.releaseBody();
+
+        byte[] encoded = MessageCodec.encode(msg);
+        assertEquals(MessageCodec.encodedSize(msg), encoded.length);
+        assertTrue(encoded.length < body.length() / 4);
+
+        Message decoded = MessageCodec.decode(encoded);
+        assertNotNull(decoded.getPackedBody());
+        assertEquals(4, decoded.getPriority());
+        assertEquals(body, decoded.getBody());
+    }
+
+    @Test
+    void testUnknownVersionIsRejected() {
+        byte[] bytes = MessageCodec.encode(new Message("hello", 0));
+        bytes[0] = 99;
+        assertThrows(IllegalArgumentException.class, () -> MessageCodec.decode(bytes));
+    }
+}
@@ -0,0 +1,114 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapReadyQueueTest {
+
+    private static Message message(String body, int priority, long sequence) {
+        Message msg = new Message(body, priority);
+        msg.setSequence(sequence);
+        return msg;
+    }
+
+    @Test
+    void testPollRestoresAllFields() {
+        OffHeapReadyQueue ready = new OffHeapReadyQueue();
+        Message msg = message("héllo wörld ✓", 3, 77);
+        msg.setCreatedAt(1_234);
+        msg.setAttempts(2);
+        msg.setId(42);
+        ready.add(msg);
+
+        assertEquals(3, ready.headPriority());
+        assertEquals(77, ready.headSequence());
+        assertEquals(1_234, ready.headCreatedAt());
+        Message polled = ready.poll();
+        assertEquals("héllo wörld ✓", polled.getBody());
+        assertEquals(3, polled.getPriority());
+        assertEquals(77, polled.getSequence());
+        assertEquals(1_234, polled.getCreatedAt());
+        assertEquals(2, polled.getAttempts());
+        assertEquals(42, polled.getId());
+        assertNull(ready.poll());
+        assertTrue(ready.isEmpty());
+    }
+
+    @Test
+    void testMatchesOnHeapOrder() {
+        ReadyQueue onHeap = new ReadyQueue.OnHeap();
+        OffHeapReadyQueue offHeap = new OffHeapReadyQueue();
+        Random random = new Random(7);
+
+        for (int i = 0; i < 10_000; i++) {
+            Message msg = message("m" + i, random.nextInt(10), i);
+            onHeap.add(msg);
+            offHeap.add(msg);
+            if (random.nextInt(3) == 0) {
+                assertEquals(onHeap.poll().getBody(), offHeap.poll().getBody());
+            }
+        }
+        assertEquals(onHeap.size(), offHeap.size());
+        while (!onHeap.isEmpty()) {
+            assertEquals(onHeap.poll().getBody(), offHeap.poll().getBody());
+        }
+        assertTrue(offHeap.isEmpty());
+    }
+
+    @Test
+    void testPollLastRemovesLowestPriorityNewestMessage() {
+        OffHeapReadyQueue ready = new OffHeapReadyQueue();
+        ReadyQueue onHeap = new ReadyQueue.OnHeap();
+        Random random = new Random(11);
+        for (int i = 0; i < 1_000; i++) {
+            Message msg = message("m" + i, random.nextInt(5), i);
+            ready.add(msg);
+            onHeap.add(msg);
+        }
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(onHeap.lastPriority(), ready.lastPriority());
+            assertEquals(onHeap.pollLast().getBody(), ready.pollLast().getBody());
+        }
+        while (!onHeap.isEmpty()) {
+            assertEquals(onHeap.poll().getBody(), ready.poll().getBody());
+        }
+        assertNull(ready.pollLast());
+    }
+
+    @Test
+    void testFreedSlotsAreReused() {
+        OffHeapReadyQueue ready = new OffHeapReadyQueue();
+        for (int i = 0; i < 1_000; i++) {
+            ready.add(message("body-" + i, 0, i));
+        }
+        long reserved = ready.offHeapBytes();
+
+        for (int round = 0; round < 10; round++) {
+            List<Message> polled = new ArrayList<>();
+            Message msg;
+            while ((msg = ready.poll()) != null) {
+                polled.add(msg);
+            }
+            polled.forEach(ready::add);
+        }
+        assertEquals(reserved, ready.offHeapBytes());
+        assertEquals(1_000, ready.size());
+    }
+
+    @Test
+    void testLargeBodies() {
+        OffHeapReadyQueue ready = new OffHeapReadyQueue();
+        String large = "x".repeat(3_000_000);
+        ready.add(message(large, 1, 1));
+        ready.add(message("", 0, 2));
+
+        assertEquals(large, ready.poll().getBody());
+        assertEquals("", ready.poll().getBody());
+    }
+}
@@ -0,0 +1,65 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.example.TestSupport.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class PrefetchingConsumerTest {
+
+    private final InMemoryPriorityQueueService service = new InMemoryPriorityQueueService();
+
+    @Test
+    void testMessagesArePrefetchedInBatches() throws Exception {
+        service.pushBatch("q1", List.of("a", "b", "c", "d", "e"));
+
+        try (PrefetchingConsumer consumer = new PrefetchingConsumer(service, "q1", 5, 10,
+                Duration.ofSeconds(30), Duration.ofSeconds(5))) {
+            Set<String> bodies = new HashSet<>();
+            for (int i = 0; i < 5; i++) {
+                Message msg = consumer.pull(Duration.ofSeconds(5));
+                assertNotNull(msg);
+                bodies.add(msg.getBody());
+                consumer.delete(msg.getReceiptId());
+            }
+            assertEquals(Set.of("a", "b", "c", "d", "e"), bodies);
+        }
+        assertEquals(5, service.metrics("q1").getDelivered());
+        assertEquals(5, service.metrics("q1").getDeleted());
+    }
+
+    @Test
+    void testStaleLeasesAreReleasedNotHandedOut() throws Exception {
+        service.push("q1", "hello");
+
+        try (PrefetchingConsumer consumer = new PrefetchingConsumer(service, "q1", 1, 1,
+                Duration.ofMillis(300), Duration.ofMillis(250))) {
+            waitUntil(() -> consumer.buffered() == 1);
+            Thread.sleep(100); // less than 250ms of the lease is left now
+
+            Message msg = consumer.pull(Duration.ofSeconds(5));
+            assertNotNull(msg);
+            consumer.delete(msg.getReceiptId());
+        }
+        // The stale lease went back to the queue and the message was leased again
+        assertTrue(service.metrics("q1").getRedelivered() >= 1);
+        assertEquals(1, service.metrics("q1").getDeleted());
+    }
+
+    @Test
+    void testCloseReleasesBufferedMessages() throws Exception {
+        service.pushBatch("q1", List.of("a", "b"));
+
+        PrefetchingConsumer consumer = new PrefetchingConsumer(service, "q1", 2, 2,
+                Duration.ofSeconds(30), Duration.ofSeconds(5));
+        waitUntil(() -> consumer.buffered() == 2);
+        consumer.close();
+
+        assertEquals(2, service.pull("q1", 10).size());
+    }
+}
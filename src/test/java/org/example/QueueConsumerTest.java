@@ -0,0 +1,97 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.example.TestSupport.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueueConsumerTest {
+
+    private final InMemoryPriorityQueueService service = new InMemoryPriorityQueueService();
+
+    @Test
+    void testHandledMessagesAreDeleted() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            service.push("q1", "m" + i);
+        }
+        Set<String> handled = ConcurrentHashMap.newKeySet();
+
+        try (QueueConsumer consumer = new QueueConsumer(service, "q1", msg -> handled.add(msg.getBody()))) {
+            waitUntil(() -> service.metrics("q1").getDeleted() == 100);
+        }
+        assertEquals(100, handled.size());
+        assertNull(service.pull("q1"));
+    }
+
+    @Test
+    void testConcurrencyIsBounded() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            service.push("q1", "m" + i);
+        }
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+
+        try (QueueConsumer consumer = new QueueConsumer(service, "q1", msg -> {
+            peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(20);
+            running.decrementAndGet();
+        }, 5, Duration.ofSeconds(30))) {
+            waitUntil(() -> service.metrics("q1").getDeleted() == 50);
+        }
+        assertTrue(peak.get() <= 5, "peak concurrency " + peak.get());
+        assertTrue(peak.get() > 1);
+    }
+
+    @Test
+    void testFailedMessageIsNotDeleted() throws Exception {
+        service.push("q1", "poison");
+        CountDownLatch attempted = new CountDownLatch(1);
+
+        try (QueueConsumer consumer = new QueueConsumer(service, "q1", msg -> {
+            attempted.countDown();
+            throw new IllegalStateException("handler failed");
+        })) {
+            assertTrue(attempted.await(5, TimeUnit.SECONDS));
+        }
+        assertEquals(0, service.metrics("q1").getDeleted());
+        assertEquals(1, service.gauges("q1").getInFlight()); // back once the lease expires
+    }
+
+    @Test
+    void testLeaseIsExtendedWhileHandlerRuns() throws Exception {
+        service.push("q1", "slow");
+        AtomicInteger calls = new AtomicInteger();
+
+        try (QueueConsumer consumer = new QueueConsumer(service, "q1", msg -> {
+            calls.incrementAndGet();
+            Thread.sleep(1_000); // several times the lease
+        }, 10, Duration.ofMillis(300))) {
+            waitUntil(() -> service.metrics("q1").getDeleted() == 1);
+        }
+        assertEquals(1, calls.get());
+        assertEquals(0, service.metrics("q1").getRedelivered());
+    }
+
+    @Test
+    void testCloseDrainsRunningHandlers() throws Exception {
+        service.push("q1", "in-progress");
+        CountDownLatch started = new CountDownLatch(1);
+
+        QueueConsumer consumer = new QueueConsumer(service, "q1", msg -> {
+            started.countDown();
+            Thread.sleep(300);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertTrue(consumer.close(Duration.ofSeconds(5)));
+        assertEquals(1, service.metrics("q1").getDeleted());
+        assertEquals(0, consumer.inFlight());
+    }
+}
@@ -0,0 +1,148 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.example.TestSupport.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueuePublisherTest {
+
+    private final InMemoryPriorityQueueService service = new InMemoryPriorityQueueService();
+
+    /** Subscriber that records signals and leaves demand to the test. */
+    private static class RecordingSubscriber implements Flow.Subscriber<Message> {
+        final CompletableFuture<Flow.Subscription> subscription = new CompletableFuture<>();
+        final BlockingQueue<Message> received = new LinkedBlockingQueue<>();
+        final CompletableFuture<Throwable> terminated = new CompletableFuture<>();
+
+        @Override
+        public void onSubscribe(Flow.Subscription s) {
+            subscription.complete(s);
+        }
+
+        @Override
+        public void onNext(Message message) {
+            received.add(message);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            terminated.complete(t);
+        }
+
+        @Override
+        public void onComplete() {
+            terminated.complete(null);
+        }
+
+        Flow.Subscription subscription() throws Exception {
+            return subscription.get(5, TimeUnit.SECONDS);
+        }
+
+        Message next() throws InterruptedException {
+            return received.poll(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void testLeasesOnlyWhatWasRequested() throws Exception {
+        service.pushBatch("q1", List.of("a", "b", "c", "d", "e"));
+        try (QueuePublisher publisher = new QueuePublisher(service, "q1")) {
+            RecordingSubscriber subscriber = new RecordingSubscriber();
+            publisher.subscribe(subscriber);
+            subscriber.subscription().request(2);
+
+            assertNotNull(subscriber.next());
+            assertNotNull(subscriber.next());
+            Thread.sleep(100);
+            assertTrue(subscriber.received.isEmpty());
+            assertEquals(2, service.metrics("q1").getDelivered());
+            assertEquals(3, service.gauges("q1").getDepth());
+        }
+    }
+
+    @Test
+    void testAckDeletesAndNackReleases() throws Exception {
+        service.pushBatch("q1", List.of("a", "b"));
+        try (QueuePublisher publisher = new QueuePublisher(service, "q1")) {
+            RecordingSubscriber subscriber = new RecordingSubscriber();
+            publisher.subscribe(subscriber);
+            subscriber.subscription().request(2);
+
+            publisher.ack(subscriber.next());
+            publisher.nack(subscriber.next());
+        }
+        assertEquals(1, service.metrics("q1").getDeleted());
+        assertNotNull(service.pull("q1"));
+    }
+
+    @Test
+    void testUnackedMessagesHoldBackLeasing() throws Exception {
+        service.pushBatch("q1", List.of("a", "b", "c", "d"));
+        try (QueuePublisher publisher = new QueuePublisher(service, "q1", Duration.ofSeconds(30), 2)) {
+            RecordingSubscriber subscriber = new RecordingSubscriber();
+            publisher.subscribe(subscriber);
+            subscriber.subscription().request(Long.MAX_VALUE);
+
+            Message first = subscriber.next();
+            assertNotNull(subscriber.next());
+            Thread.sleep(100);
+            assertEquals(2, service.metrics("q1").getDelivered()); // the rest stays on the queue
+
+            publisher.ack(first);
+            assertNotNull(subscriber.next());
+        }
+    }
+
+    @Test
+    void testNonPositiveRequestSignalsError() throws Exception {
+        try (QueuePublisher publisher = new QueuePublisher(service, "q1")) {
+            RecordingSubscriber subscriber = new RecordingSubscriber();
+            publisher.subscribe(subscriber);
+            subscriber.subscription().request(0);
+
+            assertTrue(subscriber.terminated.get(5, TimeUnit.SECONDS) instanceof IllegalArgumentException);
+        }
+    }
+
+    @Test
+    void testCancelFromOnNextDoesNotInterruptTheSubscriber() throws Exception {
+        service.pushBatch("q1", List.of("a", "b", "c"));
+        CompletableFuture<Boolean> interrupted = new CompletableFuture<>();
+        try (QueuePublisher publisher = new QueuePublisher(service, "q1")) {
+            RecordingSubscriber subscriber = new RecordingSubscriber() {
+                @Override
+                public void onNext(Message message) {
+                    super.onNext(message);
+                    subscription.join().cancel();
+                    interrupted.complete(Thread.currentThread().isInterrupted());
+                }
+            };
+            publisher.subscribe(subscriber);
+            subscriber.subscription().request(3);
+
+            assertFalse(interrupted.get(5, TimeUnit.SECONDS));
+            waitUntil(() -> service.gauges("q1").getDepth() == 2); // the rest of the batch is released
+            assertEquals(1, subscriber.received.size());
+        }
+    }
+
+    @Test
+    void testCloseCompletesSubscribers() throws Exception {
+        QueuePublisher publisher = new QueuePublisher(service, "q1");
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription().request(1); // long-polling the empty queue
+
+        publisher.close();
+        assertNull(subscriber.terminated.get(5, TimeUnit.SECONDS));
+    }
+}
@@ -3,11 +3,16 @@ package org.example;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
 
+import static org.example.TestSupport.*;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
@@ -20,49 +25,76 @@ class RedisQueueServiceTest {
     @BeforeEach
     void setUp() {
         client = mock(HttpClient.class);
-        service = new RedisQueueService(client);
+        service = new RedisQueueService(client, "http://localhost:8079", "token");
         objectMapper = new ObjectMapper();
     }
 
     @Test
     void testPushSuccess() throws Exception {
-        HttpResponse<String> mockResponse = mock(HttpResponse.class);
-        when(mockResponse.statusCode()).thenReturn(200);
+        HttpResponse<String> mockResponse = response("{\"result\":1}");
         when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
                 .thenReturn(mockResponse);
 
         assertDoesNotThrow(() -> service.push("myQueue", "hello"));
+
+        String body = bodyOf(lastRequest(1));
+        assertTrue(body.contains("EVALSHA"));
+        assertTrue(body.contains("{myQueue}:ready"));
     }
 
     @Test
-    void testPullReturnsMessage() throws Exception {
-        Message msg = new Message("hello", 0);
-        String msgJson = objectMapper.writeValueAsString(msg);
+    void testPushEscapesBody() throws Exception {
+        HttpResponse<String> mockResponse = response("{\"result\":1}");
+        when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(mockResponse);
+
+        service.push("myQueue", "say \"hi\" ' \\ done", 3);
+
+        // The request body must still be a well-formed JSON command array
+        List<?> command = objectMapper.readValue(bodyOf(lastRequest(1)), List.class);
+        assertEquals("EVALSHA", command.get(0));
+        assertEquals("3", command.get(7)); // priority follows the 4 keys
+    }
+
+    @Test
+    void testPushCompressesLargeBodies() throws Exception {
+        HttpResponse<String> mockResponse = response("{\"result\":1}");
+        when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(mockResponse);
+        String body = "{\"payload\": \"" + "abcdef".repeat(2_000) + "\"}";
+
+        service.setCompression("myQueue", 1_024);
+        service.push("myQueue", body);
 
-        HttpResponse<String> rpopResponse = mock(HttpResponse.class);
-        when(rpopResponse.statusCode()).thenReturn(200);
-        when(rpopResponse.body()).thenReturn(msgJson);
+        List<?> command = objectMapper.readValue(bodyOf(lastRequest(1)), List.class);
+        String payload = (String) command.get(9); // after the 4 keys, priority and push time
+        assertTrue(payload.length() < body.length() / 10);
+        Message stored = RedisQueueService.decode(payload);
+        assertNotNull(stored.getPackedBody());
+        assertEquals(body, stored.getBody());
+    }
 
-        HttpResponse<String> inflightResponse = mock(HttpResponse.class);
-        when(inflightResponse.statusCode()).thenReturn(200);
+    @Test
+    void testPullReturnsMessage() throws Exception {
+        String payload = RedisQueueService.encode(new Message("hello", 0));
 
+        HttpResponse<String> pullResponse = response(
+                objectMapper.writeValueAsString(Map.of("result", List.of("0000000000000001:0/r1", payload, 1))));
         when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
-                .thenReturn(rpopResponse)      // first call = RPOP
-                .thenReturn(inflightResponse); // second call = HSET inflight
+                .thenReturn(pullResponse); // a single EVAL pops and leases atomically
 
         Message pulled = service.pull("myQueue");
 
         assertNotNull(pulled);
         assertEquals("hello", pulled.getBody());
-        assertNotNull(pulled.getReceiptId());
+        assertEquals("0000000000000001:0/r1", pulled.getReceiptId());
+        assertEquals(1, pulled.getAttempts());
+        verify(client, times(1)).send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class));
     }
 
     @Test
     void testPullEmptyQueue() throws Exception {
-        HttpResponse<String> mockResponse = mock(HttpResponse.class);
-        when(mockResponse.statusCode()).thenReturn(200);
-        when(mockResponse.body()).thenReturn("null");
-
+        HttpResponse<String> mockResponse = response("{\"result\":[]}");
         when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
                 .thenReturn(mockResponse);
 
@@ -72,21 +104,15 @@ class RedisQueueServiceTest {
 
     @Test
     void testDoublePullReturnsNull() throws Exception {
-        // First pull returns a message
-        Message msg = new Message("hello", 0);
-        String msgJson = objectMapper.writeValueAsString(msg);
+        String payload = RedisQueueService.encode(new Message("hello", 0));
 
-        HttpResponse<String> rpopResponse = mock(HttpResponse.class);
-        when(rpopResponse.statusCode()).thenReturn(200);
-        when(rpopResponse.body()).thenReturn(msgJson);
-
-        HttpResponse<String> inflightResponse = mock(HttpResponse.class);
-        when(inflightResponse.statusCode()).thenReturn(200);
+        HttpResponse<String> firstResponse = response(
+                objectMapper.writeValueAsString(Map.of("result", List.of("0000000000000001:0/r1", payload, 1))));
+        HttpResponse<String> secondResponse = response("{\"result\":[]}"); // leased message is not visible
 
         when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
-                .thenReturn(rpopResponse)
-                .thenReturn(inflightResponse)
-                .thenReturn(mock(HttpResponse.class)); // second pull => nothing
+                .thenReturn(firstResponse)
+                .thenReturn(secondResponse);
 
         Message pulled1 = service.pull("myQueue");
         Message pulled2 = service.pull("myQueue");
@@ -96,81 +122,289 @@ class RedisQueueServiceTest {
     }
 
     @Test
-    void testVisibilityTimeoutExpiry() throws Exception {
-        // Simulate pulling a message and it becoming visible again after timeout
-        Message msg = new Message("hello", 0);
-        msg.setReceiptId("r1");
-        msg.setVisibleFrom(System.currentTimeMillis() - 1); // expired => visible again
-
-        String msgJson = objectMapper.writeValueAsString(msg);
+    void testPullPassesVisibilityDeadline() throws Exception {
+        HttpResponse<String> mockResponse = response("{\"result\":[]}");
+        when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(mockResponse);
 
-        HttpResponse<String> rpopResponse = mock(HttpResponse.class);
-        when(rpopResponse.statusCode()).thenReturn(200);
-        when(rpopResponse.body()).thenReturn(msgJson);
+        long before = System.currentTimeMillis();
+        service.pull("myQueue");
 
-        HttpResponse<String> inflightResponse = mock(HttpResponse.class);
-        when(inflightResponse.statusCode()).thenReturn(200);
+        // EVALSHA sha numkeys 6 keys, then now, deadline, count, receipt prefix
+        List<?> command = objectMapper.readValue(bodyOf(lastRequest(1)), List.class);
+        long now = Long.parseLong((String) command.get(9));
+        long deadline = Long.parseLong((String) command.get(10));
+        assertTrue(now >= before);
+        assertEquals(30_000, deadline - now);
+        assertEquals("1", command.get(11));
+    }
 
+    @Test
+    void testNoScriptFallsBackToEval() throws Exception {
+        HttpResponse<String> noScript = response("{\"error\":\"NOSCRIPT No matching script.\"}");
+        HttpResponse<String> ok = response("{\"result\":1}");
         when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
-                .thenReturn(rpopResponse)
-                .thenReturn(inflightResponse);
+                .thenReturn(noScript)
+                .thenReturn(ok);
 
-        Message pulled = service.pull("myQueue");
-        assertNotNull(pulled);
-        assertEquals("hello", pulled.getBody());
+        service.push("myQueue", "hello");
+
+        assertTrue(bodyOf(lastRequest(2)).startsWith("[\"EVAL\""));
     }
 
     @Test
     void testDeleteSuccess() throws Exception {
-        HttpResponse<String> mockResponse = mock(HttpResponse.class);
-        when(mockResponse.statusCode()).thenReturn(200);
+        HttpResponse<String> mockResponse = response("{\"result\":1}");
+        when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(mockResponse);
+
+        assertDoesNotThrow(() -> service.delete("myQueue", "0000000000000001:0/receipt123"));
+    }
+
+    @Test
+    void testRequeueExpiredMessage() throws Exception {
+        HttpResponse<String> pushResponse = response("{\"result\":1}");
+        HttpResponse<String> requeueResponse = response("{\"result\":1}");
+        when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(pushResponse)
+                .thenReturn(requeueResponse);
+
+        service.push("myQueue", "hello");
+        assertEquals(1, service.requeueExpiredMessages("myQueue"));
 
+        // One EVAL against the queue's own in-flight set, no global hash scan
+        String body = bodyOf(lastRequest(2));
+        assertTrue(body.contains("{myQueue}:inflight"));
+    }
+
+    @Test
+    void testRequeueSweepsEveryKnownQueue() throws Exception {
+        HttpResponse<String> mockResponse = response("{\"result\":0}");
         when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
                 .thenReturn(mockResponse);
 
-        assertDoesNotThrow(() -> service.delete("myQueue", "receipt123"));
+        service.push("q1", "a");
+        service.push("q2", "b");
+        service.requeueExpiredMessages();
+
+        verify(client, times(4)).send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class));
     }
 
+    @Test
+    void testRedrivePolicyIsStoredWithTheQueue() throws Exception {
+        HttpResponse<String> mockResponse = response("{\"result\":2}");
+        when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(mockResponse);
+
+        service.setRedrivePolicy("myQueue", "myDlq", 5);
+        List<?> command = objectMapper.readValue(bodyOf(lastRequest(1)), List.class);
+        assertEquals(List.of("HSET", "{myQueue}:redrive", "dlq", "myDlq", "maxReceive", "5"), command);
+
+        // Pull passes the policy key, so the script applies whatever policy is stored
+        service.pull("myQueue");
+        command = objectMapper.readValue(bodyOf(lastRequest(2)), List.class);
+        assertEquals("6", command.get(2));
+        assertEquals("{myQueue}:redrive", command.get(8));
+    }
 
     @Test
-    void testRequeueExpiredMessage() throws Exception {
-        // Prepare a message in inflight that is already expired
-        Message msg = new Message("hello", 0);
-        msg.setReceiptId("receipt123");
-        msg.setVisibleFrom(System.currentTimeMillis() - 1000); // expired
+    void testRedriveLoopsUntilDeadLetterQueueIsDrained() throws Exception {
+        HttpResponse<String> fullBatch = response("{\"result\":1000}");
+        HttpResponse<String> lastBatch = response("{\"result\":7}");
+        when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(fullBatch)
+                .thenReturn(lastBatch);
 
-        String msgJson = objectMapper.writeValueAsString(msg);
+        assertEquals(1007, service.redrive("myDlq", "myQueue"));
 
-        // Mock inflight keys
-        HttpResponse<String> keysResponse = mock(HttpResponse.class);
-        when(keysResponse.statusCode()).thenReturn(200);
-        when(keysResponse.body()).thenReturn(objectMapper.writeValueAsString(List.of("receipt123")));
+        String body = bodyOf(lastRequest(2));
+        assertTrue(body.contains("{myDlq}:ready"));
+        assertTrue(body.contains("{myQueue}:ready"));
+    }
 
-        // Mock HGET inflight
-        HttpResponse<String> hgetResponse = mock(HttpResponse.class);
-        when(hgetResponse.statusCode()).thenReturn(200);
-        when(hgetResponse.body()).thenReturn(msgJson);
+    @Test
+    void testChangeVisibilityMovesLeaseDeadline() throws Exception {
+        HttpResponse<String> mockResponse = response("{\"result\":1}");
+        when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(mockResponse);
 
-        // Mock LPUSH to requeue
-        HttpResponse<String> lpushResponse = mock(HttpResponse.class);
-        when(lpushResponse.statusCode()).thenReturn(200);
+        assertTrue(service.changeVisibility("myQueue", "0000000000000001:0/r.1", Duration.ofMinutes(5)));
 
-        // Mock HDEL from inflight
-        HttpResponse<String> hdelResponse = mock(HttpResponse.class);
-        when(hdelResponse.statusCode()).thenReturn(200);
+        // EVALSHA sha numkeys 5 keys, then receipt, now, deadline
+        List<?> command = objectMapper.readValue(bodyOf(lastRequest(1)), List.class);
+        assertEquals("0000000000000001:0/r.1", command.get(8));
+        long now = Long.parseLong((String) command.get(9));
+        assertEquals(300_000, Long.parseLong((String) command.get(10)) - now);
+    }
 
+    @Test
+    void testChangeVisibilityReportsLostLease() throws Exception {
+        HttpResponse<String> mockResponse = response("{\"result\":0}");
         when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
-                .thenReturn(keysResponse)   // HKEYS inflight
-                .thenReturn(hgetResponse)   // HGET inflight
-                .thenReturn(lpushResponse)  // LPUSH back to queue
-                .thenReturn(hdelResponse);  // HDEL from inflight
+                .thenReturn(mockResponse);
 
-        // Call the private method via reflection or temporarily make it package-private
-        service.requeueExpiredMessages();
+        assertFalse(service.changeVisibility("myQueue", "0000000000000001:0/r.1", Duration.ofMinutes(5)));
+    }
+
+    @Test
+    void testPerQueueVisibilityTimeout() throws Exception {
+        HttpResponse<String> mockResponse = response("{\"result\":[]}");
+        when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(mockResponse);
+
+        service.setVisibilityTimeout("myQueue", Duration.ofMinutes(10));
+        service.pull("myQueue");
 
-        // If no exceptions thrown, the method executed successfully
+        List<?> command = objectMapper.readValue(bodyOf(lastRequest(1)), List.class);
+        long now = Long.parseLong((String) command.get(9));
+        assertEquals(600_000, Long.parseLong((String) command.get(10)) - now);
     }
 
+    @Test
+    void testDeleteRecordsDwellTimeFromReceipt() throws Exception {
+        long pushedAt = System.currentTimeMillis() - 2_000;
+        String receipt = "0000000000000001:" + pushedAt + ":0/r.1";
+        HttpResponse<String> mockResponse = response("{\"result\":[\"" + receipt + "\",3]}");
+        when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(mockResponse);
+
+        service.delete("myQueue", receipt);
+
+        QueueMetrics metrics = service.metrics("myQueue");
+        assertEquals(1, metrics.getDeleted());
+        assertEquals(3, metrics.getAttemptsAtDelete().getMax());
+        assertTrue(metrics.getDwellTime().getMax() >= 2_000);
+    }
+
+    @Test
+    void testGaugesUseOneScriptCall() throws Exception {
+        long pushedAt = System.currentTimeMillis() - 10_000;
+        HttpResponse<String> mockResponse = response(
+                "{\"result\":[5,2,\"0000000000000007:" + pushedAt + ":1\"]}");
+        when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(mockResponse);
+
+        QueueMetrics.Gauges gauges = service.gauges("myQueue");
+
+        assertEquals(5, gauges.getDepth());
+        assertEquals(2, gauges.getInFlight());
+        assertTrue(gauges.getOldestAgeMillis() >= 10_000);
+        verify(client, times(1)).send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class));
+    }
+
+    @Test
+    void testCreatedAtOfParsesMembersAndReceipts() {
+        assertEquals(1_700_000_000_000L, RedisQueueService.createdAtOf("00000000000000ff:1700000000000:-2"));
+        assertEquals(1_700_000_000_000L, RedisQueueService.createdAtOf("00000000000000ff:1700000000000:3/ab.1"));
+        assertEquals(-1, RedisQueueService.createdAtOf("00000000000000ff:3/ab.1"));
+    }
+
+    @Test
+    void testPushDeduplicatedClaimsKeyInSameScript() throws Exception {
+        HttpResponse<String> pushed = response("{\"result\":1}");
+        HttpResponse<String> duplicate = response("{\"result\":0}");
+        when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(pushed, duplicate);
+        service.setDeduplicationWindow("myQueue", Duration.ofMinutes(1));
+
+        assertTrue(service.pushDeduplicated("myQueue", "hello", "order-42"));
+        List<?> command = objectMapper.readValue(bodyOf(lastRequest(1)), List.class);
+        assertEquals(RedisScripts.PUSH_DEDUP.sha, command.get(1));
+        assertEquals("{myQueue}:dedup:order-42", command.get(7));
+        assertEquals("60000", command.get(10)); // window follows priority and createdAt
+
+        assertFalse(service.pushDeduplicated("myQueue", "hello", "order-42"));
+        assertEquals(1, service.metrics("myQueue").getDeduplicated());
+        assertEquals(1, service.metrics("myQueue").getPushed());
+    }
+
+    @Test
+    void testPushBatchUsesSingleRequest() throws Exception {
+        HttpResponse<String> mockResponse = response("{\"result\":3}");
+        when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(mockResponse);
+
+        service.pushBatch("myQueue", List.of("a", "b\"quoted\"", "c"));
+
+        verify(client, times(1)).send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class));
+    }
+
+    @Test
+    void testPullBatchReturnsMessages() throws Exception {
+        String first = RedisQueueService.encode(new Message("a", 0));
+        String second = RedisQueueService.encode(new Message("b", 0));
+
+        HttpResponse<String> pullResponse = response(objectMapper.writeValueAsString(Map.of("result",
+                List.of("0000000000000001:0/r1", first, 1, "0000000000000002:0/r3", second, 2))));
+        when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(pullResponse);
 
+        List<Message> pulled = service.pull("myQueue", 10);
 
+        assertEquals(2, pulled.size());
+        assertEquals("a", pulled.get(0).getBody());
+        assertEquals("b", pulled.get(1).getBody());
+        assertEquals(2, pulled.get(1).getAttempts());
+        verify(client, times(1)).send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class));
+    }
+
+    @Test
+    void testPullBatchEmptyQueue() throws Exception {
+        HttpResponse<String> mockResponse = response("{\"result\":[]}");
+        when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(mockResponse);
+
+        assertTrue(service.pull("myQueue", 10).isEmpty());
+    }
+
+    @Test
+    void testDeleteBatchUsesSingleRequest() throws Exception {
+        HttpResponse<String> mockResponse = response("{\"result\":2}");
+        when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(mockResponse);
+
+        service.deleteBatch("myQueue", List.of("0000000000000001:0/r1", "0000000000000002:0/r3"));
+
+        verify(client, times(1)).send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class));
+    }
+
+    @Test
+    void testLongPollWaitsOnSignalList() throws Exception {
+        String payload = RedisQueueService.encode(new Message("hello", 0));
+
+        HttpResponse<String> emptyResponse = response("{\"result\":[]}");
+        HttpResponse<String> signalResponse = response("{\"result\":[\"{myQueue}:signal\",\"1\"]}");
+        HttpResponse<String> pullResponse = response(
+                objectMapper.writeValueAsString(Map.of("result", List.of("0000000000000001:0/r1", payload, 1))));
+
+        when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(emptyResponse)   // nothing visible yet
+                .thenReturn(signalResponse)  // BLPOP returns once a push signals
+                .thenReturn(pullResponse);   // retry the pull
+
+        Message pulled = service.pull("myQueue", Duration.ofSeconds(5));
+
+        assertNotNull(pulled);
+        assertEquals("hello", pulled.getBody());
+    }
+
+    @Test
+    void testLongPollTimesOut() throws Exception {
+        HttpResponse<String> emptyResponse = response("{\"result\":[]}");
+        HttpResponse<String> timeoutResponse = response("{\"result\":null}");
+        when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(emptyResponse)
+                .thenReturn(timeoutResponse)
+                .thenReturn(emptyResponse);
+
+        assertNull(service.pull("myQueue", Duration.ofMillis(1)));
+    }
+
+    /** The last request sent, given the total number of requests expected so far. */
+    private HttpRequest lastRequest(int expectedCalls) throws Exception {
+        ArgumentCaptor<HttpRequest> captor = ArgumentCaptor.forClass(HttpRequest.class);
+        verify(client, times(expectedCalls)).send(captor.capture(), any(HttpResponse.BodyHandler.class));
+        List<HttpRequest> requests = captor.getAllValues();
+        return requests.get(requests.size() - 1);
+    }
 }
@@ -0,0 +1,189 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the Lua scripts of RedisScripts through both Redis clients against RedisStandIn, so their
+ * behaviour is checked rather than just the commands the clients send.
+ */
+class RedisScriptsTest {
+
+    private RedisStandIn redis;
+    private RedisQueueService service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        redis = new RedisStandIn();
+        service = new RedisQueueService(HttpClient.newHttpClient(), redis.url(), "token");
+    }
+
+    @AfterEach
+    void tearDown() {
+        redis.close();
+    }
+
+    @Test
+    void testPullTakesHighestPriorityThenOldest() {
+        service.push("q1", "low", 1);
+        service.push("q1", "first", 5);
+        service.push("q1", "second", 5);
+
+        List<Message> pulled = service.pull("q1", 10);
+        assertEquals(List.of("first", "second", "low"), pulled.stream().map(Message::getBody).toList());
+        assertEquals(1, pulled.get(0).getAttempts());
+        assertNull(service.pull("q1"));
+    }
+
+    @Test
+    void testDeleteNeedsTheCurrentReceipt() throws Exception {
+        service.push("q1", "hello");
+        Message first = service.pull("q1", 1, Duration.ofMillis(1)).get(0);
+        Thread.sleep(10);
+
+        Message second = service.pull("q1");
+        assertEquals("hello", second.getBody());
+        assertEquals(2, second.getAttempts());
+        service.delete("q1", first.getReceiptId()); // lease expired: ignored
+        assertEquals(1, service.gauges("q1").getInFlight());
+
+        service.delete("q1", second.getReceiptId());
+        assertEquals(0, service.gauges("q1").getInFlight());
+        assertNull(redis.get("{q1}:msgs"));
+        assertEquals(1, service.metrics("q1").getDeleted());
+    }
+
+    @Test
+    void testRequeueMovesOnlyExpiredLeases() throws Exception {
+        service.pushBatch("q1", List.of("a", "b"));
+        service.pull("q1", 1, Duration.ofMinutes(5));
+        service.pull("q1", 1, Duration.ofMillis(1));
+        Thread.sleep(10);
+
+        assertEquals(1, service.requeueExpiredMessages("q1"));
+        QueueMetrics.Gauges gauges = service.gauges("q1");
+        assertEquals(1, gauges.getDepth());
+        assertEquals(1, gauges.getInFlight());
+        assertEquals("b", service.pull("q1").getBody());
+    }
+
+    @Test
+    void testExhaustedMessagesMoveToDeadLetterQueueAndBack() throws Exception {
+        service.setRedrivePolicy("q1", "q1-dlq", 2);
+        service.push("q1", "poison", 3);
+        for (int receive = 0; receive < 2; receive++) {
+            assertEquals("poison", service.pull("q1", 1, Duration.ofMillis(1)).get(0).getBody());
+            Thread.sleep(10);
+        }
+
+        assertNull(service.pull("q1"));
+        assertEquals(1, service.gauges("q1-dlq").getDepth());
+
+        assertEquals(1, service.redrive("q1-dlq", "q1"));
+        assertEquals(0, service.gauges("q1-dlq").getDepth());
+        Message redriven = service.pull("q1");
+        assertEquals("poison", redriven.getBody());
+        assertEquals(1, redriven.getAttempts());
+    }
+
+    @Test
+    void testRedrivePolicyHoldsForClientsThatDidNotSetIt() throws Exception {
+        service.setRedrivePolicy("q1", "q1-dlq", 1);
+        RedisQueueService other = new RedisQueueService(HttpClient.newHttpClient(), redis.url(), "token");
+        other.push("q1", "poison");
+        other.pull("q1", 1, Duration.ofMillis(1));
+        Thread.sleep(10);
+
+        assertEquals(0, other.requeueExpiredMessages("q1"));
+        assertEquals("poison", other.pull("q1-dlq").getBody());
+    }
+
+    @Test
+    void testChangeVisibilityMovesTheDeadline() throws Exception {
+        service.push("q1", "hello");
+        Message msg = service.pull("q1", 1, Duration.ofMillis(500)).get(0);
+
+        assertTrue(service.changeVisibility("q1", msg.getReceiptId(), Duration.ofMinutes(5)));
+        Thread.sleep(600);
+        assertNull(service.pull("q1"));
+
+        assertTrue(service.changeVisibility("q1", msg.getReceiptId(), Duration.ZERO));
+        Thread.sleep(2);
+        assertFalse(service.changeVisibility("q1", msg.getReceiptId(), Duration.ofMinutes(5)));
+        assertEquals("hello", service.pull("q1").getBody());
+    }
+
+    @Test
+    void testPushDeduplicatedClaimsIdForTheWindow() throws Exception {
+        service.setDeduplicationWindow("q1", Duration.ofSeconds(1));
+
+        assertTrue(service.pushDeduplicated("q1", "charge", "order-42"));
+        assertFalse(service.pushDeduplicated("q1", "charge again", "order-42"));
+        assertTrue(service.pushDeduplicated("q1", "body", null));
+        assertFalse(service.pushDeduplicated("q1", "body", null));
+        Thread.sleep(1_100);
+        assertTrue(service.pushDeduplicated("q1", "charge", "order-42"));
+
+        assertEquals(3, service.pull("q1", 10).size());
+    }
+
+    @Test
+    void testZeroDeduplicationWindowPushesEverything() {
+        service.setDeduplicationWindow("q1", Duration.ZERO);
+
+        assertTrue(service.pushDeduplicated("q1", "charge", "order-42"));
+        assertTrue(service.pushDeduplicated("q1", "charge", "order-42"));
+        assertEquals(2, service.pull("q1", 10).size());
+    }
+
+    @Test
+    void testCompressedPayloadsRoundTrip() {
+        String body = "{\"event\": \"click\"} ".repeat(500);
+        service.setCompression("q1", 100);
+        service.push("q1", body);
+
+        assertEquals(body, service.pull("q1").getBody());
+    }
+
+    @Test
+    void testAsyncClientSharesQueuesWithBlockingClient() {
+        AsyncRedisQueueService async = new AsyncRedisQueueService(HttpClient.newHttpClient(), redis.url(), "token",
+                100, 2, 1_000);
+        async.pushBatch("q1", List.of("a", "b")).join();
+        service.push("q1", "c");
+
+        List<Message> pulled = async.pull("q1", 10).join();
+        assertEquals(3, pulled.size());
+        async.deleteBatch("q1", pulled.stream().map(Message::getReceiptId).toList()).join();
+        assertEquals(0, service.gauges("q1").getInFlight());
+        assertEquals(0, service.gauges("q1").getDepth());
+    }
+
+    @Test
+    void testAsyncClientHonoursVisibilityTimeouts() throws Exception {
+        AsyncRedisQueueService async = new AsyncRedisQueueService(HttpClient.newHttpClient(), redis.url(), "token",
+                100, 2, 1_000);
+        async.setVisibilityTimeout("q1", Duration.ofMillis(500));
+        async.push("q1", "hello").join();
+
+        Message msg = async.pull("q1").join();
+        assertTrue(async.changeVisibility("q1", msg.getReceiptId(), Duration.ofMinutes(5)).join());
+        Thread.sleep(600);
+        assertNull(async.pull("q1").join());
+
+        assertTrue(async.changeVisibility("q1", msg.getReceiptId(), Duration.ZERO).join());
+        Thread.sleep(2);
+        assertFalse(async.changeVisibility("q1", msg.getReceiptId(), Duration.ofMinutes(5)).join());
+        Message again = async.pull("q1").join();
+        assertEquals("hello", again.getBody());
+        assertEquals(2, again.getAttempts());
+    }
+}
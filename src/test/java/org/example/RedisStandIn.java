@@ -0,0 +1,521 @@
+package org.example;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.VarArgFunction;
+import org.luaj.vm2.lib.jse.JsePlatform;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * In-process stand-in for an Upstash Redis REST endpoint that really runs the queue's Lua scripts,
+ * with LuaJ as the interpreter. It keeps strings, hashes, sorted sets and lists in memory and
+ * implements the commands RedisScripts calls, with Redis' argument checks and its conversions
+ * between Lua values and replies. EVAL, EVALSHA (answering NOSCRIPT until a script has been sent
+ * with EVAL) and /pipeline batches behave as on Upstash; BLPOP never blocks.
+ *
+ * <p>Commands run one at a time, like on a single Redis server, so every script is atomic.
+ */
+final class RedisStandIn implements AutoCloseable {
+    private final HttpServer server;
+    private final Globals lua = JsePlatform.standardGlobals();
+    private final Map<String, LuaValue> scripts = new HashMap<>();
+    private final Map<String, Object> data = new HashMap<>();
+    private final Map<String, Long> expiresAt = new HashMap<>();
+
+    RedisStandIn() throws IOException {
+        LuaTable redis = new LuaTable();
+        redis.set("call", new VarArgFunction() {
+            @Override
+            public Varargs invoke(Varargs args) {
+                List<String> command = new ArrayList<>(args.narg());
+                for (int i = 1; i <= args.narg(); i++) {
+                    LuaValue arg = args.arg(i);
+                    if (!arg.isstring()) {
+                        throw new LuaError("ERR Lua redis lib command arguments must be strings or integers");
+                    }
+                    command.add(arg.tojstring());
+                }
+                try {
+                    return toLua(RedisStandIn.this.call(command));
+                } catch (RedisError e) {
+                    throw new LuaError(e.getMessage());
+                }
+            }
+        });
+        lua.set("redis", redis);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /** The value of a key for assertions: a String, Map, ZSet or Deque; null if absent. */
+    synchronized Object get(String key) {
+        return live(key);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            JsonNode request = RedisQueueService.MAPPER.readTree(in);
+            JsonNode reply;
+            if (exchange.getRequestURI().getPath().endsWith("/pipeline")) {
+                ArrayNode replies = RedisQueueService.MAPPER.createArrayNode();
+                for (JsonNode command : request) {
+                    replies.add(execute(command));
+                }
+                reply = replies;
+            } else {
+                reply = execute(request);
+            }
+            byte[] body = RedisQueueService.MAPPER.writeValueAsBytes(reply);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    /** Run one command and wrap its outcome in an Upstash reply envelope. */
+    private synchronized ObjectNode execute(JsonNode json) {
+        ObjectNode reply = RedisQueueService.MAPPER.createObjectNode();
+        List<String> command = new ArrayList<>(json.size());
+        json.forEach(arg -> command.add(arg.asText()));
+        try {
+            reply.set("result", RedisQueueService.MAPPER.valueToTree(call(command)));
+        } catch (LuaError e) {
+            String message = e.getMessage();
+            reply.put("error", message.substring(message.indexOf("ERR") >= 0 ? message.indexOf("ERR") : 0));
+        } catch (RedisError e) {
+            reply.put("error", e.getMessage());
+        }
+        return reply;
+    }
+
+    /** Run a command; replies are null, Long, String or List of those. */
+    private Object call(List<String> command) {
+        String verb = command.get(0).toUpperCase();
+        List<String> args = command.subList(1, command.size());
+        return switch (verb) {
+            case "EVAL" -> eval(load(args.get(0)), args.subList(1, args.size()));
+            case "EVALSHA" -> {
+                LuaValue script = scripts.get(args.get(0));
+                if (script == null) {
+                    throw new RedisError("NOSCRIPT No matching script. Please use EVAL.");
+                }
+                yield eval(script, args.subList(1, args.size()));
+            }
+            case "GET" -> live(args.get(0)) instanceof String value ? value : null;
+            case "SET" -> set(args);
+            case "DEL" -> {
+                long deleted = 0;
+                for (String key : args) {
+                    deleted += data.remove(key) != null ? 1 : 0;
+                    expiresAt.remove(key);
+                }
+                yield deleted;
+            }
+            case "INCR" -> {
+                String value = live(args.get(0)) instanceof String s ? s : "0";
+                long next = Long.parseLong(value) + 1;
+                data.put(args.get(0), Long.toString(next));
+                yield next;
+            }
+            case "HGET" -> hash(args.get(0), false).get(args.get(1));
+            case "HMGET" -> {
+                Map<String, String> hash = hash(args.get(0), false);
+                List<Object> values = new ArrayList<>();
+                args.subList(1, args.size()).forEach(field -> values.add(hash.get(field)));
+                yield values;
+            }
+            case "HGETALL" -> {
+                List<Object> flat = new ArrayList<>();
+                hash(args.get(0), false).forEach((field, value) -> {
+                    flat.add(field);
+                    flat.add(value);
+                });
+                yield flat;
+            }
+            case "HSET" -> {
+                if (args.size() < 3 || args.size() % 2 == 0) {
+                    throw new RedisError("ERR wrong number of arguments for 'hset' command");
+                }
+                Map<String, String> hash = hash(args.get(0), true);
+                long added = 0;
+                for (int i = 1; i + 1 < args.size(); i += 2) {
+                    added += hash.put(args.get(i), args.get(i + 1)) == null ? 1 : 0;
+                }
+                yield added;
+            }
+            case "HDEL" -> {
+                Map<String, String> hash = hash(args.get(0), false);
+                long deleted = 0;
+                for (String field : args.subList(1, args.size())) {
+                    deleted += hash.remove(field) != null ? 1 : 0;
+                }
+                dropIfEmpty(args.get(0), hash.isEmpty());
+                yield deleted;
+            }
+            case "HINCRBY" -> {
+                Map<String, String> hash = hash(args.get(0), true);
+                long value = Long.parseLong(hash.getOrDefault(args.get(1), "0")) + integer(args.get(2));
+                hash.put(args.get(1), Long.toString(value));
+                yield value;
+            }
+            case "ZADD" -> zadd(args);
+            case "ZREM" -> {
+                ZSet zset = zset(args.get(0), false);
+                long removed = 0;
+                for (String member : args.subList(1, args.size())) {
+                    removed += zset.remove(member) ? 1 : 0;
+                }
+                dropIfEmpty(args.get(0), zset.scores.isEmpty());
+                yield removed;
+            }
+            case "ZCARD" -> (long) zset(args.get(0), false).scores.size();
+            case "ZSCORE" -> {
+                Double score = zset(args.get(0), false).scores.get(args.get(1));
+                yield score == null ? null : formatScore(score);
+            }
+            case "ZRANGE" -> {
+                List<ZEntry> entries = new ArrayList<>(zset(args.get(0), false).entries);
+                int start = (int) integer(args.get(1));
+                int stop = (int) integer(args.get(2));
+                start = start < 0 ? Math.max(entries.size() + start, 0) : start;
+                stop = Math.min(stop < 0 ? entries.size() + stop : stop, entries.size() - 1);
+                List<Object> members = new ArrayList<>();
+                for (int i = start; i <= stop; i++) {
+                    members.add(entries.get(i).member);
+                }
+                yield members;
+            }
+            case "ZRANGEBYSCORE" -> {
+                List<Object> members = new ArrayList<>();
+                for (ZEntry entry : zset(args.get(0), false).entries) {
+                    if (aboveMin(entry.score, args.get(1)) && belowMax(entry.score, args.get(2))) {
+                        members.add(entry.member);
+                    }
+                }
+                yield members;
+            }
+            case "ZPOPMIN" -> {
+                ZSet zset = zset(args.get(0), false);
+                long count = args.size() > 1 ? integer(args.get(1)) : 1;
+                List<Object> popped = new ArrayList<>();
+                while (count-- > 0 && !zset.entries.isEmpty()) {
+                    ZEntry first = zset.entries.first();
+                    zset.remove(first.member);
+                    popped.add(first.member);
+                    popped.add(formatScore(first.score));
+                }
+                dropIfEmpty(args.get(0), zset.scores.isEmpty());
+                yield popped;
+            }
+            case "LPUSH" -> {
+                Deque<String> list = list(args.get(0), true);
+                args.subList(1, args.size()).forEach(list::addFirst);
+                yield (long) list.size();
+            }
+            case "LTRIM" -> {
+                Deque<String> list = list(args.get(0), false);
+                List<String> kept = new ArrayList<>(list);
+                int stop = (int) Math.min(integer(args.get(2)), kept.size() - 1);
+                list.clear();
+                list.addAll(kept.subList((int) Math.min(integer(args.get(1)), kept.size()), stop + 1));
+                dropIfEmpty(args.get(0), list.isEmpty());
+                yield "OK";
+            }
+            case "BLPOP" -> {
+                for (String key : args.subList(0, args.size() - 1)) {
+                    Deque<String> list = list(key, false);
+                    if (!list.isEmpty()) {
+                        String value = list.pollFirst();
+                        dropIfEmpty(key, list.isEmpty());
+                        yield List.of(key, value);
+                    }
+                }
+                yield null;
+            }
+            default -> throw new RedisError("ERR unknown command '" + command.get(0) + "'");
+        };
+    }
+
+    private LuaValue load(String source) {
+        LuaValue script = lua.load(source, "script");
+        scripts.put(new RedisScripts.Script(source).sha, script);
+        return script;
+    }
+
+    private Object eval(LuaValue script, List<String> args) {
+        int keyCount = (int) integer(args.get(0));
+        LuaTable keys = new LuaTable();
+        LuaTable argv = new LuaTable();
+        for (int i = 0; i < keyCount; i++) {
+            keys.set(i + 1, LuaValue.valueOf(args.get(1 + i)));
+        }
+        for (int i = 1 + keyCount; i < args.size(); i++) {
+            argv.set(i - keyCount, LuaValue.valueOf(args.get(i)));
+        }
+        lua.set("KEYS", keys);
+        lua.set("ARGV", argv);
+        return fromLua(script.call());
+    }
+
+    private Object set(List<String> args) {
+        String key = args.get(0);
+        boolean onlyIfAbsent = false;
+        long expireMillis = -1;
+        for (int i = 2; i < args.size(); i++) {
+            switch (args.get(i).toUpperCase()) {
+                case "NX" -> onlyIfAbsent = true;
+                case "PX" -> {
+                    expireMillis = integer(args.get(++i));
+                    if (expireMillis <= 0) {
+                        throw new RedisError("ERR invalid expire time in 'set' command");
+                    }
+                }
+                default -> throw new RedisError("ERR syntax error");
+            }
+        }
+        if (onlyIfAbsent && live(key) != null) {
+            return null;
+        }
+        data.put(key, args.get(1));
+        if (expireMillis > 0) {
+            expiresAt.put(key, System.currentTimeMillis() + expireMillis);
+        } else {
+            expiresAt.remove(key);
+        }
+        return "OK";
+    }
+
+    private Object zadd(List<String> args) {
+        int i = 1;
+        boolean onlyExisting = false;
+        if (args.get(i).equalsIgnoreCase("XX")) {
+            onlyExisting = true;
+            i++;
+        }
+        if ((args.size() - i) % 2 != 0 || args.size() - i == 0) {
+            throw new RedisError("ERR syntax error");
+        }
+        ZSet zset = zset(args.get(0), true);
+        long added = 0;
+        for (; i < args.size(); i += 2) {
+            double score = score(args.get(i));
+            String member = args.get(i + 1);
+            boolean exists = zset.scores.containsKey(member);
+            if (onlyExisting && !exists) {
+                continue;
+            }
+            zset.remove(member);
+            zset.add(member, score);
+            added += exists ? 0 : 1;
+        }
+        dropIfEmpty(args.get(0), zset.scores.isEmpty());
+        return added;
+    }
+
+    /** The key's value, after dropping it if its expiry has passed. */
+    private Object live(String key) {
+        Long expiry = expiresAt.get(key);
+        if (expiry != null && expiry <= System.currentTimeMillis()) {
+            expiresAt.remove(key);
+            data.remove(key);
+        }
+        return data.get(key);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, String> hash(String key, boolean create) {
+        Object value = live(key);
+        if (value == null) {
+            Map<String, String> hash = new LinkedHashMap<>();
+            if (create) {
+                data.put(key, hash);
+            }
+            return hash;
+        }
+        if (!(value instanceof Map)) {
+            throw wrongType();
+        }
+        return (Map<String, String>) value;
+    }
+
+    private ZSet zset(String key, boolean create) {
+        Object value = live(key);
+        if (value == null) {
+            ZSet zset = new ZSet();
+            if (create) {
+                data.put(key, zset);
+            }
+            return zset;
+        }
+        if (!(value instanceof ZSet zset)) {
+            throw wrongType();
+        }
+        return zset;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Deque<String> list(String key, boolean create) {
+        Object value = live(key);
+        if (value == null) {
+            Deque<String> list = new ArrayDeque<>();
+            if (create) {
+                data.put(key, list);
+            }
+            return list;
+        }
+        if (!(value instanceof Deque)) {
+            throw wrongType();
+        }
+        return (Deque<String>) value;
+    }
+
+    private void dropIfEmpty(String key, boolean empty) {
+        if (empty) {
+            data.remove(key);
+        }
+    }
+
+    private static RedisError wrongType() {
+        return new RedisError("WRONGTYPE Operation against a key holding the wrong kind of value");
+    }
+
+    private static long integer(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new RedisError("ERR value is not an integer or out of range");
+        }
+    }
+
+    private static double score(String value) {
+        try {
+            return switch (value) {
+                case "-inf" -> Double.NEGATIVE_INFINITY;
+                case "+inf", "inf" -> Double.POSITIVE_INFINITY;
+                default -> Double.parseDouble(value);
+            };
+        } catch (NumberFormatException e) {
+            throw new RedisError("ERR value is not a valid float");
+        }
+    }
+
+    private static boolean aboveMin(double score, String min) {
+        return min.startsWith("(") ? score > score(min.substring(1)) : score >= score(min);
+    }
+
+    private static boolean belowMax(double score, String max) {
+        return max.startsWith("(") ? score < score(max.substring(1)) : score <= score(max);
+    }
+
+    private static String formatScore(double score) {
+        return score == Math.rint(score) && !Double.isInfinite(score)
+                ? Long.toString((long) score)
+                : Double.toString(score);
+    }
+
+    /** Redis reply to Lua value: nil becomes false, integers numbers, arrays tables. */
+    private static LuaValue toLua(Object reply) {
+        if (reply == null) {
+            return LuaValue.FALSE;
+        }
+        if (reply instanceof Long value) {
+            return value == (int) (long) value ? LuaValue.valueOf((int) (long) value) : LuaValue.valueOf((double) value);
+        }
+        if (reply instanceof List<?> values) {
+            LuaTable table = new LuaTable();
+            for (int i = 0; i < values.size(); i++) {
+                table.set(i + 1, toLua(values.get(i)));
+            }
+            return table;
+        }
+        return LuaValue.valueOf(reply.toString());
+    }
+
+    /** Lua value to Redis reply: numbers are truncated, false is nil and arrays stop at the first nil. */
+    private static Object fromLua(LuaValue value) {
+        if (value.isnil() || (value.isboolean() && !value.toboolean())) {
+            return null;
+        }
+        if (value.isboolean()) {
+            return 1L;
+        }
+        if (value.type() == LuaValue.TNUMBER) {
+            return (long) value.todouble();
+        }
+        if (value.istable()) {
+            LuaValue error = value.get("err");
+            if (!error.isnil()) {
+                throw new RedisError(error.tojstring());
+            }
+            List<Object> values = new ArrayList<>();
+            for (int i = 1; !value.get(i).isnil(); i++) {
+                values.add(fromLua(value.get(i)));
+            }
+            return values;
+        }
+        return value.tojstring();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    /** Sorted set ordered by score, then member, like Redis. */
+    static final class ZSet {
+        final Map<String, Double> scores = new HashMap<>();
+        final TreeSet<ZEntry> entries = new TreeSet<>(
+                Comparator.comparingDouble((ZEntry e) -> e.score).thenComparing(e -> e.member));
+
+        void add(String member, double score) {
+            scores.put(member, score);
+            entries.add(new ZEntry(member, score));
+        }
+
+        boolean remove(String member) {
+            Double score = scores.remove(member);
+            return score != null && entries.remove(new ZEntry(member, score));
+        }
+    }
+
+    record ZEntry(String member, double score) {
+    }
+
+    /** An error reply, as Redis sends it. */
+    private static final class RedisError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        RedisError(String message) {
+            super(message);
+        }
+    }
+}
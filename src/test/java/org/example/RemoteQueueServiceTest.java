@@ -0,0 +1,171 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RemoteQueueServiceTest {
+
+    private InMemoryPriorityQueueService backend;
+    private QueueServer server;
+    private RemoteQueueService client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        backend = new InMemoryPriorityQueueService();
+        server = new QueueServer(backend, new InetSocketAddress("127.0.0.1", 0));
+        client = new RemoteQueueService(new InetSocketAddress("127.0.0.1", server.getPort()), 2);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    void testPushPullDelete() {
+        client.push("q1", "low", 1);
+        client.push("q1", "high", 5);
+
+        Message msg = client.pull("q1");
+        assertEquals("high", msg.getBody());
+        assertEquals("q1", msg.getQueueUrl());
+        client.delete("q1", msg.getReceiptId());
+
+        assertEquals("low", client.pull("q1").getBody());
+        assertNull(client.pull("q1"));
+        assertEquals(1, backend.metrics("q1").getDeleted());
+    }
+
+    @Test
+    void testBatchesAndVisibility() {
+        String body = "{\"quoted\": \"value\"} \\ \n é中😀";
+        client.pushBatch("q1", List.of(body, "b", "c"));
+
+        List<Message> pulled = client.pull("q1", 10, Duration.ofMinutes(5));
+        assertEquals(3, pulled.size());
+        assertEquals(body, pulled.get(0).getBody());
+
+        assertTrue(client.changeVisibility("q1", pulled.get(1).getReceiptId(), Duration.ZERO));
+        assertFalse(client.changeVisibility("q1", "0.unknown", Duration.ZERO));
+        client.deleteBatch("q1", List.of(pulled.get(0).getReceiptId(), pulled.get(2).getReceiptId()));
+
+        assertEquals("b", client.pull("q1").getBody());
+        assertEquals(2, backend.metrics("q1").getDeleted());
+    }
+
+    @Test
+    void testLongPollWaitsForPush() throws Exception {
+        ExecutorService producer = Executors.newSingleThreadExecutor();
+        try {
+            producer.submit(() -> {
+                Thread.sleep(200);
+                client.push("q1", "late");
+                return null;
+            });
+            Message msg = client.pull("q1", Duration.ofSeconds(5));
+            assertNotNull(msg);
+            assertEquals("late", msg.getBody());
+            assertNull(client.pull("q1", Duration.ofMillis(50)));
+        } finally {
+            producer.shutdownNow();
+        }
+    }
+
+    @Test
+    void testDeduplicationAndQueueFullCrossTheWire() {
+        assertTrue(client.pushDeduplicated("q1", "charge", "order-42"));
+        assertFalse(client.pushDeduplicated("q1", "charge again", "order-42"));
+
+        backend.setQueueLimits("q1", 1, Long.MAX_VALUE, OverflowPolicy.REJECT, Duration.ZERO);
+        assertThrows(QueueFullException.class, () -> client.push("q1", "no room"));
+    }
+
+    @Test
+    void testCompressedBodiesStayCompressedOnTheWire() {
+        String body = "{\"event\": \"click\"} ".repeat(1_000);
+        backend.setCompression("q1", 100);
+        client.push("q1", body);
+
+        Message msg = client.pull("q1");
+        assertNotNull(msg.getPackedBody());
+        assertEquals(body, msg.getBody());
+    }
+
+    @Test
+    void testLargePullIsCutToOneFrame() {
+        String large = "x".repeat(2 * 1024 * 1024);
+        for (int i = 0; i < 10; i++) {
+            backend.push("q1", large);
+        }
+
+        List<Message> first = client.pull("q1", 10);
+        assertTrue(first.size() > 0 && first.size() < 10);
+        assertEquals(large, first.get(0).getBody());
+        List<Message> rest = client.pull("q1", 10);
+        assertEquals(10, first.size() + rest.size());
+        assertNull(client.pull("q1"));
+    }
+
+    @Test
+    void testOversizedPushFailsOnlyItsCaller() {
+        client.push("q1", "before");
+        String half = "x".repeat(QueueProtocol.MAX_FRAME_SIZE / 2);
+        assertThrows(IllegalArgumentException.class, () -> client.push("q1", half + half));
+        assertThrows(IllegalArgumentException.class, () -> client.pushBatch("q1", List.of(half, half)));
+
+        client.push("q1", half);
+        assertEquals("before", client.pull("q1").getBody());
+        assertEquals(half, client.pull("q1").getBody());
+        assertNull(client.pull("q1"));
+    }
+
+    @Test
+    void testConcurrentCallersShareConnections() throws Exception {
+        ExecutorService callers = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<?>> pushes = new ArrayList<>();
+            for (int t = 0; t < 16; t++) {
+                int thread = t;
+                pushes.add(callers.submit(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        client.push("q1", thread + "-" + i);
+                    }
+                }));
+            }
+            for (Future<?> push : pushes) {
+                push.get();
+            }
+        } finally {
+            callers.shutdown();
+        }
+
+        Set<String> bodies = ConcurrentHashMap.newKeySet();
+        List<Message> batch;
+        while (!(batch = client.pull("q1", 100)).isEmpty()) {
+            batch.forEach(m -> bodies.add(m.getBody()));
+        }
+        assertEquals(3_200, bodies.size());
+    }
+
+    @Test
+    void testCallsFailOnceServerIsGone() throws IOException {
+        client.push("q1", "a");
+        server.close();
+        assertThrows(RuntimeException.class, () -> client.pull("q1"));
+    }
+}
@@ -0,0 +1,83 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimingWheelTest {
+
+    @Test
+    void testTimerFiresAtDeadline() {
+        TimingWheel<String> wheel = new TimingWheel<>();
+        List<String> due = new ArrayList<>();
+        wheel.advance(1_000, due);
+        wheel.schedule("a", 1_010);
+
+        wheel.advance(1_009, due);
+        assertTrue(due.isEmpty());
+        wheel.advance(1_010, due);
+        assertEquals(List.of("a"), due);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void testCancelledTimerNeverFires() {
+        TimingWheel<String> wheel = new TimingWheel<>();
+        List<String> due = new ArrayList<>();
+        wheel.advance(0, due);
+        TimingWheel.Timer<String> timer = wheel.schedule("a", 100_000);
+
+        assertTrue(wheel.cancel(timer));
+        assertFalse(wheel.cancel(timer));
+        wheel.advance(200_000, due);
+        assertTrue(due.isEmpty());
+    }
+
+    @Test
+    void testDistantTimersCascadeAndFireOnTime() {
+        TimingWheel<Long> wheel = new TimingWheel<>();
+        List<Long> due = new ArrayList<>();
+        wheel.advance(5_000, due);
+
+        Random random = new Random(42);
+        List<Long> deadlines = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            long deadline = 5_000 + random.nextInt(i % 2 == 0 ? 100 : 10_000_000);
+            deadlines.add(deadline);
+            wheel.schedule(deadline, deadline);
+        }
+
+        // Step in uneven increments; every timer must fire no earlier than its deadline
+        long now = 5_000;
+        while (wheel.size() > 0) {
+            now += 1 + random.nextInt(5_000);
+            int before = due.size();
+            wheel.advance(now, due);
+            for (long deadline : due.subList(before, due.size())) {
+                assertTrue(deadline <= now);
+                assertTrue(deadline > now - 5_001, "fired late");
+            }
+        }
+        assertEquals(deadlines.size(), due.size());
+    }
+
+    @Test
+    void testNextDeadlineIsLowerBound() {
+        TimingWheel<String> wheel = new TimingWheel<>();
+        List<String> due = new ArrayList<>();
+        wheel.advance(1_000, due);
+        assertEquals(Long.MAX_VALUE, wheel.nextDeadline());
+
+        wheel.schedule("far", 1_000 + 30_000);
+        long bound = wheel.nextDeadline();
+        assertTrue(bound <= 31_000);
+        assertTrue(bound > 1_000);
+
+        wheel.schedule("near", 1_020);
+        assertEquals(1_020, wheel.nextDeadline());
+    }
+}